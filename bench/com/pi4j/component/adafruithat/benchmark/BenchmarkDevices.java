@@ -0,0 +1,65 @@
+package com.pi4j.component.adafruithat.benchmark;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  BenchmarkDevices.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import com.pi4j.component.adafruithat.AdafruitMotorHat;
+import com.pi4j.component.adafruithat.AdafruitServoHat;
+import com.pi4j.component.adafruithat.PCA9685Simulator;
+
+/**
+ * Creates the simulated HATs the benchmarks run against. The busSpeed parameter of 
+ * every benchmark is the I2C clock of the latency model in Hz; 0 models a bus without
+ * latency so the benchmark measures the library's own overhead.
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.PCA9685Simulator
+ */
+final class BenchmarkDevices {
+	
+	private BenchmarkDevices() {
+	}
+	
+	/**
+	 * Create a simulated PCA9685 with the latency of the I2C clock.
+	 * @param busSpeed I2C clock in Hz, 0 for no latency
+	 * @return PCA9685Simulator
+	 */
+	static PCA9685Simulator simulator(int busSpeed) {
+		PCA9685Simulator simulator = new PCA9685Simulator();
+		if (busSpeed > 0) simulator.setBusSpeed(busSpeed);
+		return simulator;
+	}
+	
+	static AdafruitMotorHat motorHat(int busSpeed) {
+		return new AdafruitMotorHat(0X60, simulator(busSpeed));
+	}
+	
+	static AdafruitServoHat servoHat(int busSpeed) {
+		return new AdafruitServoHat(0X40, simulator(busSpeed));
+	}
+}
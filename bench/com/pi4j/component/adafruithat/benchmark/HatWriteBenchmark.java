@@ -0,0 +1,89 @@
+package com.pi4j.component.adafruithat.benchmark;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  HatWriteBenchmark.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.pi4j.component.adafruithat.AdafruitHat;
+
+/**
+ * Register writes per second of AdafruitHat.write(): a single register, a block of 
+ * all 64 LED PWM registers that changes on every call, and the same block unchanged
+ * (suppressed by the shadow register cache).
+ *
+ * @author Eric Eliason
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class HatWriteBenchmark {
+	
+	@Param({"0", "100000", "400000"})
+	public int busSpeed;
+	
+	private AdafruitHat hat;
+	private final byte[] blockA = new byte[64];
+	private final byte[] blockB = new byte[64];
+	private boolean toggle;
+	
+	@Setup
+	public void setup() {
+		hat = new AdafruitHat(0X40, BenchmarkDevices.simulator(busSpeed));
+		for (int i=0; i<blockA.length; i++) {
+			blockA[i] = (byte) i;
+			blockB[i] = (byte) ~i;
+		}
+		hat.write(hat.LED0_ON_L, blockA, 0, blockA.length);
+	}
+	
+	@Benchmark
+	public void writeRegister() {
+		toggle = !toggle;
+		hat.write(hat.LED0_OFF_L, (byte) (toggle ? 0X10 : 0X20));
+	}
+	
+	@Benchmark
+	public void writeBlock() {
+		toggle = !toggle;
+		hat.write(hat.LED0_ON_L, toggle ? blockB : blockA, 0, blockA.length);
+	}
+	
+	@Benchmark
+	public void writeBlockUnchanged() {
+		hat.write(hat.LED0_ON_L, blockA, 0, blockA.length);
+	}
+}
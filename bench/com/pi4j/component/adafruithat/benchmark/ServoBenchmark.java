@@ -0,0 +1,70 @@
+package com.pi4j.component.adafruithat.benchmark;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  ServoBenchmark.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.pi4j.component.adafruithat.AdafruitServo;
+
+/**
+ * Servo updates per second of AdafruitServo.setPosition(). The position alternates so
+ * every call changes the PWM registers.
+ *
+ * @author Eric Eliason
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ServoBenchmark {
+	
+	@Param({"0", "100000", "400000"})
+	public int busSpeed;
+	
+	private AdafruitServo servo;
+	private boolean toggle;
+	
+	@Setup
+	public void setup() {
+		servo = BenchmarkDevices.servoHat(busSpeed).getServo("S01");
+	}
+	
+	@Benchmark
+	public void setPosition() {
+		toggle = !toggle;
+		servo.setPosition(toggle ? 0.25f : 0.75f);
+	}
+}
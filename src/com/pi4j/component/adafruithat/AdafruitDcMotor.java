@@ -28,6 +28,7 @@ package com.pi4j.component.adafruithat;
  * #L%
  */
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import com.pi4j.component.motor.Motor;
 import com.pi4j.component.motor.MotorState;
@@ -78,6 +79,11 @@ public class AdafruitDcMotor implements Motor {
 	//Corresponding motor direction values
 	private byte[] IN2_VALUES;
 	
+	//The three PWMs of a motor occupy contiguous PCA9685 registers and are
+	//sent in a single block write starting at the lowest register address.
+	private int baseAddr;
+	private final byte[] commandBuffer = new byte[12];
+	
 	//Relative maximum power value to command motor. This is a somewhat arbitrary value
 	//that can be set by the setPowerRange() method. Some applications may want to use
 	//a different range other than 0.0 (no power) to 1.0 (full throttle).
@@ -108,6 +114,10 @@ public class AdafruitDcMotor implements Motor {
 	 */
 	private long brakeModeValue = 35;
 	
+	//Slew rate of rampTo() and stopAsync() in power per second, and the shape of the ramp
+	private float rampRate = 1.0f;
+	private Interpolation rampInterpolation = Interpolation.LINEAR;
+	
 	//PWM values for setting a motor for power, stop, forward, and reverse directions
 	private final byte[] PWM_STOP    = new byte[] {0X00, 0X00, 0X00, 0X00};
 	private final byte[] IN_FORWARD  = new byte[] {0X00, 0X10, 0X00, 0X00};	
@@ -160,6 +170,7 @@ public class AdafruitDcMotor implements Motor {
 			motorHat.stopAll();
 			throw new IllegalArgumentException(motor);			
 		}
+		baseAddr = Math.min(PWM_ADDR[0], Math.min(IN1_ADDR[0], IN2_ADDR[0]));
 		
 		//Clear the LED PWM registers and stop motor.
 		PWM_VALUES = PWM_STOP;
@@ -173,10 +184,25 @@ public class AdafruitDcMotor implements Motor {
 	 * IN1_VALUES = 1st PWM for controlling direction
 	 * IN2_VALUES = 2nd PWM for controlling direction
 	 */
-	private void sendCommands() {
-		for (int i=0; i<4; i++) motorHat.write(PWM_ADDR[i],PWM_VALUES[i]);
-		for (int i=0; i<4; i++) motorHat.write(IN2_ADDR[i],IN2_VALUES[i]);
-		for (int i=0; i<4; i++) motorHat.write(IN1_ADDR[i],IN1_VALUES[i]);		
+	void sendCommands() {
+		fillCommands(commandBuffer, baseAddr);
+		//Speed and direction go out as one register batch so the H-bridge never sees a
+		//mix of old and new values. Within a batch opened by the caller they are staged.
+		boolean own = !motorHat.isBatchOpen();
+		if (own) motorHat.beginBatch();
+		motorHat.write(baseAddr, commandBuffer, 0, commandBuffer.length);
+		if (own) motorHat.commitBatch();
+	}
+	
+	/**
+	 * Copy the LED PWM values of the motor into a buffer of register values.
+	 * @param buffer Register values, index 0 is register address base
+	 * @param base Register address of buffer[0]
+	 */
+	private void fillCommands(byte[] buffer, int base) {
+		System.arraycopy(PWM_VALUES, 0, buffer, PWM_ADDR[0]-base, 4);
+		System.arraycopy(IN2_VALUES, 0, buffer, IN2_ADDR[0]-base, 4);
+		System.arraycopy(IN1_VALUES, 0, buffer, IN1_ADDR[0]-base, 4);
 	}
 	
 	/**
@@ -192,15 +218,34 @@ public class AdafruitDcMotor implements Motor {
 			motorHat.stopAll();
 			throw new IllegalArgumentException(Float.toString(speed));
 		}
+		motorHat.cancelRamp(this);
+		if (speed == 0.0) {
+			//turn off PWMs
+			this.speed = speed;
+			this.power = 0.0f;
+			PWM_VALUES = this.setPwm(this.speed);
+			this.stop();
+			return;
+		}
+		applySpeed(speed);
+		//Command the PCA9685 for setting speed and direction of the DC motor
+		this.sendCommands();		
+	}
+	
+	/**
+	 * Set the speed, power, direction and LED PWM values for a speed without
+	 * commanding the PCA9685. A zero speed releases the motor to coast.
+	 * @param speed -maximumPower to maximumPower
+	 */
+	void applySpeed(float speed) {
 		this.speed = speed;
 		this.power = Math.abs(this.speed);
 		PWM_VALUES = this.setPwm(this.speed);
 		
 		//sets up the commanding values for the LED PWMs 
 		if (this.speed == 0.0) {
-			//turn off PWMs
-			this.stop();
-			motorState = MotorState.STOP;
+			//release the motor
+			applyRelease();
 		}
 		else if (this.speed > 0.0) {
 			//set PWMs for forward direction
@@ -214,8 +259,96 @@ public class AdafruitDcMotor implements Motor {
 			IN1_VALUES = IN_FORWARD;
 			motorState = MotorState.REVERSE;			
 		}
-		//Command the PCA9685 for setting speed and direction of the DC motor
-		this.sendCommands();		
+	}
+	
+	/**
+	 * Set the LED PWM values that drive the motor against its direction of travel, 
+	 * without commanding the PCA9685. Used for braking.
+	 */
+	void applyBrake() {
+		byte[] inSwitch = IN2_VALUES;
+		IN2_VALUES = IN1_VALUES;
+		IN1_VALUES = inSwitch;
+	}
+	
+	/**
+	 * Set the LED PWM values that let the motor coast, without commanding the PCA9685.
+	 */
+	void applyRelease() {
+		IN2_VALUES = PWM_STOP;
+		IN1_VALUES = PWM_STOP;
+		motorState = MotorState.STOP;
+	}
+	
+	/**
+	 * Ramp the motor speed from its current value to the speed given at the ramp 
+	 * rate, without blocking the caller. The ramp runs on the motion thread of the 
+	 * motor HAT, which updates all the ramping motors of the HAT together in one I2C
+	 * transaction per tick (see AdafruitMotorHat.setRampInterval()). 
+	 * <p>
+	 * A new rampTo() or stopAsync() replaces a ramp in progress, cancelling its 
+	 * CompletableFuture, and so does a direct command such as speed() or stop(). 
+	 * Cancelling the returned CompletableFuture holds the motor at its current speed.
+	 * @param speed Target speed, -maximumPower to maximumPower
+	 * @return CompletableFuture that completes when the motor reaches the target speed
+	 */
+	public CompletableFuture<Void> rampTo(float speed) {
+		if (speed < -maximumPower || speed > maximumPower) {
+			System.out.format("*** Error *** Speed value must be in range %8.1f to %8.1f\n",-maximumPower,maximumPower);
+			motorHat.stopAll();
+			throw new IllegalArgumentException(Float.toString(speed));
+		}
+		return motorHat.getRampEngine().ramp(this, speed, false);
+	}
+	
+	/**
+	 * Stop the motor without blocking the caller. With brake mode set the motor is 
+	 * driven in reverse for the brake mode value (see setBrakeModeValue()) and then 
+	 * released, like stop() but timed by the motion thread instead of a sleep. Otherwise
+	 * the speed ramps down to zero at the ramp rate (soft stop) and the motor coasts.
+	 * @return CompletableFuture that completes when the motor is stopped
+	 */
+	public CompletableFuture<Void> stopAsync() {
+		return motorHat.getRampEngine().ramp(this, 0.0f, brakeMode);
+	}
+	
+	/**
+	 * Set the slew rate of rampTo() and stopAsync().
+	 * @param rate Speed change per second, &gt; 0.0 (default 1.0, full throttle in one 
+	 * second with the default power range)
+	 */
+	public void setRampRate(float rate) {
+		if (rate <= 0.0) {
+			System.out.println("*** Error *** Ramp rate must be > 0.0");
+			throw new IllegalArgumentException(Float.toString(rate));
+		}
+		this.rampRate = rate;
+	}
+	
+	/**
+	 * Return the slew rate of rampTo() and stopAsync().
+	 * @return Speed change per second
+	 */
+	public float getRampRate() {
+		return rampRate;
+	}
+	
+	/**
+	 * Set the shape of the speed ramps. LINEAR changes the speed at the ramp rate;
+	 * CUBIC and MINIMUM_JERK follow an S-curve that starts and ends the change 
+	 * gently, taking the same time as the linear ramp.
+	 * @param interpolation LINEAR (default), CUBIC or MINIMUM_JERK
+	 */
+	public void setRampInterpolation(Interpolation interpolation) {
+		this.rampInterpolation = interpolation;
+	}
+	
+	/**
+	 * Return the shape of the speed ramps.
+	 * @return Interpolation of the ramps
+	 */
+	public Interpolation getRampInterpolation() {
+		return rampInterpolation;
 	}
 	
 	
@@ -323,6 +456,7 @@ public class AdafruitDcMotor implements Motor {
 	 */
 	@Override
 	public void forward() {
+		motorHat.cancelRamp(this);
 		IN2_VALUES = IN_FORWARD;
 		IN1_VALUES = IN_REVERSE;
 		//Command the PCA9685 for forward direction
@@ -337,6 +471,7 @@ public class AdafruitDcMotor implements Motor {
 	 */
 	@Override
 	public void forward(long milliseconds) {
+		motorHat.cancelRamp(this);
 		IN2_VALUES = IN_FORWARD;
 		IN1_VALUES = IN_REVERSE;
 		//Command the PCA9685 for forward direction
@@ -353,6 +488,7 @@ public class AdafruitDcMotor implements Motor {
 	 */
 	@Override
 	public void reverse() {
+		motorHat.cancelRamp(this);
 		IN2_VALUES = IN_REVERSE;
 		IN1_VALUES = IN_FORWARD;
 		//Command the PCA9685 for reverse direction
@@ -367,6 +503,7 @@ public class AdafruitDcMotor implements Motor {
 	 */
 	@Override
 	public void reverse(long milliseconds) {
+		motorHat.cancelRamp(this);
 		IN2_VALUES = IN_REVERSE;
 		IN1_VALUES = IN_FORWARD;
 		//Command the PCA9685 for reverse direction
@@ -378,11 +515,86 @@ public class AdafruitDcMotor implements Motor {
 		this.speed = -this.power;
 	}
 
+	/**
+	 * Command the DC motor to go in the forward direction for the time specified then
+	 * stop, without blocking the caller. The motor is stopped by the motion thread of
+	 * the motor HAT. Cancelling the returned CompletableFuture stops the motor early.
+	 * @param milliseconds Time to run the motor
+	 * @return CompletableFuture that completes when the motor has stopped
+	 */
+	public CompletableFuture<Void> forwardAsync(long milliseconds) {
+		return motorHat.submitMove(new TimedMove(MotorState.FORWARD, milliseconds));
+	}
+	
+	/**
+	 * Command the DC motor to go in the reverse direction for the time specified then
+	 * stop, without blocking the caller. See forwardAsync().
+	 * @param milliseconds Time to run the motor
+	 * @return CompletableFuture that completes when the motor has stopped
+	 */
+	public CompletableFuture<Void> reverseAsync(long milliseconds) {
+		return motorHat.submitMove(new TimedMove(MotorState.REVERSE, milliseconds));
+	}
+	
+	/**
+	 * A forward(long) or reverse(long) move run on the motion thread. In brake mode the
+	 * brake is a timed phase of the move, so the motion thread never sleeps.
+	 */
+	private class TimedMove extends MotionThread.Move {
+		private final MotorState direction;
+		private final long milliseconds;
+		private boolean braking = false;
+		
+		TimedMove(MotorState direction, long milliseconds) {
+			super(AdafruitDcMotor.this);
+			if (milliseconds < 0) {
+				System.out.println("*** Error *** milliseconds must be >= 0");
+				motorHat.stopAll();
+				throw new IllegalArgumentException(Long.toString(milliseconds));
+			}
+			this.direction = direction;
+			this.milliseconds = milliseconds;
+		}
+		
+		@Override
+		boolean begin(long now) {
+			if (direction == MotorState.FORWARD) forward();
+			else reverse();
+			deadline = now + milliseconds*1000000;
+			return true;
+		}
+		
+		@Override
+		boolean advance(long now) {
+			motorHat.cancelRamp(AdafruitDcMotor.this);
+			if (brakeMode && !braking) {
+				applyBrake();
+				sendCommands();
+				braking = true;
+				deadline = now + brakeModeValue*1000000;
+				return true;
+			}
+			applyRelease();
+			sendCommands();
+			speed = (direction == MotorState.FORWARD) ? power : -power;
+			return false;
+		}
+		
+		@Override
+		void halt() {
+			//never leave a motor braking
+			motorHat.cancelRamp(AdafruitDcMotor.this);
+			applyRelease();
+			sendCommands();
+		}
+	}
+
 	/**
 	 * Stop the motor.
 	 */
 	@Override
 	public void stop() {
+		motorHat.cancelRamp(this);
 		//if brakeMode then temporarily switch direction to quickly stop motor.
 		if (brakeMode) {
 			byte[] inSwitch = IN2_VALUES;
@@ -391,10 +603,16 @@ public class AdafruitDcMotor implements Motor {
 			this.sendCommands();
 			motorHat.sleep(brakeModeValue);			
 		}
-		IN2_VALUES = PWM_STOP;
-		IN1_VALUES = PWM_STOP;
+		applyRelease();
 		this.sendCommands();
-		motorState = MotorState.STOP;
+	}
+	
+	/**
+	 * Return the brake mode value.
+	 * @return milliseconds
+	 */
+	long getBrakeModeValue() {
+		return brakeModeValue;
 	}
 
 	/**
@@ -30,10 +30,10 @@ package com.pi4j.component.adafruithat;
 import java.io.IOException;
 //import java.util.HashMap;
 //import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.pi4j.io.i2c.I2CBus;
 import com.pi4j.io.i2c.I2CDevice;
-import com.pi4j.io.i2c.I2CFactory;
 
 /**
  * 
@@ -72,6 +72,9 @@ public  class AdafruitHat {
 	 */
 	public double frequency = 200.0; 
 	
+	//PRE_SCALE register value, 0X1E (200 Hz) on power up
+	private int preScale = 0X1E;
+	
 	/*
 	 * The PCA9685 chip has 16 LED PWM register sets used to command motor and servo
 	 * controllers. 
@@ -207,10 +210,13 @@ public  class AdafruitHat {
 	protected final int COMMAND_ALLCALL = 0X01; //MODE1 command, enable LED ALLCALL 
 	protected final int COMMAND_OUTDRV  = 0x04; //MODE2 command, 16 LED outputs are configured with totem pole structure
 	protected final int COMMAND_RESTART = 0X80; //MODE1 command, enable restart
+	protected final int COMMAND_AI      = 0X20; //MODE1 command, enable register auto-increment
 	//protected final int COMMAND_INVRT   = 0X10; //MODE2 command, output logic  state is inverted
 	
 	protected I2CBus HatI2C;
 	protected I2CDevice hatDevice;
+	//Manager of the shared I2C bus, null when the device was passed to the constructor
+	private AdafruitHatBus hatBus = null;
 		
 	//I2C Bus Address
     private final int DEFAULT_I2C_BUS = I2CBus.BUS_1;
@@ -221,6 +227,72 @@ public  class AdafruitHat {
     
     //Values to stop all LED PWMs
     private final byte[] PWM_ALL_STOP = new byte[] {0X00, 0X00, 0X00, 0X00};
+    
+    //Set once the MODE1 auto-increment bit is enabled so block writes can be used
+    private boolean autoIncrement = false;
+    
+    /*
+     * Shadow copy of the PCA9685 register file. Writes to the LED PWM registers
+     * are skipped when the shadow shows the chip already holds the value. The write
+     * methods are synchronized since a motion thread may command the HAT at the
+     * same time as the application (or queue to the writer thread, see setAsyncWrites()).
+     */
+    private final byte[]    shadow      = new byte[256];
+    private final boolean[] shadowValid = new boolean[256];
+    private boolean shadowEnabled = true;
+    
+    //Unchanged registers between two dirty registers are written through (rather than
+    //splitting the block write) when the gap is this size or smaller.
+    private final int COALESCE_GAP = 2;
+    
+    //Bus write counters, updated and read under the HAT lock
+    private long registerWrites   = 0; //register bytes written on the I2C bus
+    private long suppressedWrites = 0; //register bytes skipped because of the shadow cache
+    private long transactions     = 0; //I2C write transactions
+    
+    /*
+     * Phase allocation. Each LED PWM channel is given its own turn on time so the
+     * channels do not all switch on at the start of the PWM period. The logical copy 
+     * holds the LED PWM register values as the callers wrote them (turn on at 0); the
+     * chip is written with the on and off times shifted by the channel's phase offset.
+     */
+    private boolean phaseAllocation = false;
+    private final int[]  phaseOffset = new int[16];
+    {
+    	//Spread the channels evenly across the 4096-tick period
+    	for (int i=0; i<phaseOffset.length; i++) phaseOffset[i] = i*256;
+    }
+    private final byte[] logical     = new byte[256];
+    private final byte[] phaseBuffer = new byte[64];
+    
+    //Sends the register writes in asynchronous write mode, null in the default synchronous mode
+    private volatile RegisterWriter writer = null;
+    //Slots in the ring buffer of the writer thread
+    private final int WRITER_CAPACITY = 256;
+    
+    /*
+     * Register batches. Each thread can have one batch open; while it is open the
+     * thread's writes to the LED PWM registers are staged in the batch and sent by 
+     * commitBatch(). openBatches lets the write methods skip the thread local lookup
+     * when no thread has a batch open.
+     */
+    private static class RegisterBatch {
+    	final byte[]    values = new byte[256];
+    	final boolean[] staged = new boolean[256];
+    	int low = 256;
+    	int high = -1;
+    	boolean open = false;
+    }
+    private final ThreadLocal<RegisterBatch> batches = new ThreadLocal<RegisterBatch>() {
+    	@Override
+    	protected RegisterBatch initialValue() {
+    		return new RegisterBatch();
+    	}
+    };
+    private final AtomicInteger openBatches = new AtomicInteger();
+    //Register values of a commit and the current values they replace, by register address
+    private final byte[] commitValues  = new byte[256];
+    private final byte[] currentValues = new byte[256];
    
 	
 	/**
@@ -253,6 +325,37 @@ public  class AdafruitHat {
 		setup();
 	}
 	
+	/**
+	 * Pass the I2C device commanding the PCA9685 chip in place of the Raspberry Pi I2C bus.
+	 * Use this constructor with a PCA9685Simulator to run, test or benchmark the HAT 
+	 * classes without a Raspberry Pi.
+	 * @param deviceAddr Valid addresses range 0X60 to 0X7F
+	 * @param device I2C device for the HAT
+	 * @see com.pi4j.component.adafruithat.PCA9685Simulator
+	 */
+	public AdafruitHat(int deviceAddr, I2CDevice device) {
+		checkDeviceAddr(deviceAddr);
+		DEVICE_ADDR = deviceAddr;
+		I2C_BUS = DEFAULT_I2C_BUS;
+		hatDevice = device;
+		setup();
+	}
+	
+	/**
+	 * Pass the manager of the I2C bus shared by a stack of HATs. Use this constructor
+	 * to share a bus opened by the application, for example a PCA9685SimulatorBus. 
+	 * @param deviceAddr Valid addresses range 0X60 to 0X7F
+	 * @param hatBus Bus manager
+	 * @see com.pi4j.component.adafruithat.AdafruitHatBus
+	 */
+	public AdafruitHat(int deviceAddr, AdafruitHatBus hatBus) {
+		checkDeviceAddr(deviceAddr);
+		DEVICE_ADDR = deviceAddr;
+		I2C_BUS = DEFAULT_I2C_BUS;
+		this.hatBus = hatBus;
+		setup();
+	}
+	
 	/**
 	 * Check for a valid Adafruit HAT device address
 	 * @param deviceAddr Valid values range 0X40 to 0X7F
@@ -280,9 +383,13 @@ public  class AdafruitHat {
 	 */
 	private void setup() {	
 		try {
-			//instantiate I2C and I2C Device interface
-			HatI2C = I2CFactory.getInstance(I2C_BUS);		
-			hatDevice = HatI2C.getDevice(DEVICE_ADDR);
+			//Get the I2C Device through the bus manager unless a device was passed to the constructor
+			if (hatDevice == null) {
+				if (hatBus == null) hatBus = AdafruitHatBus.getInstance(I2C_BUS);
+				HatI2C = hatBus.getBus();
+				hatDevice = hatBus.getDevice(DEVICE_ADDR);
+				hatBus.register(this);
+			}
 			
 			//Enable the All Call mode to simultaneously command all LED PWMs
 			hatDevice.write(MODE1, (byte) COMMAND_ALLCALL);
@@ -300,10 +407,13 @@ public  class AdafruitHat {
 			}
 			//No sleeping allowed
 			mode1 = mode1 & ~COMMAND_SLEEP; 
+			//Auto-increment the register address so a block of registers is written in one transaction
+			mode1 = mode1 | COMMAND_AI;
 			//Write back the MODE1 register with no sleep
 			hatDevice.write(MODE1, (byte) mode1);
 			//wait for oscillator
 			sleep(10);
+			autoIncrement = true;
 		}  catch (IOException e) {
 			System.out.println("*** Error *** failed to commnicate with AdafruitHat device");
 			stopAll();
@@ -358,6 +468,7 @@ public  class AdafruitHat {
 		 * The oscillator needs to be turned off while setting the
 		 * prescale value (see page 25) 
 		 */
+		flushWrites();
 		try {
 			mode1 = hatDevice.read(MODE1);
 			if (mode1 < 0) {
@@ -370,6 +481,7 @@ public  class AdafruitHat {
 			sleep(10); //wait for oscillators
 			
 			hatDevice.write(PRE_SCALE, (byte) preScale);
+			this.preScale = preScale;
 			sleep(10); //wait for oscillators
 			
 			//Restart the PCA9865 with original mode
@@ -384,19 +496,620 @@ public  class AdafruitHat {
 		
 	}	
 	/**
-	 * Write the 8-bit value to the indicated address
+	 * Return the pulse frequency the PCA9685 runs at. The prescale is an integer, so 
+	 * this differs slightly from the frequency requested with setPwmFreq():
+	 * frequency = (25MHz)/(4096*(prescale + 1))
+	 * @return frequency in Hz
+	 */
+	public double getActualPwmFreq() {
+		return 25000000.0/(4096.0*(preScale + 1));
+	}
+	
+	/**
+	 * Write the 8-bit value to the indicated address. The write is skipped if the
+	 * shadow register cache shows the LED PWM register already holds the value.
 	 * @param addr Register address I2C device
 	 * @param value Value to write at register address
 	 */
 	public void write(int addr, byte value) {		
+		if (openBatches.get() > 0 && stage(addr, value)) return;
+		RegisterWriter queue = writer;
+		if (queue != null) {
+			queue.put(addr, value);
+			return;
+		}
+		synchronized (this) {
+			if (isPhased(addr, 1)) {
+				logical[addr] = value;
+				writeChannels(addr, 1, false);
+				return;
+			}
+			if (isClean(addr, value)) {
+				suppressedWrites++;
+				return;
+			}
+			send(addr, value);
+		}
+	}
+	/**
+	 * Write a block of 8-bit values to sequential register addresses. With the PCA9685
+	 * auto-increment mode enabled the whole block is sent as a single I2C transaction,
+	 * typically one or more contiguous LEDn_ON_L..LEDn_OFF_H register groups.
+	 * <p>
+	 * Registers whose cached value already matches are not sent. The remaining dirty
+	 * registers are coalesced into the fewest block writes; short runs of unchanged
+	 * registers between dirty ones are written through rather than splitting the block.
+	 * @param addr Register address of the first value
+	 * @param values Values to write starting at the register address
+	 * @param offset Index of the first value in the values array
+	 * @param length Number of values to write
+	 */
+	public void write(int addr, byte[] values, int offset, int length) {
+		if (openBatches.get() > 0 && stage(addr, values, offset, length)) return;
+		RegisterWriter queue = writer;
+		if (queue != null) {
+			queue.put(addr, values, offset, length);
+			return;
+		}
+		synchronized (this) {
+			writeNow(addr, values, offset, length, false);
+		}
+	}
+	
+	/**
+	 * Send the changed registers of a block, splitting the block where the unchanged 
+	 * gap between changed registers is larger than COALESCE_GAP.
+	 * @param addr Register address of the first value
+	 * @param values Values to write
+	 * @param offset Index of the first value in the values array
+	 * @param length Number of values to write
+	 */
+	private void writeCoalesced(int addr, byte[] values, int offset, int length) {
+		int i = 0;
+		while (i < length) {
+			//skip over registers that already hold the value
+			if (isClean(addr+i, values[offset+i])) {
+				suppressedWrites++;
+				i++;
+				continue;
+			}
+			//extend the dirty run while the clean gaps stay small
+			int start = i;
+			int end = i + 1; //one past the last dirty register of the run
+			for (int j=end; j<length && j-end <= COALESCE_GAP; j++) {
+				if (!isClean(addr+j, values[offset+j])) end = j + 1;
+			}
+			send(addr+start, values, offset+start, end-start);
+			i = end;
+		}
+	}
+	
+	/**
+	 * Write a block of 8-bit values to sequential register addresses in a single I2C 
+	 * transaction so the PCA9685 updates all the outputs together. Unchanged registers 
+	 * at either end of the block are not sent; unchanged registers between changed ones
+	 * are written through. Nothing is sent if the whole block is unchanged.
+	 * @param addr Register address of the first value
+	 * @param values Values to write starting at the register address
+	 * @param offset Index of the first value in the values array
+	 * @param length Number of values to write
+	 */
+	public void writeBlock(int addr, byte[] values, int offset, int length) {
+		if (openBatches.get() > 0 && stage(addr, values, offset, length)) return;
+		RegisterWriter queue = writer;
+		if (queue != null) {
+			queue.put(addr, values, offset, length);
+			return;
+		}
+		synchronized (this) {
+			writeNow(addr, values, offset, length, true);
+		}
+	}
+	
+	/**
+	 * Send a block of register values to the chip. The caller must hold the HAT's lock.
+	 * @param addr Register address of the first value
+	 * @param values Values to write
+	 * @param offset Index of the first value in the values array
+	 * @param length Number of values to write
+	 * @param block true=one transaction (writeBlock), false=split at large unchanged gaps (write)
+	 */
+	void writeNow(int addr, byte[] values, int offset, int length, boolean block) {
+		if (isPhased(addr, length)) {
+			System.arraycopy(values, offset, logical, addr, length);
+			writeChannels(addr, length, block);
+			return;
+		}
+		if (block) writeTrimmed(addr, values, offset, length);
+		else writeCoalesced(addr, values, offset, length);
+	}
+	
+	/**
+	 * Open a register batch on the calling thread. Until commitBatch() is called the 
+	 * thread's writes to the LED PWM registers (through write(), writeBlock() and the 
+	 * motor and servo classes) are staged instead of sent, and commitBatch() sends them 
+	 * together. Writes of other threads are not affected. Writes to other registers 
+	 * are sent right away.
+	 * <pre>
+	 *     motorHat.beginBatch();
+	 *     leftMotor.speed(0.5f);
+	 *     rightMotor.speed(-0.5f);
+	 *     motorHat.commitBatch();
+	 * </pre>
+	 */
+	public void beginBatch() {
+		RegisterBatch batch = batches.get();
+		if (batch.open) {
+			System.out.println("*** Error *** Batch already open on this thread");
+			throw new IllegalStateException();
+		}
+		batch.open = true;
+		openBatches.incrementAndGet();
+	}
+	
+	/**
+	 * Send the writes staged since beginBatch() and close the batch. With auto-increment
+	 * the batch goes out as a single block write from the first to the last staged 
+	 * register, registers in between that were not staged being written through with 
+	 * their current values, so the PCA9685 loads every change of the batch together and
+	 * no intermediate state ever reaches the outputs. 
+	 * <p>
+	 * Without auto-increment each channel is written separately; the channels whose 
+	 * output goes down are written before the channels whose output goes up, so for 
+	 * example an H-bridge input is released before the opposite input is driven. In 
+	 * asynchronous write mode the staged registers are queued as one write, filled in
+	 * with the current values like a synchronous commit.
+	 */
+	public void commitBatch() {
+		RegisterBatch batch = batches.get();
+		if (!batch.open) {
+			System.out.println("*** Error *** No batch open on this thread, call beginBatch()");
+			throw new IllegalStateException();
+		}
+		try {
+			if (batch.high >= batch.low) send(batch);
+		} finally {
+			close(batch);
+		}
+	}
+	
+	/**
+	 * Close the batch of the calling thread without sending the writes it holds.
+	 */
+	public void discardBatch() {
+		RegisterBatch batch = batches.get();
+		if (batch.open) close(batch);
+	}
+	
+	/**
+	 * Is a batch open on the calling thread?
+	 * @return true between beginBatch() and commitBatch()
+	 */
+	public boolean isBatchOpen() {
+		return openBatches.get() > 0 && batches.get().open;
+	}
+	
+	private void close(RegisterBatch batch) {
+		for (int addr=batch.low; addr<=batch.high; addr++) batch.staged[addr] = false;
+		batch.low = 256;
+		batch.high = -1;
+		batch.open = false;
+		openBatches.decrementAndGet();
+	}
+	
+	/**
+	 * Stage a register write in the batch of the calling thread.
+	 * @return true if staged, false if there is no open batch or the registers are not LED PWM registers
+	 */
+	private boolean stage(int addr, byte value) {
+		if (addr < LED0_ON_L || addr > LED15_OFF_H) return false;
+		RegisterBatch batch = batches.get();
+		if (!batch.open) return false;
+		batch.values[addr] = value;
+		batch.staged[addr] = true;
+		batch.low = Math.min(batch.low, addr);
+		batch.high = Math.max(batch.high, addr);
+		return true;
+	}
+	
+	private boolean stage(int addr, byte[] values, int offset, int length) {
+		if (addr < LED0_ON_L || addr + length - 1 > LED15_OFF_H) return false;
+		RegisterBatch batch = batches.get();
+		if (!batch.open) return false;
+		System.arraycopy(values, offset, batch.values, addr, length);
+		for (int i=0; i<length; i++) batch.staged[addr+i] = true;
+		batch.low = Math.min(batch.low, addr);
+		batch.high = Math.max(batch.high, addr + length - 1);
+		return true;
+	}
+	
+	/**
+	 * Send the staged registers of a batch.
+	 */
+	private void send(RegisterBatch batch) {
+		int low = batch.low;
+		int high = batch.high;
+		RegisterWriter queue = writer;
+		if (queue != null) {
+			//One masked write for the whole span (at most the 64 LED PWM registers). The
+			//writer thread fills in the registers between the staged runs with their 
+			//values when it sends the write, so a later write to them is never undone.
+			long written = 0;
+			for (int addr=low; addr<=high; addr++) {
+				if (batch.staged[addr]) written |= 1L << (addr - low);
+			}
+			queue.put(low, batch.values, low, high - low + 1, written);
+			return;
+		}
+		synchronized (this) {
+			//Channel by channel without auto-increment, so whole channels are needed
+			if (!autoIncrement) {
+				low = LED0_ON_L + (low - LED0_ON_L)/4*4;
+				high = LED0_ON_L + (high - LED0_ON_L)/4*4 + 3;
+			}
+			int length = high - low + 1;
+			boolean holes = false;
+			for (int addr=low; addr<=high && !holes; addr++) holes = !batch.staged[addr];
+			if (holes || !autoIncrement) readRegisters(low, currentValues, low, length);
+			for (int addr=low; addr<=high; addr++) {
+				commitValues[addr] = batch.staged[addr] ? batch.values[addr] : currentValues[addr];
+			}
+			if (autoIncrement) {
+				writeNow(low, commitValues, low, length, true);
+				return;
+			}
+			//First the channels going down, then the channels going up
+			for (int pass=0; pass<2; pass++) {
+				for (int addr=low; addr<high; addr+=4) {
+					boolean down = output(commitValues, addr) < output(currentValues, addr);
+					if (down == (pass == 0)) writeNow(addr, commitValues, addr, 4, true);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Return the output level of a LED PWM channel.
+	 * @param values Register values by register address
+	 * @param addr Register address of the channel's LEDn_ON_L register
+	 * @return on time in ticks per period, 0 (full off) to 4096 (full on)
+	 */
+	private static int output(byte[] values, int addr) {
+		int on  = (values[addr]   & 0XFF) | (values[addr+1] & 0XFF) << 8;
+		int off = (values[addr+2] & 0XFF) | (values[addr+3] & 0XFF) << 8;
+		if ((off & 0X1000) != 0) return 0;
+		if ((on  & 0X1000) != 0) return 4096;
+		return (off - on) & 0XFFF;
+	}
+	
+	/**
+	 * Enable or disable asynchronous write mode. In asynchronous mode write() and 
+	 * writeBlock() put the values on a lock-free ring buffer and return; a writer thread 
+	 * of the HAT sends them. Control loops of several motors or servos then never wait 
+	 * for each other or for the I2C bus, unless the ring buffer is full. 
+	 * <p>
+	 * The writer merges the writes waiting in the ring and sends each run of adjacent 
+	 * registers as one block transfer. A single write is never split, so the registers 
+	 * of a channel written together change together. Reads of the registers (frames,
+	 * ramps) and stopAll() first send or drop the queued writes. Disabling the mode sends
+	 * the writes still queued. A write in this mode can hold at most 64 registers.
+	 * @param enabled true=queue writes to the writer thread, false=write on the calling thread (default)
+	 */
+	public synchronized void setAsyncWrites(boolean enabled) {
+		if (enabled == (writer != null)) return;
+		if (enabled) {
+			writer = new RegisterWriter(this, WRITER_CAPACITY, String.format("AdafruitHat-0X%02X-writer", DEVICE_ADDR));
+			writer.start();
+		} else {
+			RegisterWriter queue = writer;
+			writer = null;
+			queue.shutdown();
+			queue.drain(true);
+		}
+	}
+	
+	/**
+	 * Is asynchronous write mode enabled?
+	 * @return true if writes are queued to the writer thread
+	 */
+	public boolean isAsyncWrites() {
+		return writer != null;
+	}
+	
+	/**
+	 * Send the writes queued in asynchronous write mode and wait until they are written.
+	 * Does nothing in synchronous mode.
+	 */
+	public synchronized void flushWrites() {
+		if (writer != null) writer.drain(true);
+	}
+	
+	/**
+	 * Send the changed part of a block in one transaction.
+	 * @param addr Register address of the first value
+	 * @param values Values to write
+	 * @param offset Index of the first value in the values array
+	 * @param length Number of values to write
+	 */
+	private void writeTrimmed(int addr, byte[] values, int offset, int length) {
+		int start = 0;
+		int end = length;
+		while (start < end && isClean(addr+start, values[offset+start])) start++;
+		while (end > start && isClean(addr+end-1, values[offset+end-1])) end--;
+		suppressedWrites += length - (end - start);
+		if (end > start) send(addr+start, values, offset+start, end-start);
+	}
+	
+	/**
+	 * Copy the current values of a block of registers. Values are taken from the shadow 
+	 * cache; if any register is not cached the block is read from the chip.
+	 * @param addr Register address of the first value
+	 * @param values Array receiving the values
+	 * @param offset Index of the first value in the values array
+	 * @param length Number of values to read
+	 */
+	protected synchronized void readRegisters(int addr, byte[] values, int offset, int length) {
+		flushWrites();
+		readCurrent(addr, values, offset, length);
+	}
+	
+	/**
+	 * Copy the values of a block of registers without first sending the queued writes.
+	 * The caller must hold the HAT's lock.
+	 * @param addr Register address of the first value
+	 * @param values Array receiving the values
+	 * @param offset Index of the first value in the values array
+	 * @param length Number of values to read
+	 */
+	void readCurrent(int addr, byte[] values, int offset, int length) {
+		//With phase allocation callers see the unshifted values they wrote
+		if (isPhased(addr, length)) {
+			System.arraycopy(logical, addr, values, offset, length);
+			return;
+		}
+		boolean cached = shadowEnabled;
+		for (int i=0; i<length && cached; i++) cached = shadowValid[addr+i];
+		if (cached) {
+			System.arraycopy(shadow, addr, values, offset, length);
+			return;
+		}
+		try {
+			if (autoIncrement) hatDevice.read(addr, values, offset, length);
+			else for (int i=0; i<length; i++) values[offset+i] = (byte) hatDevice.read(addr+i);
+			if (shadowEnabled) {
+				System.arraycopy(values, offset, shadow, addr, length);
+				for (int i=0; i<length; i++) shadowValid[addr+i] = true;
+			}
+		} catch (IOException e) {
+			System.out.println("*** ERROR *** Can not perform I2C read from AdafruitHat Device");
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Enable or disable phase allocation. When enabled each LED PWM channel turns on at 
+	 * its own offset within the 4096-tick PWM period instead of at tick 0, and the turn
+	 * off time is moved by the same amount so the duty cycle is unchanged. Staggering
+	 * the turn on times spreads the supply current of the motors or servos across the 
+	 * period. Full on and full off settings are not shifted.
+	 * <p>
+	 * Callers keep writing LED PWM registers with turn on at 0; the values are shifted 
+	 * when written to the chip and all four registers of a channel are sent in the same 
+	 * I2C transaction so the channel changes at once. Disabling restores the unshifted values.
+	 * @param enabled true=stagger the channel turn on times, false=all channels turn on at 0
+	 */
+	public synchronized void setPhaseAllocation(boolean enabled) {
+		flushWrites();
+		if (enabled == phaseAllocation) return;
+		if (enabled) {
+			//The chip holds unshifted values, take them as the logical values
+			readRegisters(LED0_ON_L, logical, LED0_ON_L, phaseBuffer.length);
+			phaseAllocation = true;
+			writeChannels(LED0_ON_L, phaseBuffer.length, false);
+		} else {
+			phaseAllocation = false;
+			writeCoalesced(LED0_ON_L, logical, LED0_ON_L, phaseBuffer.length);
+		}
+	}
+	
+	/**
+	 * Is phase allocation enabled?
+	 * @return true if the channel turn on times are staggered
+	 */
+	public synchronized boolean isPhaseAllocation() {
+		return phaseAllocation;
+	}
+	
+	/**
+	 * Set the turn on time of a LED PWM channel used when phase allocation is enabled.
+	 * By default channel n turns on at tick n*256. 
+	 * @param channel LED PWM channel 0-15
+	 * @param ticks Offset within the PWM period, 0-4095
+	 */
+	public synchronized void setPhaseOffset(int channel, int ticks) {
+		if (channel < 0 || channel > 15) {
+			System.out.println("*** Error *** LED PWM channel must be in range 0 - 15");
+			throw new IllegalArgumentException(Integer.toString(channel));
+		}
+		if (ticks < 0 || ticks > 4095) {
+			System.out.println("*** Error *** Phase offset must be in range 0 - 4095");
+			throw new IllegalArgumentException(Integer.toString(ticks));
+		}
+		flushWrites();
+		phaseOffset[channel] = ticks;
+		if (phaseAllocation) writeChannels(LED0_ON_L + channel*4, 4, false);
+	}
+	
+	/**
+	 * Return the turn on time of a LED PWM channel used when phase allocation is enabled.
+	 * @param channel LED PWM channel 0-15
+	 * @return Offset within the PWM period in ticks
+	 */
+	public synchronized int getPhaseOffset(int channel) {
+		if (channel < 0 || channel > 15) {
+			System.out.println("*** Error *** LED PWM channel must be in range 0 - 15");
+			throw new IllegalArgumentException(Integer.toString(channel));
+		}
+		return phaseOffset[channel];
+	}
+	
+	/**
+	 * Does phase allocation apply to a block of registers? Only blocks that lie within 
+	 * the LED PWM registers are shifted.
+	 * @param addr Register address of the first value
+	 * @param length Number of registers
+	 * @return true if the block must be written through writeChannels()
+	 */
+	private boolean isPhased(int addr, int length) {
+		return phaseAllocation && addr >= LED0_ON_L && addr + length - 1 <= LED15_OFF_H;
+	}
+	
+	/**
+	 * Write the channels covering a block of logical LED PWM registers to the chip with 
+	 * each channel's on and off times moved by its phase offset. Whole channels are 
+	 * written so the four registers of a channel always go out in one transaction.
+	 * @param addr Register address of the first changed logical value
+	 * @param length Number of changed logical values
+	 * @param block true=send as a single transaction, false=split at large unchanged gaps
+	 */
+	private void writeChannels(int addr, int length, boolean block) {
+		int first = LED0_ON_L + (addr - LED0_ON_L)/4*4;
+		int end   = LED0_ON_L + ((addr + length - 1 - LED0_ON_L)/4 + 1)*4;
+		for (int reg=first; reg<end; reg+=4) {
+			int on  = (logical[reg]   & 0XFF) | (logical[reg+1] & 0XFF) << 8;
+			int off = (logical[reg+2] & 0XFF) | (logical[reg+3] & 0XFF) << 8;
+			//Bit 4 of the high bytes selects full on or full off and equal on and off 
+			//times hold the output off, leave those alone
+			if ((on & 0X1000) == 0 && (off & 0X1000) == 0 && on != off) {
+				int phase = phaseOffset[(reg - LED0_ON_L)/4];
+				on  = (on  + phase) & 0XFFF;
+				off = (off + phase) & 0XFFF;
+			}
+			int i = reg - first;
+			phaseBuffer[i]   = (byte) on;
+			phaseBuffer[i+1] = (byte) (on >> 8);
+			phaseBuffer[i+2] = (byte) off;
+			phaseBuffer[i+3] = (byte) (off >> 8);
+		}
+		if (block) writeTrimmed(first, phaseBuffer, 0, end - first);
+		else writeCoalesced(first, phaseBuffer, 0, end - first);
+	}
+	
+	/**
+	 * Is the register one of the LED PWM registers holding the value in the shadow cache?
+	 * @param addr Register address
+	 * @param value Value about to be written
+	 * @return true if the write can be suppressed
+	 */
+	private boolean isClean(int addr, byte value) {
+		return shadowEnabled && addr >= LED0_ON_L && addr <= LED15_OFF_H && 
+				shadowValid[addr] && shadow[addr] == value;
+	}
+	
+	/**
+	 * Write a single register to the device and record it in the shadow cache.
+	 * @param addr Register address
+	 * @param value Value to write
+	 * @return true if the I2C write succeeded
+	 */
+	private boolean send(int addr, byte value) {
 		try {
 			//System.out.format("address: 0X%02X value: 0x%02X\n",addr,value);
 			hatDevice.write(addr,value);
+			transactions++;
+			registerWrites++;
+			shadow[addr] = value;
+			shadowValid[addr] = true;
+			return true;
 		} catch (IOException e) {
+			shadowValid[addr] = false;
 			System.out.println("*** ERROR *** Can not perform I2C write to AdafruitHat Device");
 			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Write a block of registers to the device in one transaction and record them in the
+	 * shadow cache.
+	 * @param addr Register address of the first value
+	 * @param values Values to write
+	 * @param offset Index of the first value in the values array
+	 * @param length Number of values to write
+	 */
+	private void send(int addr, byte[] values, int offset, int length) {
+		//Fall back to single byte writes if auto-increment could not be enabled
+		if (!autoIncrement || length == 1) {
+			for (int i=0; i<length; i++) send(addr+i, values[offset+i]);
+			return;
 		}
+		try {
+			hatDevice.write(addr, values, offset, length);
+			transactions++;
+			registerWrites += length;
+			System.arraycopy(values, offset, shadow, addr, length);
+			for (int i=0; i<length; i++) shadowValid[addr+i] = true;
+		} catch (IOException e) {
+			for (int i=0; i<length; i++) shadowValid[addr+i] = false;
+			System.out.println("*** ERROR *** Can not perform I2C block write to AdafruitHat Device");
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Enable or disable the shadow register cache. When disabled every write goes out
+	 * on the I2C bus. The cache is enabled by default.
+	 * @param enabled true=suppress redundant writes, false=write through
+	 */
+	public synchronized void setShadowCache(boolean enabled) {
+		flushWrites();
+		invalidateShadow();
+		shadowEnabled = enabled;
+	}
+	
+	/**
+	 * Forget all cached register values. Use this if the PCA9685 chip may have been
+	 * reset or written by another program.
+	 */
+	public synchronized void invalidateShadow() {
+		for (int i=0; i<shadowValid.length; i++) shadowValid[i] = false;
+	}
+	
+	/**
+	 * Return the number of register bytes written on the I2C bus.
+	 * @return register writes issued
+	 */
+	public synchronized long getRegisterWrites() {
+		return registerWrites;
 	}
+	
+	/**
+	 * Return the number of register bytes not written because the shadow
+	 * cache showed the register already held the value.
+	 * @return register writes suppressed
+	 */
+	public synchronized long getSuppressedWrites() {
+		return suppressedWrites;
+	}
+	
+	/**
+	 * Return the number of I2C write transactions issued. A block write counts 
+	 * as a single transaction.
+	 * @return I2C write transactions
+	 */
+	public synchronized long getTransactions() {
+		return transactions;
+	}
+	
+	/**
+	 * Reset the register write, suppressed write and transaction counters to zero.
+	 */
+	public synchronized void resetWriteCounters() {
+		registerWrites = 0;
+		suppressedWrites = 0;
+		transactions = 0;
+	}
+	
 	/**
 	 * Sleep and force all motors or servos to stop if interrupted.
 	 * @param milliseconds Sleep time
@@ -413,7 +1126,42 @@ public  class AdafruitHat {
 	/**
 	 * Stop all motors and servos for this Adafruit HAT. 
 	 */
-	public void stopAll() {
-		for (int i=0; i<4; i++) write(PWM_ALL_ADDR[i], PWM_ALL_STOP[i]);
+	public synchronized void stopAll() {
+		boolean ok = true;
+		for (int i=0; i<4; i++) ok &= send(PWM_ALL_ADDR[i], PWM_ALL_STOP[i]);
+		
+		markAllStopped(ok);
+	}
+	
+	/**
+	 * Record that the ALL_LED registers were loaded with zero, by stopAll() or by a 
+	 * broadcast of the bus manager.
+	 * @param ok true if the write succeeded
+	 */
+	synchronized void markAllStopped(boolean ok) {
+		//Queued writes were made before the stop, drop them so the motors stay stopped
+		if (writer != null) writer.drain(false);
+		//The ALL_LED registers load every LED PWM register so update the shadow cache to match
+		for (int addr=LED0_ON_L; addr<=LED15_OFF_H; addr++) {
+			shadow[addr] = 0;
+			shadowValid[addr] = ok;
+			logical[addr] = 0;
+		}
+	}
+	
+	/**
+	 * Is MODE1 auto-increment enabled so block writes can be used?
+	 * @return true after a successful setup
+	 */
+	boolean isAutoIncrement() {
+		return autoIncrement;
+	}
+	
+	/**
+	 * Return the manager of the I2C bus the HAT is on.
+	 * @return AdafruitHatBus, or null when the I2C device was passed to the constructor
+	 */
+	public AdafruitHatBus getHatBus() {
+		return hatBus;
 	}
 }
@@ -0,0 +1,548 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  AdafruitHatBus.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.pi4j.io.i2c.I2CBus;
+import com.pi4j.io.i2c.I2CDevice;
+import com.pi4j.io.i2c.I2CFactory;
+
+/**
+ * Manager of one I2C bus shared by a stack of Adafruit Motor and Servo HATs. Up to 32 
+ * HATs can be stacked on the Raspberry Pi; the manager owns the single I2CBus handle
+ * for the bus number and hands each HAT address an I2CDevice that goes through it.
+ * <p>
+ * Transactions of all the HATs on the bus are serialized by a fair lock, so threads 
+ * commanding different HATs take turns in the order they asked for the bus instead of
+ * one busy thread starving the others. For every address the manager accounts the
+ * time the bus was busy with its transactions and the time spent waiting for the bus, 
+ * which shows the contention between boards, together with latency histograms and 
+ * transaction, byte and error counters (see I2CDeviceStatistics). The statistics can be
+ * published as JMX MBeans with registerMBeans() and printed periodically with startReport().
+ * <p>
+ * The HAT constructors without an I2CDevice use the manager of their bus number, so 
+ * HATs created with the same bus number share it automatically. The manager broadcasts
+ * stopAll() to every PCA9685 at once through the LED All Call address (ALLCALLADR,
+ * enabled by AdafruitHat at setup), one transaction for the whole stack.
+ * <pre>
+ *     AdafruitMotorHat motorHat = new AdafruitMotorHat(0X60);
+ *     AdafruitServoHat servoHat = new AdafruitServoHat(0X40);
+ *     ...
+ *     AdafruitHatBus.getInstance(I2CBus.BUS_1).stopAll();
+ *     System.out.println(AdafruitHatBus.getInstance(I2CBus.BUS_1));
+ *     AdafruitHatBus.getInstance(I2CBus.BUS_1).startReport(10000, System.out);
+ * </pre>
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.AdafruitHat
+ */
+public class AdafruitHatBus {
+	
+	/**
+	 * Power-up LED All Call I2C address of the PCA9685 (ALLCALLADR register 0XE0).
+	 */
+	public static final int ALL_CALL_ADDR = 0X70;
+	
+	//Register addresses of the ALL_LED registers and the values to stop all LED PWMs
+	private static final int ALL_LED_ON_L = 0XFA;
+	private static final byte[] ALL_STOP = new byte[] {0X00, 0X00, 0X00, 0X00};
+	
+	//One manager per bus number
+	private static final Map<Integer,AdafruitHatBus> instances = new HashMap<Integer,AdafruitHatBus>();
+	
+	private final I2CBus bus;
+	//Serializes the transactions of all devices on the bus, granting it in request order
+	private final ReentrantLock lock = new ReentrantLock(true);
+	
+	private final Map<Integer,ScheduledDevice> devices = new TreeMap<Integer,ScheduledDevice>();
+	private final List<AdafruitHat> hats = new ArrayList<AdafruitHat>();
+	
+	//Registered MBeans of the device statistics, null when not published to JMX
+	private Map<Integer,ObjectName> mbeans = null;
+	//Prints the statistics periodically, null when not reporting
+	private Timer reportTimer = null;
+	
+	/**
+	 * Return the manager of an I2C bus, opening the bus on first use.
+	 * @param i2cBus Bus number, for example I2CBus.BUS_1
+	 * @return AdafruitHatBus for the bus number
+	 * @throws IOException if the bus can not be opened
+	 */
+	public static synchronized AdafruitHatBus getInstance(int i2cBus) throws IOException {
+		AdafruitHatBus manager = instances.get(i2cBus);
+		if (manager == null) {
+			manager = new AdafruitHatBus(I2CFactory.getInstance(i2cBus));
+			instances.put(i2cBus, manager);
+		}
+		return manager;
+	}
+	
+	/**
+	 * Manage an I2C bus opened by the application, for example a PCA9685SimulatorBus.
+	 * @param bus I2C bus
+	 */
+	public AdafruitHatBus(I2CBus bus) {
+		this.bus = bus;
+	}
+	
+	/**
+	 * Return the I2C bus.
+	 * @return I2CBus
+	 */
+	public I2CBus getBus() {
+		return bus;
+	}
+	
+	/**
+	 * Return the device for an address on the bus. All the transactions of the device
+	 * are scheduled and accounted by this manager.
+	 * @param deviceAddr I2C address 0X03 to 0X7F
+	 * @return I2CDevice for the address
+	 * @throws IOException if the bus can not provide the device
+	 */
+	public synchronized I2CDevice getDevice(int deviceAddr) throws IOException {
+		if (deviceAddr < 0X03 || deviceAddr > 0X7F) {
+			System.out.println("*** Error *** I2C device address must be in range 0X03 to 0X7F");
+			throw new IllegalArgumentException(String.format("0X%02X", deviceAddr));
+		}
+		ScheduledDevice device = devices.get(deviceAddr);
+		if (device == null) {
+			device = new ScheduledDevice(bus.getDevice(deviceAddr), new I2CDeviceStatistics(deviceAddr, lock));
+			devices.put(deviceAddr, device);
+			if (mbeans != null) registerMBean(deviceAddr, device.stats);
+		}
+		return device;
+	}
+	
+	/**
+	 * Add a HAT commanded through this manager, so stopAll() can update its shadow cache.
+	 * A HAT created again for the same address replaces the earlier one.
+	 * @param hat HAT using a device of this manager
+	 */
+	synchronized void register(AdafruitHat hat) {
+		for (int i=0; i<hats.size(); i++) {
+			if (hats.get(i).DEVICE_ADDR == hat.DEVICE_ADDR) hats.remove(i--);
+		}
+		if (hat.DEVICE_ADDR == ALL_CALL_ADDR) {
+			System.out.println("*** Warning *** HAT at the All Call address 0X70 also receives every broadcast");
+		}
+		hats.add(hat);
+	}
+	
+	/**
+	 * Return the addresses of the registered HATs.
+	 * @return I2C addresses in registration order
+	 */
+	public synchronized int[] getHatAddresses() {
+		int[] addresses = new int[hats.size()];
+		for (int i=0; i<addresses.length; i++) addresses[i] = hats.get(i).DEVICE_ADDR;
+		return addresses;
+	}
+	
+	/**
+	 * Stop all motors and servos of every board on the bus with one broadcast to the
+	 * LED All Call address. Every PCA9685 with All Call enabled loads its ALL_LED 
+	 * registers, including boards not registered with this manager. 
+	 * <p>
+	 * The monitor of every registered HAT is held across the broadcast, so no write of
+	 * a HAT can come between the broadcast and the update of its shadow cache.
+	 * @return true if the broadcast was sent, false if it failed and each registered 
+	 * HAT was stopped separately
+	 */
+	public synchronized boolean stopAll() {
+		return stopAll(0);
+	}
+	
+	/**
+	 * Lock the registered HATs from the index given, then broadcast the stop.
+	 * @param index Index of the next HAT to lock
+	 * @return true if the broadcast was sent
+	 */
+	private boolean stopAll(int index) {
+		if (index < hats.size()) {
+			synchronized (hats.get(index)) {
+				return stopAll(index + 1);
+			}
+		}
+		//A block write needs auto-increment on every board, otherwise write byte by byte
+		boolean block = true;
+		for (AdafruitHat hat: hats) block &= hat.isAutoIncrement();
+		boolean ok;
+		try {
+			I2CDevice allCall = getDevice(ALL_CALL_ADDR);
+			if (block) allCall.write(ALL_LED_ON_L, ALL_STOP, 0, ALL_STOP.length);
+			else for (int i=0; i<ALL_STOP.length; i++) allCall.write(ALL_LED_ON_L+i, ALL_STOP[i]);
+			ok = true;
+		} catch (IOException e) {
+			System.out.println("*** ERROR *** Can not broadcast to the All Call address, stopping each HAT");
+			e.printStackTrace();
+			ok = false;
+		}
+		for (AdafruitHat hat: hats) {
+			if (ok) hat.markAllStopped(true);
+			else hat.stopAll();
+		}
+		return ok;
+	}
+	
+	/**
+	 * Return the time the bus was busy with transactions of an address.
+	 * @param deviceAddr I2C address
+	 * @return nanoseconds, 0 if the address has no device
+	 */
+	public long getBusTime(int deviceAddr) {
+		I2CDeviceStatistics stats = getStatistics(deviceAddr);
+		return (stats == null) ? 0 : stats.getBusTimeNanos();
+	}
+	
+	/**
+	 * Return the time transactions of an address waited for transactions of other 
+	 * addresses (or other threads) to release the bus.
+	 * @param deviceAddr I2C address
+	 * @return nanoseconds, 0 if the address has no device
+	 */
+	public long getWaitTime(int deviceAddr) {
+		I2CDeviceStatistics stats = getStatistics(deviceAddr);
+		return (stats == null) ? 0 : stats.getWaitTimeNanos();
+	}
+	
+	/**
+	 * Return the number of transactions of an address.
+	 * @param deviceAddr I2C address
+	 * @return transactions, 0 if the address has no device
+	 */
+	public long getTransactions(int deviceAddr) {
+		I2CDeviceStatistics stats = getStatistics(deviceAddr);
+		return (stats == null) ? 0 : stats.getTransactions();
+	}
+	
+	/**
+	 * Return the number of data bytes transferred for an address, counting the register
+	 * address byte of each transaction.
+	 * @param deviceAddr I2C address
+	 * @return bytes, 0 if the address has no device
+	 */
+	public long getBytes(int deviceAddr) {
+		I2CDeviceStatistics stats = getStatistics(deviceAddr);
+		return (stats == null) ? 0 : stats.getBytes();
+	}
+	
+	/**
+	 * Return the number of transactions of an address that failed with an IOException.
+	 * @param deviceAddr I2C address
+	 * @return errors, 0 if the address has no device
+	 */
+	public long getErrors(int deviceAddr) {
+		I2CDeviceStatistics stats = getStatistics(deviceAddr);
+		return (stats == null) ? 0 : stats.getErrors();
+	}
+	
+	/**
+	 * Return the statistics of an address, including its latency histograms.
+	 * @param deviceAddr I2C address
+	 * @return I2CDeviceStatistics, null if the address has no device
+	 */
+	public synchronized I2CDeviceStatistics getStatistics(int deviceAddr) {
+		ScheduledDevice device = devices.get(deviceAddr);
+		return (device == null) ? null : device.stats;
+	}
+	
+	/**
+	 * Reset the counters and histograms of every address.
+	 */
+	public synchronized void resetStatistics() {
+		for (ScheduledDevice device: devices.values()) device.stats.reset();
+	}
+	
+	/**
+	 * Publish the statistics of every address, present and future, as JMX MBeans on the
+	 * platform MBean server, named com.pi4j.component.adafruithat:type=I2CDeviceStatistics,
+	 * bus=(bus file name),address=0XNN.
+	 */
+	public synchronized void registerMBeans() {
+		if (mbeans != null) return;
+		mbeans = new TreeMap<Integer,ObjectName>();
+		for (Map.Entry<Integer,ScheduledDevice> entry: devices.entrySet()) {
+			registerMBean(entry.getKey(), entry.getValue().stats);
+		}
+	}
+	
+	/**
+	 * Remove the MBeans published by registerMBeans().
+	 */
+	public synchronized void unregisterMBeans() {
+		if (mbeans == null) return;
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for (ObjectName name: mbeans.values()) {
+			try {
+				server.unregisterMBean(name);
+			} catch (JMException e) {
+				System.out.println("*** Warning *** Can not unregister MBean " + name);
+			}
+		}
+		mbeans = null;
+	}
+	
+	private void registerMBean(int deviceAddr, I2CDeviceStatistics stats) {
+		try {
+			ObjectName name = new ObjectName(String.format(
+					"com.pi4j.component.adafruithat:type=I2CDeviceStatistics,bus=%s,address=0X%02X",
+					ObjectName.quote(bus.getFileName()), deviceAddr));
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			if (server.isRegistered(name)) server.unregisterMBean(name);
+			server.registerMBean(stats, name);
+			mbeans.put(deviceAddr, name);
+		} catch (JMException e) {
+			System.out.println(String.format("*** Warning *** Can not register MBean for address 0X%02X", deviceAddr));
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Print the statistics report (see toString()) periodically on a daemon thread. 
+	 * Replaces an earlier report.
+	 * @param milliseconds Time between reports, 1 or more
+	 * @param out Stream to print to, for example System.out
+	 */
+	public synchronized void startReport(long milliseconds, final PrintStream out) {
+		if (milliseconds < 1) {
+			System.out.println("*** Error *** Report interval must be 1 or more milliseconds");
+			throw new IllegalArgumentException(Long.toString(milliseconds));
+		}
+		stopReport();
+		reportTimer = new Timer("AdafruitHatBus-" + bus.getFileName() + "-report", true);
+		reportTimer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				out.print(AdafruitHatBus.this.toString());
+				out.flush();
+			}
+		}, milliseconds, milliseconds);
+	}
+	
+	/**
+	 * Stop the periodic report started by startReport().
+	 */
+	public synchronized void stopReport() {
+		if (reportTimer == null) return;
+		reportTimer.cancel();
+		reportTimer = null;
+	}
+	
+	/**
+	 * Return a report of the bus statistics, one line per address.
+	 */
+	@Override
+	public synchronized String toString() {
+		StringBuilder report = new StringBuilder();
+		for (ScheduledDevice device: devices.values()) {
+			report.append(device.stats.toString()).append(String.format("%n"));
+		}
+		return report.toString();
+	}
+	
+	/**
+	 * Device of one address. Each transaction takes the bus lock and is timed; the 
+	 * statistics are only recorded while holding the lock.
+	 */
+	private class ScheduledDevice implements I2CDevice {
+		private final I2CDevice device;
+		private final I2CDeviceStatistics stats;
+		
+		ScheduledDevice(I2CDevice device, I2CDeviceStatistics stats) {
+			this.device = device;
+			this.stats = stats;
+		}
+		
+		/**
+		 * Wait for the bus.
+		 * @return System.nanoTime() when the bus was granted
+		 */
+		private long acquire() {
+			long t0 = System.nanoTime();
+			lock.lock();
+			long t1 = System.nanoTime();
+			stats.recordWait(t1 - t0);
+			return t1;
+		}
+		
+		/**
+		 * Account the transaction and release the bus.
+		 * @param granted System.nanoTime() when the bus was granted
+		 * @param size Data bytes of the transaction
+		 */
+		private void release(long granted, int size) {
+			stats.recordTransaction(System.nanoTime() - granted, size);
+			lock.unlock();
+		}
+		
+		/**
+		 * Count a failed transaction. Called before release().
+		 * @param e Exception of the transaction
+		 * @return the exception, to be thrown again
+		 */
+		private IOException failed(IOException e) {
+			stats.recordError();
+			return e;
+		}
+		
+		@Override
+		public void write(byte b) throws IOException {
+			long granted = acquire();
+			try {
+				device.write(b);
+			} catch (IOException e) {
+				throw failed(e);
+			} finally {
+				release(granted, 1);
+			}
+		}
+		
+		@Override
+		public void write(byte[] buffer, int offset, int size) throws IOException {
+			long granted = acquire();
+			try {
+				device.write(buffer, offset, size);
+			} catch (IOException e) {
+				throw failed(e);
+			} finally {
+				release(granted, size);
+			}
+		}
+		
+		@Override
+		public void write(byte[] buffer) throws IOException {
+			write(buffer, 0, buffer.length);
+		}
+		
+		@Override
+		public void write(int address, byte b) throws IOException {
+			long granted = acquire();
+			try {
+				device.write(address, b);
+			} catch (IOException e) {
+				throw failed(e);
+			} finally {
+				release(granted, 2);
+			}
+		}
+		
+		@Override
+		public void write(int address, byte[] buffer, int offset, int size) throws IOException {
+			long granted = acquire();
+			try {
+				device.write(address, buffer, offset, size);
+			} catch (IOException e) {
+				throw failed(e);
+			} finally {
+				release(granted, size + 1);
+			}
+		}
+		
+		@Override
+		public void write(int address, byte[] buffer) throws IOException {
+			write(address, buffer, 0, buffer.length);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			long granted = acquire();
+			try {
+				return device.read();
+			} catch (IOException e) {
+				throw failed(e);
+			} finally {
+				release(granted, 1);
+			}
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int size) throws IOException {
+			long granted = acquire();
+			try {
+				return device.read(buffer, offset, size);
+			} catch (IOException e) {
+				throw failed(e);
+			} finally {
+				release(granted, size);
+			}
+		}
+		
+		@Override
+		public int read(int address) throws IOException {
+			long granted = acquire();
+			try {
+				return device.read(address);
+			} catch (IOException e) {
+				throw failed(e);
+			} finally {
+				release(granted, 2);
+			}
+		}
+		
+		@Override
+		public int read(int address, byte[] buffer, int offset, int size) throws IOException {
+			long granted = acquire();
+			try {
+				return device.read(address, buffer, offset, size);
+			} catch (IOException e) {
+				throw failed(e);
+			} finally {
+				release(granted, size + 1);
+			}
+		}
+		
+		@Override
+		public int read(byte[] writeBuffer, int writeOffset, int writeSize, 
+				byte[] readBuffer, int readOffset, int readSize) throws IOException {
+			long granted = acquire();
+			try {
+				return device.read(writeBuffer, writeOffset, writeSize, readBuffer, readOffset, readSize);
+			} catch (IOException e) {
+				throw failed(e);
+			} finally {
+				release(granted, writeSize + readSize);
+			}
+		}
+	}
+}
@@ -29,6 +29,10 @@ package com.pi4j.component.adafruithat;
  */
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.pi4j.io.i2c.I2CDevice;
+
 /**
  * This class extends the AdafruitHat superclass and handles the specific operating
  * commanding for DC and Stepper motors. 
@@ -55,6 +59,12 @@ public class AdafruitMotorHat extends AdafruitHat {
 		stepperMotorAllocated.put("SM1",false);
 		stepperMotorAllocated.put("SM2",false);
 	}	
+	
+	//Runs the asynchronous moves of this HAT's motors. Started by the first async move.
+	private MotionThread motionThread = null;
+	
+	//Runs the speed ramps of the DC motors on the motion thread. Created by the first ramp.
+	private volatile DcRampEngine rampEngine = null;
 		
 	public AdafruitMotorHat(int deviceAddr) {
 		super(deviceAddr);
@@ -66,6 +76,26 @@ public class AdafruitMotorHat extends AdafruitHat {
 		setup();
 	}
 	
+	/**
+	 * Command the HAT through the I2C device passed, for example a PCA9685Simulator.
+	 * @param deviceAddr Valid addresses range 0X60 to 0X7F
+	 * @param device I2C device for the HAT
+	 */
+	public AdafruitMotorHat(int deviceAddr, I2CDevice device) {
+		super(deviceAddr,device);
+		setup();
+	}
+	
+	/**
+	 * Command the HAT through the manager of an I2C bus shared by a stack of HATs.
+	 * @param deviceAddr Valid addresses range 0X60 to 0X7F
+	 * @param hatBus Bus manager
+	 */
+	public AdafruitMotorHat(int deviceAddr, AdafruitHatBus hatBus) {
+		super(deviceAddr,hatBus);
+		setup();
+	}
+	
 	/**
 	 * Set the maximum PWM frequency of the PC9885 chip for minimal motor vibration.
 	 */
@@ -159,4 +189,66 @@ public class AdafruitMotorHat extends AdafruitHat {
     	return new AdafruitStepperMotor(AdafruitMotorHat.this, motor);
     }
     
+    /**
+     * Queue an asynchronous move on this HAT's motion thread, starting the thread if needed.
+     * @param move Move to run
+     * @return CompletableFuture that completes when the move has finished
+     */
+    synchronized CompletableFuture<Void> submitMove(MotionThread.Move move) {
+    	if (motionThread == null) {
+    		motionThread = new MotionThread(String.format("AdafruitMotorHat-0X%02X-motion", DEVICE_ADDR));
+    		motionThread.start();
+    	}
+    	return motionThread.submit(move);
+    }
+    
+    /**
+     * Return the ramp engine of this HAT's DC motors, creating it if needed.
+     * @return DcRampEngine
+     */
+    synchronized DcRampEngine getRampEngine() {
+    	if (rampEngine == null) rampEngine = new DcRampEngine(this);
+    	return rampEngine;
+    }
+    
+    /**
+     * Cancel the speed ramp of a DC motor, if it has one. Not synchronized on the HAT
+     * since the ramp engine holds its own lock while writing to the HAT.
+     * @param motor DC motor
+     */
+    void cancelRamp(AdafruitDcMotor motor) {
+    	DcRampEngine engine = rampEngine;
+    	if (engine != null) engine.cancel(motor);
+    }
+    
+    /**
+     * Set the time between speed updates of DC motor ramps (see AdafruitDcMotor.rampTo()).
+     * The ramping motors of the HAT are updated together in one I2C transaction per tick.
+     * @param milliseconds 1 or more (default 10)
+     */
+    public void setRampInterval(long milliseconds) {
+    	getRampEngine().setInterval(milliseconds);
+    }
+    
+    /**
+     * Stop the motion thread. Moves in progress are halted at their current position and
+     * their CompletableFutures cancelled. A later async move starts a new motion thread.
+     * The thread is joined without holding the HAT lock, since halting the moves writes 
+     * to the HAT.
+     */
+    public void shutdownMotion() {
+    	MotionThread thread;
+    	synchronized (this) {
+    		thread = motionThread;
+    		motionThread = null;
+    	}
+    	if (thread == null) return;
+    	thread.shutdown();
+    	try {
+    		thread.join();
+    	} catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    	}
+    }
+    
 }
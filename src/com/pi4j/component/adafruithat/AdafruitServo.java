@@ -302,6 +302,14 @@ public class AdafruitServo implements Servo {
 		return maximumPulseWidth;
 	}		
 	
+	/**
+	 * Return the servo HAT commanding this servo
+	 * @return AdafruitServoHat
+	 */
+	AdafruitServoHat getServoHat() {
+		return servoHat;
+	}
+	
 	/**
 	 * Stop servo
 	 */
@@ -314,7 +322,8 @@ public class AdafruitServo implements Servo {
 	 *  Send commands to the I2C device.
 	 */
 	private void sendCommands() {
-		for (int i=0; i<4; i++) servoHat.write(PWM_ADDR[i],PWM_VALUES[i]);
+		//Within a frame the values are held by the HAT until the frame is committed
+		servoHat.write(PWM_ADDR[0], PWM_VALUES, 0, 4);
 	}
 
 	
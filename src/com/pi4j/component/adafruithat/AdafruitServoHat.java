@@ -29,6 +29,9 @@ package com.pi4j.component.adafruithat;
  */
 import java.util.HashMap;
 import java.util.Map;
+
+import com.pi4j.io.i2c.I2CDevice;
+
 /**
  * This class extends the AdafruitHat superclass and handles the specific operating
  * commanding for servos. 
@@ -71,6 +74,26 @@ public class AdafruitServoHat extends AdafruitHat {
 		setup();
 	}
 	
+	/**
+	 * Command the HAT through the I2C device passed, for example a PCA9685Simulator.
+	 * @param deviceAddr Valid addresses range 0X40 to 0X7F
+	 * @param device I2C device for the HAT
+	 */
+	public AdafruitServoHat(int deviceAddr, I2CDevice device) {
+		super(deviceAddr, device);
+		setup();
+	}
+	
+	/**
+	 * Command the HAT through the manager of an I2C bus shared by a stack of HATs.
+	 * @param deviceAddr Valid addresses range 0X40 to 0X7F
+	 * @param hatBus Bus manager
+	 */
+	public AdafruitServoHat(int deviceAddr, AdafruitHatBus hatBus) {
+		super(deviceAddr, hatBus);
+		setup();
+	}
+	
 	/**
 	 * For servos set the operating pulse frequency (duty-cycle) to 50HZ on 
 	 * the PCA9685 chip. Applications can  override this initial default by 
@@ -114,4 +137,64 @@ public class AdafruitServoHat extends AdafruitHat {
 		//Create the instance for this servo
 		return new AdafruitServo(AdafruitServoHat.this, servo);
 	}
+	
+	/**
+	 * Open a frame on the calling thread. Until commitFrame() is called the setPosition(),
+	 * setPulseWidth() and stop() methods of the servos on this HAT called by the thread
+	 * are held instead of being sent. A frame is a register batch, see beginBatch().
+	 */
+	public void beginFrame() {
+		beginBatch();
+	}
+	
+	/**
+	 * Send the servo updates held since beginFrame() as a single auto-increment block write.
+	 * The PCA9685 loads all the new values together so they take effect in the same PWM 
+	 * period. Only the span from the first to the last changed register is sent.
+	 */
+	public void commitFrame() {
+		commitBatch();
+	}
+	
+	/**
+	 * Close the open frame without sending the servo updates it holds.
+	 */
+	public void discardFrame() {
+		discardBatch();
+	}
+	
+	/**
+	 * Is a frame open on the calling thread?
+	 * @return true between beginFrame() and commitFrame()
+	 */
+	public boolean isFrameOpen() {
+		return isBatchOpen();
+	}
+	
+	/**
+	 * Move several servos together. The positions are sent as one frame so all the servos 
+	 * start moving in the same PWM period.
+	 * @param servos Servos on this HAT, a servo of another HAT is rejected
+	 * @param positions Position of each servo, see AdafruitServo.setPosition()
+	 */
+	public void setPositions(AdafruitServo[] servos, float[] positions) {
+		if (servos.length != positions.length) {
+			System.out.println("*** Error *** One position is required per servo");
+			throw new IllegalArgumentException(Integer.toString(positions.length));
+		}
+		for (AdafruitServo servo: servos) {
+			if (servo.getServoHat() != this) {
+				System.out.println("*** Error *** " + servo.getName() + " is not on this HAT");
+				throw new IllegalArgumentException(servo.getName());
+			}
+		}
+		beginFrame();
+		try {
+			for (int i=0; i<servos.length; i++) servos[i].setPosition(positions[i]);
+		} catch (RuntimeException e) {
+			discardFrame();
+			throw e;
+		}
+		commitFrame();
+	}
 }
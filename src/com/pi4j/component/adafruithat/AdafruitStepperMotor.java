@@ -27,6 +27,8 @@ package com.pi4j.component.adafruithat;
  * <http://www.gnu.org/licenses/lgpl-3.0.html>.
  * #L%
  */
+import java.util.concurrent.CompletableFuture;
+
 import com.pi4j.component.motor.MotorState;
 import com.pi4j.component.motor.StepperMotorBase;
 
@@ -74,12 +76,21 @@ public class AdafruitStepperMotor extends StepperMotorBase  {
 	//There are 8 micro-steps per full step.
 	private final int microSteps = 8;
 	
-	//Time interval between each step in the step() method. Default starts
+	//Time interval (nanoseconds) between each step in the step() method. Default starts
 	//as 0 interpreted as step motor at the fastest possible speed.
-	private long milliSeconds = 0;
+	private long stepInterval = 0;
+	
+	//Paces the steps of the step() method and keeps the interval statistics
+	private final StepTimer stepTimer = new StepTimer();
 	
 	//Terminate if the step's time interval can not be achieved.
 	private boolean killFlag = false;
+	
+	//Optional acceleration profile for the step() method. When null every
+	//step uses the fixed time interval.
+	private MotionProfile motionProfile = null;
+	//This motor's copy of the motion profile, which holds the planned move
+	private MotionProfile plannedProfile = null;
 
 	//Number of motor steps incurred. 
 	private long currentStep = 0;
@@ -88,17 +99,10 @@ public class AdafruitStepperMotor extends StepperMotorBase  {
 	//in the setStepsPerRevolution() method.
 	private int stepsPerRevolution = 0;
 	
-	private int coilIndex;
-	private int powerIndex;
-	private int pwmA;
-	private int pwmB;
-	
 	private int[][] singleStepCoils = new int[][] {{1,0,0,0}, {0,1,0,0}, {0,0,1,0}, {0,0,0,1}};
 	private int[][] halfStepCoils   = new int[][] {{1,0,0,0}, {1,1,0,0}, {0,1,0,0}, {0,1,1,0}, {0,0,1,0}, {0,0,1,1}, {0,0,0,1}, {1,0,0,1}};
 	private int[][] microStepCoils = new int[][] {{1,1,0,0},{0,1,1,0},{0,0,1,1},{1,0,0,1}};
 	private int[] microStepCurve = new int[] {0, 800, 1568, 2272, 2880, 3392, 3776, 4000, 4095};
-	private int[] coils = new int[4];
-	private byte[] ZERO = new byte[] {0,0,0,0};
 
 	/*
 	 * PCA9685-chip addresses to control coil A on the stepper motor
@@ -106,12 +110,6 @@ public class AdafruitStepperMotor extends StepperMotorBase  {
 	private int[] A_PWM_ADDR;
 	private int[] A_IN2_ADDR;
 	private int[] A_IN1_ADDR;
-	/*
-	 * Corresponding PWM values for coil A
-	 */
-	private byte[] A_PWM_VALUES;
-	private byte[] A_IN2_VALUES;
-	private byte[] A_IN1_VALUES;
 	/*
 	 * PCA9685-chip addresses to control coil B on the stepper motor
 	 */
@@ -119,11 +117,25 @@ public class AdafruitStepperMotor extends StepperMotorBase  {
 	private int[] B_IN2_ADDR;
 	private int[] B_IN1_ADDR;
 	/*
-	 * Corresponding PWM values for coil B
+	 * The six PWMs of a stepper motor occupy contiguous PCA9685 registers
+	 * (LED8-LED13 for SM1, LED2-LED7 for SM2) so all coil values are sent
+	 * in a single block write starting at the lowest register address.
 	 */
-	private byte[] B_PWM_VALUES;
-	private byte[] B_IN2_VALUES;
-	private byte[] B_IN1_VALUES;	
+	private int baseAddr;
+	private final int imageSize = 24;
+	
+	/*
+	 * Precomputed register images, indexed by StepperMode ordinal, then by the phase of 
+	 * the step sequence (4 phases for SINGLE_PHASE and DOUBLE_PHASE, 8 for HALF_STEP and
+	 * 32 for MULTI_STEP). Each phase is the complete 24-byte image of the six PWMs so a 
+	 * step only selects the phase and sends a prebuilt buffer.
+	 */
+	private final byte[][][] stepTables = new byte[StepperMode.values().length][][];
+	//Step table for the current stepperMode
+	private byte[][] stepTable;
+	//Register image that removes all power from the motor
+	private final byte[] stopImage = new byte[imageSize];
+	
 	/**
 	 * Stepper Motor Constructor
 	 * @param motorHat - must be created by caller
@@ -161,6 +173,12 @@ public class AdafruitStepperMotor extends StepperMotorBase  {
 			motorHat.stopAll();
 			throw new IllegalArgumentException(motor);			
 		}
+		//Coil A PWM is the lowest register address for both motors
+		baseAddr = A_PWM_ADDR[0];
+		
+		//Build the register images for every stepper mode
+		for (StepperMode mode: StepperMode.values()) stepTables[mode.ordinal()] = buildStepTable(mode);
+		stepTable = stepTables[stepperMode.ordinal()];
 	}
 	
 	/**
@@ -184,183 +202,180 @@ public class AdafruitStepperMotor extends StepperMotorBase  {
 	 * Move the stepper motor one step use previously set motor direction.
 	 */
 	public void oneStep() {
-		if (stepperMode == StepperMode.SINGLE_PHASE) stepSingleStep();
-		else if (stepperMode == StepperMode.DOUBLE_PHASE) stepSingleStep();
-		else if (stepperMode == StepperMode.HALF_STEP) stepHalfStep();
-		else if (stepperMode == StepperMode.MULTI_STEP) stepMultiStep();
-		else {
-			System.out.println("*** Error *** Invalid stepperMode.");
-			motorHat.stopAll();
-			throw new IllegalArgumentException(stepperMode.name());	
-		}
+		//Command the PCA9685 chip to step the motor.
+		sendImage(nextImage());
 	}
 	
 	/**
-	 * Move the stepper motor one step in SINGLE_PHASE or DOUBLE_PHASE mode.
+	 * Send a register image of the six PWMs as one register batch so both coils
+	 * change together (see AdafruitHat.commitBatch()). Within a batch opened by the 
+	 * caller the image is staged in that batch.
+	 * @param image Register image
 	 */
-	private void stepSingleStep() {
-		if (motorState == MotorState.FORWARD) currentStep += 1;
-		else currentStep -= 1;
-		
-		powerIndex = Math.abs((int) ((currentStep-1) % 2));
-		
-		/*
-		 * For SINGLE_PHASE alternate power on/off for coils A & B. We use
-		 * 4095(12-bit) to indicate the PWM is on for the full pulse width.
-		 */
-		if (stepperMode == StepperMode.SINGLE_PHASE) {
-			if (powerIndex == 0) {
-				pwmA = 4095;   //100% power for coil A
-				pwmB = 0;      //power turned off on coil B			
-			}
-			else {
-				pwmA = 0;		//power turned off on coil A 
-				pwmB = 4095;	//100% power for coil B
-			}
-		}
-		/*
-		 * For DOUBLE_PHASE stepping the power on both coils is always 100%
-		 */
-		else {
-			pwmA = 4095;
-			pwmB = 4095;
-		}
-		
-		//Set the power levels for coils A & B.
-		A_PWM_VALUES = this.setStepperPWM(0,pwmA); 
-		B_PWM_VALUES = this.setStepperPWM(0,pwmB);
-			
-		coilIndex =  Math.abs((int) ((currentStep-1) % 4));	
-		//Set the direction and movement PWMs for coils A & B
-		A_IN2_VALUES = this.setPin(singleStepCoils[coilIndex][0]);
-		B_IN1_VALUES = this.setPin(singleStepCoils[coilIndex][1]);
-		A_IN1_VALUES = this.setPin(singleStepCoils[coilIndex][2]);
-		B_IN2_VALUES = this.setPin(singleStepCoils[coilIndex][3]);
-		//Command the PCA9685 chip to step the motor.
-		this.sendCommands();
+	private void sendImage(byte[] image) {
+		boolean own = !motorHat.isBatchOpen();
+		if (own) motorHat.beginBatch();
+		motorHat.write(baseAddr, image, 0, imageSize);
+		if (own) motorHat.commitBatch();
 	}
 	
 	/**
-	 * Move the stepper motor one step in HALF_STEP mode.
+	 * Advance the currentStep one step in the motor direction without commanding the motor.
+	 * @return Register image of the six PWMs for the new step
 	 */
-	private void stepHalfStep() {
+	byte[] nextImage() {
 		if (motorState == MotorState.FORWARD) currentStep += 1;
 		else currentStep -= 1;
-		
-		//Set the power levels for coils A & B. 
-		//Always maximum power for both coils in half-step
-		A_PWM_VALUES = this.setStepperPWM(0,4095); 
-		B_PWM_VALUES = this.setStepperPWM(0,4095);
-		
-		coilIndex =  Math.abs((int) ((currentStep-1) % 8));	
-		//Set the direction and movement PWMs for coils A & B
-		A_IN2_VALUES = this.setPin(halfStepCoils[coilIndex][0]);
-		B_IN1_VALUES = this.setPin(halfStepCoils[coilIndex][1]);
-		A_IN1_VALUES = this.setPin(halfStepCoils[coilIndex][2]);
-		B_IN2_VALUES = this.setPin(halfStepCoils[coilIndex][3]);
-		//Command the PCA9685 chip to step the motor.
-		this.sendCommands();
-		
+		return phaseImage();
 	}
 	
 	/**
-	 * Move the stepper motor one step in MULTI_STEP mode.
+	 * Return the register image the motor was last commanded with: the phase of the 
+	 * currentStep, or the image that removes all power if the motor is stopped.
+	 * @return Register image of the six PWMs
 	 */
-	private void stepMultiStep() {
-		
-		if (motorState == MotorState.FORWARD) currentStep += 1;
-		else currentStep -= 1;
-		
-		powerIndex = Math.abs((int) ((currentStep - 1) % (microSteps*4)));
+	byte[] getImage() {
+		if (motorState == MotorState.STOP) return stopImage;
+		return phaseImage();
+	}
+	
+	/**
+	 * Power the coils at the phase of the currentStep so a stopped motor holds its position.
+	 */
+	void hold() {
+		if (motorState == MotorState.STOP) motorState = MotorState.FORWARD;
+		sendImage(phaseImage());
+	}
+	
+	/**
+	 * Select the phase of the step sequence for the currentStep
+	 * @return Register image of the six PWMs
+	 */
+	private byte[] phaseImage() {
+		int phase = (int) Math.floorMod(currentStep - 1, (long) stepTable.length);
+		return stepTable[phase];
+	}
+	
+	/**
+	 * Return the register address of the first of the six PWMs of this motor
+	 * @return PCA9685 register address
+	 */
+	int getBaseAddr() {
+		return baseAddr;
+	}
+	
+	/**
+	 * Return the number of register bytes in a register image
+	 * @return image size
+	 */
+	int getImageSize() {
+		return imageSize;
+	}
+	
+	/**
+	 * Return the motor HAT commanding this motor
+	 * @return AdafruitMotorHat
+	 */
+	AdafruitMotorHat getMotorHat() {
+		return motorHat;
+	}
+	
+	/**
+	 * Build the register images for each phase of the step sequence of a stepper mode.
+	 * @param mode Stepper mode
+	 * @return Register images indexed by phase
+	 */
+	private byte[][] buildStepTable(StepperMode mode) {
+		int phases;
+		if (mode == StepperMode.HALF_STEP) phases = halfStepCoils.length;
+		else if (mode == StepperMode.MULTI_STEP) phases = microSteps*4;
+		else phases = singleStepCoils.length;
 		
-		if (powerIndex >=0 && powerIndex < microSteps) {
-			pwmA = microStepCurve[microSteps-powerIndex];
-			pwmB = microStepCurve[powerIndex];
-			coils = microStepCoils[0];
-		}
-		else if (powerIndex >= microSteps && powerIndex < microSteps*2) {
-			pwmA = microStepCurve[powerIndex - microSteps];
-			pwmB = microStepCurve[microSteps*2 - powerIndex];
-			coils = microStepCoils[1];
-		}
-		else if (powerIndex >= microSteps*2 && powerIndex < microSteps*3) {
-			pwmA = microStepCurve[microSteps*3 - powerIndex];
-			pwmB = microStepCurve[powerIndex-microSteps*2];
-			coils = microStepCoils[2];
-		}
-		else if (powerIndex >= microSteps*3 && powerIndex < microSteps*4) {
-			pwmA = microStepCurve[powerIndex - microSteps*3];
-			pwmB = microStepCurve[microSteps*4 - powerIndex];
-			coils = microStepCoils[3];
+		byte[][] table = new byte[phases][imageSize];
+		for (int phase=0; phase<phases; phase++) {
+			int pwmA;
+			int pwmB;
+			int[] coils;
+			if (mode == StepperMode.SINGLE_PHASE) {
+				/*
+				 * For SINGLE_PHASE alternate power on/off for coils A & B. We use
+				 * 4095(12-bit) to indicate the PWM is on for the full pulse width.
+				 */
+				pwmA = (phase % 2 == 0) ? 4095 : 0;
+				pwmB = (phase % 2 == 0) ? 0 : 4095;
+				coils = singleStepCoils[phase];
+			}
+			else if (mode == StepperMode.DOUBLE_PHASE) {
+				//For DOUBLE_PHASE stepping the power on both coils is always 100%
+				pwmA = 4095;
+				pwmB = 4095;
+				coils = singleStepCoils[phase];
+			}
+			else if (mode == StepperMode.HALF_STEP) {
+				//Always maximum power for both coils in half-step
+				pwmA = 4095;
+				pwmB = 4095;
+				coils = halfStepCoils[phase];
+			}
+			else {
+				//MULTI_STEP ramps the coil power along the micro-step curve
+				int quarter = phase / microSteps;
+				int index = phase % microSteps;
+				if (quarter % 2 == 0) {
+					pwmA = microStepCurve[microSteps - index];
+					pwmB = microStepCurve[index];
+				}
+				else {
+					pwmA = microStepCurve[index];
+					pwmB = microStepCurve[microSteps - index];
+				}
+				coils = microStepCoils[quarter];
+			}
+			
+			//Set the power levels for coils A & B.
+			setStepperPWM(table[phase], A_PWM_ADDR, 0, pwmA);
+			setStepperPWM(table[phase], B_PWM_ADDR, 0, pwmB);
+			
+			//Set the direction and movement PWMs for coils A & B
+			setPin(table[phase], A_IN2_ADDR, coils[0]);
+			setPin(table[phase], B_IN1_ADDR, coils[1]);
+			setPin(table[phase], A_IN1_ADDR, coils[2]);
+			setPin(table[phase], B_IN2_ADDR, coils[3]);
 		}
-		
-		//Set the power levels for coils A & B.
-		A_PWM_VALUES = this.setStepperPWM(0,pwmA); 
-		B_PWM_VALUES = this.setStepperPWM(0,pwmB);
-		
-		//Set the direction and movement PWMs for coils A & B
-		A_IN2_VALUES = this.setPin(coils[0]);
-		B_IN1_VALUES = this.setPin(coils[1]);
-		A_IN1_VALUES = this.setPin(coils[2]);
-		B_IN2_VALUES = this.setPin(coils[3]);
-		
-		this.sendCommands();
-
+		return table;
 	}
 
 	/**
-	 * set the PWM values for the coil specification
-	 * @param coil
-	 * @return
+	 * Set the PWM values in the register image for the coil specification
+	 * @param image Register image of the six PWMs
+	 * @param addr Register addresses of the PWM
+	 * @param coil 0 or 1
 	 */
-	private byte[] setPin(int coil) {
-		byte values[] = new byte[4];		
-		if (coil == 0) values = setStepperPWM(0, 4095); 
-		else if (coil == 1) values = setStepperPWM(4095, 0);
+	private void setPin(byte[] image, int[] addr, int coil) {
+		if (coil == 0) setStepperPWM(image, addr, 0, 4095); 
+		else if (coil == 1) setStepperPWM(image, addr, 4095, 0);
 		else {
 			System.out.println("*** Error *** coil value must be 0 or 1.");
 			motorHat.stopAll();
 			throw new IllegalArgumentException(Integer.toString(coil));			
 		}		
-		return values;		
 	}
 	
 	/**
-	 * Create the byte array values for the PWM ON and OFF registers
+	 * Set the byte values for the PWM ON and OFF registers in the register image
+	 * @param image Register image of the six PWMs
+	 * @param addr Register addresses of the PWM
 	 * @param on -  ON  PWM (when to start pulse)
 	 * @param off - OFF PWM (when to stop pulse)
-	 * @return PWM array of ON and OFF byte values to be written to the PCA9685 device.
 	 */
-	private byte[] setStepperPWM(int on, int off) {
-		byte[] pwm = new byte[4];
-		pwm[0] = (byte) (on & 0XFF);	//low-order byte of ON PWM value
-		pwm[1] = (byte) (on >> 8);		//high-order byte of ON PWM value
-		pwm[2] = (byte) (off & 0XFF);	//low-order byte on OFF PWM value
-		pwm[3] = (byte) (off >>8);		//high-order byte of OFF PWM value
-		return pwm;
+	private void setStepperPWM(byte[] image, int[] addr, int on, int off) {
+		int i = addr[0] - baseAddr;
+		image[i]   = (byte) (on & 0XFF);	//low-order byte of ON PWM value
+		image[i+1] = (byte) (on >> 8);		//high-order byte of ON PWM value
+		image[i+2] = (byte) (off & 0XFF);	//low-order byte on OFF PWM value
+		image[i+3] = (byte) (off >>8);		//high-order byte of OFF PWM value
 	}
 
-	/**
-	 * Command the LED PWMs to set the motor power and direction.
-	 * A_PWM - PWM for coil A
-	 * A_IN2 - 2nd direction PWM, coil A
-	 * A_IN1 - 1st direction PWM, coil A
-	 * 
-	 * B_PWM - PWM for coil B
-	 * B_IN2 - 2nd direction PWM, coil B
-	 * B_IN1 - 1st direction PWM, coil B
-	 */
- 	private void sendCommands() {
- 		//Command A coil
-		for (int i=0; i<4; i++) motorHat.write(A_PWM_ADDR[i],A_PWM_VALUES[i]);
-		for (int i=0; i<4; i++) motorHat.write(A_IN2_ADDR[i],A_IN2_VALUES[i]);
-		for (int i=0; i<4; i++) motorHat.write(A_IN1_ADDR[i],A_IN1_VALUES[i]);
-		//Command B coil
-		for (int i=0; i<4; i++) motorHat.write(B_PWM_ADDR[i],B_PWM_VALUES[i]);
-		for (int i=0; i<4; i++) motorHat.write(B_IN2_ADDR[i],B_IN2_VALUES[i]);
-		for (int i=0; i<4; i++) motorHat.write(B_IN1_ADDR[i],B_IN1_VALUES[i]);		
-	}
-	
 	 /**
 	  * Move the number of steps specified.
 	  * Positive values will move stepper motor in forward direction, negative
@@ -384,28 +399,181 @@ public class AdafruitStepperMotor extends StepperMotorBase  {
 			mySteps = steps;
 			
 		}
-		if (milliSeconds == 0) for (long iStep=0;  iStep<mySteps; iStep++) this.oneStep();
+		if (plannedProfile != null) stepProfile(mySteps);
+		else if (stepInterval == 0) for (long iStep=0;  iStep<mySteps; iStep++) this.oneStep();
 		else {
+			long deadline = stepTimer.start();
 			for (long iStep=0;  iStep<mySteps; iStep++) {
-				long tStart = System.currentTimeMillis();
 				this.oneStep();
-				long deltaT = System.currentTimeMillis() - tStart;
 				//wait the additional time for the desired time interval
-				if (deltaT < milliSeconds) {
-					long wait = milliSeconds - deltaT;
-					motorHat.sleep(wait);
-				}
-				else if (killFlag) {
-					//If the time interval per step can not be achieved 
-					//and the killFlag is true then get out of here.
-					System.out.println("*** Error *** Time interval per step can not be achieved");
-					motorHat.stopAll();
-					throw new IllegalArgumentException();	
-				}				
+				deadline += stepInterval;
+				if (!waitForStep(deadline, stepInterval)) return;
 			}
 		}
 	}
 	
+	/**
+	 * Move the number of steps following the step times planned by the motion profile.
+	 * @param mySteps Number of steps in the current motor direction
+	 */
+	private void stepProfile(long mySteps) {
+		MotionProfile profile = plannedProfile;
+		profile.plan(mySteps);
+		long tStart = stepTimer.start();
+		for (long iStep=1; iStep<=mySteps; iStep++) {
+			//wait for the planned time of this step
+			if (!waitForStep(tStart + profile.getStepTime(iStep), profile.getStepInterval(iStep))) return;
+			this.oneStep();
+		}
+	}
+	
+	/**
+	 * Wait for the deadline of the next step. With the killFlag set the move is terminated
+	 * when the time taken since the previous step started is the requested interval or more.
+	 * @param deadline System.nanoTime() value of the next step
+	 * @param interval Requested time since the previous step in nanoseconds
+	 * @return true to continue stepping, false if interrupted and the motors were stopped
+	 */
+	private boolean waitForStep(long deadline, long interval) {
+		if (killFlag && System.nanoTime() - stepTimer.getLastActual() >= interval) {
+			//If the time interval per step can not be achieved 
+			//and the killFlag is true then get out of here.
+			System.out.println("*** Error *** Time interval per step can not be achieved");
+			motorHat.stopAll();
+			throw new IllegalArgumentException();	
+		}
+		if (!stepTimer.waitUntil(deadline)) {
+			System.out.println("*** ERROR *** Interrupted step");
+			motorHat.stopAll();
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Move the number of steps specified without blocking the caller. The move runs on the
+	 * motion thread of the motor HAT with the same timing as the step() method, so several
+	 * motors can move at once from a single control thread. Moves of this motor run in the 
+	 * order they are submitted. Do not call step() while an async move is in progress.
+	 * <p>
+	 * Cancelling the returned CompletableFuture stops the motor at its current position
+	 * (see stop()). getCurrentStep() then reports where the motor stopped. If the killFlag 
+	 * is set and the step timing can not be achieved the future completes exceptionally.
+	 * @param steps Positive values move forward, negative values reverse, 0 stops the motor
+	 * @return CompletableFuture that completes when the move has finished
+	 */
+	public CompletableFuture<Void> stepAsync(long steps) {
+		return motorHat.submitMove(new StepMove(steps));
+	}
+	
+	/**
+	 * Rotate the stepper motor for the number of revolutions specified without blocking
+	 * the caller. See stepAsync().
+	 * @param revolutions Positive values move forward, negative values reverse, 0 stops the motor
+	 * @return CompletableFuture that completes when the move has finished
+	 */
+	public CompletableFuture<Void> rotateAsync(double revolutions) {
+		if (stepsPerRevolution == 0) {
+			System.out.println("*** Error *** stepsPerRevolution was not initialzied by stepsPerRevoution method.");
+			motorHat.stopAll();
+			throw new IllegalArgumentException();			
+		}
+		return stepAsync(Math.round(revolutions * (double) stepsPerRevolution));
+	}
+	
+	/**
+	 * A step() move run on the motion thread. Each call to advance() takes one step.
+	 */
+	private class StepMove extends MotionThread.Move {
+		private final long steps;
+		private long mySteps;
+		//Steps taken so far
+		private long iStep;
+		private long tStart;
+		//Timing captured when the move starts
+		private long interval;
+		private MotionProfile profile;
+		
+		StepMove(long steps) {
+			super(AdafruitStepperMotor.this);
+			this.steps = steps;
+		}
+		
+		@Override
+		boolean begin(long now) {
+			if (steps == 0) {
+				setState(MotorState.STOP);
+				stop();
+				return false;
+			}
+			setState((steps < 0) ? MotorState.REVERSE : MotorState.FORWARD);
+			mySteps = Math.abs(steps);
+			interval = stepInterval;
+			profile = plannedProfile;
+			if (profile != null) profile.plan(mySteps);
+			tStart = now;
+			iStep = 0;
+			deadline = stepDeadline(1);
+			return true;
+		}
+		
+		@Override
+		boolean advance(long now) {
+			//fixed intervals wait one interval after the last step like step()
+			if (iStep == mySteps) return false;
+			oneStep();
+			iStep++;
+			if (iStep == mySteps && profile != null) return false;
+			long requested = stepDeadline(iStep + 1) - deadline;
+			if (killFlag && requested > 0 && System.nanoTime() - now >= requested) {
+				//the step took the whole interval to the next step
+				System.out.println("*** Error *** Time interval per step can not be achieved");
+				motorHat.stopAll();
+				throw new IllegalArgumentException();	
+			}
+			deadline += requested;
+			return true;
+		}
+		
+		/**
+		 * Return the deadline of a step, or the end of the move for the step after the last.
+		 * @param step Step number starting at 1
+		 * @return System.nanoTime() value
+		 */
+		private long stepDeadline(long step) {
+			if (profile != null) return tStart + profile.getStepTime(step);
+			return tStart + (step - 1)*interval;
+		}
+		
+		@Override
+		void halt() {
+			stop();
+		}
+	}
+	
+	/**
+	 * Use a motion profile to accelerate and decelerate the motor in the step() and
+	 * rotate() methods. The profile's velocities are in steps/second of the current
+	 * StepperMode. While a profile is set the time interval from setStepInterval() is
+	 * not used; the killFlag still applies.
+	 * The motor plans its moves on a copy of the profile, so the profile can be shared
+	 * with other motors.
+	 * @param motionProfile Motion profile for each move, null to return to fixed
+	 * time intervals between steps.
+	 */
+	public void setMotionProfile(MotionProfile motionProfile) {
+		this.motionProfile = motionProfile;
+		this.plannedProfile = (motionProfile == null) ? null : new MotionProfile(motionProfile);
+	}
+	
+	/**
+	 * Return the motion profile used by the step() and rotate() methods.
+	 * @return motion profile, null if steps use a fixed time interval
+	 */
+	public MotionProfile getMotionProfile() {
+		return motionProfile;
+	}
+	
 	/**
 	 * Rotate the stepper motor for the number of revolutions specified.
 	 * Positive values move in forward direction, negative in reverse direction,
@@ -454,9 +622,47 @@ public class AdafruitStepperMotor extends StepperMotorBase  {
 			throw new IllegalArgumentException();		
 		}
 		
-		this.milliSeconds = milliSeconds;
+		this.stepInterval = milliSeconds*1000000;
 	}	
 	
+	/**
+	 * Specify the timing interval between each motor step in nanoseconds. Use this method 
+	 * for sub-millisecond intervals (step rates above 1 kHz). The time interval applies 
+	 * only to step() and rotate() methods.
+	 *  
+	 * @param nanoSeconds Time interval in nanoseconds between each step. If 0 then
+	 * stepping occurs at the fastest rate possible. 
+	 * @param killFlag true=terminate if time interval can not be achieved, false=keep stepping
+	 * even if time interval can not be achieved.
+	 */
+	public void setStepIntervalNanos(long nanoSeconds, boolean killFlag) {
+		if (nanoSeconds < 0) {
+			//Invalid option, get out of here.
+			System.out.println("*** Error ***  nanoSeconds specified must be greater than or equal to 0");
+			motorHat.stopAll();
+			throw new IllegalArgumentException();		
+		}
+		this.killFlag = killFlag;
+		this.stepInterval = nanoSeconds;
+	}
+	
+	/**
+	 * Return the timing interval between each motor step.
+	 * @return Time interval in nanoseconds, 0 for the fastest possible rate
+	 */
+	public long getStepIntervalNanos() {
+		return stepInterval;
+	}
+	
+	/**
+	 * Return the timer pacing the step() and rotate() methods. The timer reports the 
+	 * achieved versus requested interval statistics of the steps taken. 
+	 * @return StepTimer for this motor
+	 */
+	public StepTimer getStepTimer() {
+		return stepTimer;
+	}
+	
 	/**
 	 * Return the Motor State
 	 * 
@@ -517,6 +723,7 @@ public class AdafruitStepperMotor extends StepperMotorBase  {
 		}
 		
 		this.stepperMode = stepperMode;
+		stepTable = stepTables[stepperMode.ordinal()];
 		
 		//currentStep is reset to zero whenever there is a mode change
 		//because of complications different steps per motor 360 deg. rotation.
@@ -539,14 +746,8 @@ public class AdafruitStepperMotor extends StepperMotorBase  {
 	 */
 	@Override
 	public void stop() {
-		A_PWM_VALUES = ZERO;
-		A_IN2_VALUES = ZERO;
-		A_IN1_VALUES = ZERO;
-		B_PWM_VALUES = ZERO;
-		B_IN2_VALUES = ZERO;
-		B_IN1_VALUES = ZERO;
 		motorState = MotorState.STOP;
-		sendCommands();
+		sendImage(stopImage);
 	}
 	
 	/**
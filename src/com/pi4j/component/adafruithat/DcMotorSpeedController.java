@@ -0,0 +1,304 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  DcMotorSpeedController.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Closed-loop speed control of an AdafruitDcMotor. The motor speed is measured with
+ * an Encoder and a PID loop running at a fixed rate sets the motor power so the 
+ * speed holds at the target under changing load and supply voltage.
+ * <p>
+ * Each period the controller reads the encoder count, estimates the speed from the 
+ * counts since the previous period (smoothed with a low pass filter), and commands 
+ * <pre>
+ *     power = kf*target + kp*error + ki*integral(error) + kd*d(error)/dt
+ * </pre>
+ * through AdafruitDcMotor.speed(). The derivative is taken on the measured speed so 
+ * target changes do not kick the output, and the integral stops growing while the
+ * power is limited at full throttle (anti-windup). Speeds are in revolutions per 
+ * minute and the power is in the motor's power range (see setPowerRange()).
+ * <pre>
+ *     DcMotorSpeedController control = new DcMotorSpeedController(motor, encoder, 1200);
+ *     control.setGains(0.002, 0.02, 0.0);
+ *     control.setFeedForward(1.0/200.0);
+ *     control.setTargetRpm(120.0);
+ *     control.start();
+ * </pre>
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.QuadratureEncoder
+ * @see com.pi4j.component.adafruithat.SimulatedEncoder
+ */
+public class DcMotorSpeedController {
+	
+	private final AdafruitDcMotor motor;
+	private final Encoder encoder;
+	private final int countsPerRevolution;
+	
+	//Gains, read by the control loop every period
+	private volatile double kp = 0.002;
+	private volatile double ki = 0.02;
+	private volatile double kd = 0.0;
+	private volatile double kf = 0.0;
+	//Weight of the newest speed sample in the speed estimate, 1.0 = no filtering
+	private volatile double filter = 0.5;
+	private volatile double targetRpm = 0.0;
+	
+	//Control period in nanoseconds
+	private long period = 10000000;
+	
+	//Latest measurement and output, for monitoring
+	private volatile double measuredRpm = 0.0;
+	private volatile double output = 0.0;
+	
+	//Paces the control loop and keeps the interval statistics
+	private final StepTimer stepTimer = new StepTimer();
+	
+	private Thread thread = null;
+	private CompletableFuture<Void> future = null;
+	
+	/**
+	 * Create a speed controller for a motor.
+	 * @param motor DC motor to control
+	 * @param encoder Encoder measuring the motor position
+	 * @param countsPerRevolution Encoder counts per revolution of the motor shaft
+	 */
+	public DcMotorSpeedController(AdafruitDcMotor motor, Encoder encoder, int countsPerRevolution) {
+		if (countsPerRevolution < 1) {
+			System.out.println("*** Error *** countsPerRevolution must be >= 1");
+			throw new IllegalArgumentException(Integer.toString(countsPerRevolution));
+		}
+		this.motor = motor;
+		this.encoder = encoder;
+		this.countsPerRevolution = countsPerRevolution;
+	}
+	
+	/**
+	 * Set the PID gains. Gains may be changed while the controller runs.
+	 * @param kp Proportional gain, power per RPM of error
+	 * @param ki Integral gain, power per RPM-second of error
+	 * @param kd Derivative gain, power per RPM/second of speed change
+	 */
+	public void setGains(double kp, double ki, double kd) {
+		if (kp < 0.0 || ki < 0.0 || kd < 0.0) {
+			System.out.println("*** Error *** PID gains must be >= 0.0");
+			throw new IllegalArgumentException(kp + " " + ki + " " + kd);
+		}
+		this.kp = kp;
+		this.ki = ki;
+		this.kd = kd;
+	}
+	
+	/**
+	 * Set the feed forward gain, the power per RPM of target speed applied before the
+	 * PID correction. Set it to about 1/(no-load RPM) so the PID only corrects for load.
+	 * @param kf Feed forward gain, 0.0 (default) to disable
+	 */
+	public void setFeedForward(double kf) {
+		if (kf < 0.0) {
+			System.out.println("*** Error *** Feed forward gain must be >= 0.0");
+			throw new IllegalArgumentException(Double.toString(kf));
+		}
+		this.kf = kf;
+	}
+	
+	/**
+	 * Set the low pass filter of the speed estimate. Encoders with few counts per 
+	 * revolution give a noisy speed at short periods and need more filtering.
+	 * @param weight Weight of the newest sample, 0.0 (exclusive) to 1.0 (no filtering)
+	 */
+	public void setFilter(double weight) {
+		if (weight <= 0.0 || weight > 1.0) {
+			System.out.println("*** Error *** Filter weight must be in range 0.0 (exclusive) to 1.0");
+			throw new IllegalArgumentException(Double.toString(weight));
+		}
+		this.filter = weight;
+	}
+	
+	/**
+	 * Set the control period.
+	 * @param milliseconds Time between updates of the motor power, 1 or more (default 10)
+	 */
+	public synchronized void setPeriod(long milliseconds) {
+		checkStopped();
+		if (milliseconds < 1) {
+			System.out.println("*** Error *** Control period must be >= 1 millisecond");
+			throw new IllegalArgumentException(Long.toString(milliseconds));
+		}
+		period = milliseconds*1000000;
+	}
+	
+	/**
+	 * Set the speed to hold. May be changed while the controller runs.
+	 * @param rpm Revolutions per minute, negative for reverse
+	 */
+	public void setTargetRpm(double rpm) {
+		targetRpm = rpm;
+	}
+	
+	/**
+	 * Return the speed being held.
+	 * @return Revolutions per minute
+	 */
+	public double getTargetRpm() {
+		return targetRpm;
+	}
+	
+	/**
+	 * Return the filtered speed measured in the last control period.
+	 * @return Revolutions per minute
+	 */
+	public double getMeasuredRpm() {
+		return measuredRpm;
+	}
+	
+	/**
+	 * Return the power commanded in the last control period.
+	 * @return -maximumPower to maximumPower
+	 */
+	public double getOutput() {
+		return output;
+	}
+	
+	/**
+	 * Start the control loop on the controller's thread.
+	 * @return CompletableFuture that is cancelled by stop(), or completed exceptionally 
+	 * if commanding the motor fails. The motor is stopped in either case.
+	 */
+	public synchronized CompletableFuture<Void> start() {
+		checkStopped();
+		final CompletableFuture<Void> running = new CompletableFuture<Void>();
+		final long interval = period;
+		future = running;
+		thread = new Thread("DcMotorSpeedController-" + motor.getName()) {
+			@Override
+			public void run() {
+				try {
+					control(running, interval);
+				} catch (RuntimeException e) {
+					running.completeExceptionally(e);
+				} finally {
+					motor.stop();
+					output = 0.0;
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		return running;
+	}
+	
+	/**
+	 * Run the PID loop every interval until cancelled.
+	 */
+	private void control(CompletableFuture<Void> running, long interval) {
+		double integral = 0.0;
+		double speed = 0.0;
+		long lastCount = encoder.getCount();
+		long lastTime = stepTimer.start();
+		long tStart = lastTime;
+		
+		for (long k=1; !running.isDone(); k++) {
+			if (!stepTimer.waitUntil(tStart + k*interval)) {
+				//interrupted by stop()
+				running.cancel(false);
+				return;
+			}
+			long count = encoder.getCount();
+			long now = System.nanoTime();
+			double dt = (now - lastTime)/1.0E9;
+			if (dt <= 0.0) continue;
+			
+			//Speed from the counts since the last period, low pass filtered
+			double sample = (count - lastCount)*60.0/(countsPerRevolution*dt);
+			double previous = speed;
+			speed += filter*(sample - speed);
+			lastCount = count;
+			lastTime = now;
+			measuredRpm = speed;
+			
+			double target = targetRpm;
+			double error = target - speed;
+			double limit = motor.getPowerRange();
+			
+			double base = kf*target + kp*error - kd*(speed - previous)/dt;
+			double step = ki*error*dt;
+			//Integrate unless the output is limited and the error would push it further
+			double u = base + integral + step;
+			if ((u <= limit || step < 0.0) && (u >= -limit || step > 0.0)) integral += step;
+			u = Math.max(-limit, Math.min(limit, base + integral));
+			
+			output = u;
+			motor.speed((float) u);
+		}
+	}
+	
+	/**
+	 * Stop the control loop and the motor.
+	 */
+	public void stop() {
+		Thread running;
+		synchronized (this) {
+			if (future != null) future.cancel(false);
+			running = thread;
+		}
+		if (running != null) {
+			running.interrupt();
+			try {
+				running.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Is the control loop running?
+	 * @return true while running
+	 */
+	public synchronized boolean isRunning() {
+		return future != null && !future.isDone();
+	}
+	
+	/**
+	 * Return the timer pacing the control loop. The timer reports the achieved versus 
+	 * requested period statistics.
+	 * @return StepTimer for this controller
+	 */
+	public StepTimer getStepTimer() {
+		return stepTimer;
+	}
+	
+	private void checkStopped() {
+		if (isRunning()) {
+			System.out.println("*** Error *** Controller is running, call stop() first");
+			throw new IllegalStateException();
+		}
+	}
+}
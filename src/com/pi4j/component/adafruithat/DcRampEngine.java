@@ -0,0 +1,256 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  DcRampEngine.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Speed ramps of the DC motors of an AdafruitMotorHat. 
+ * <p>
+ * All the ramps of a HAT run as one move on the HAT's motion thread. On every tick 
+ * the speed of each ramping motor is advanced and the commands of all the ramping 
+ * motors are sent as one register batch (see AdafruitHat.beginBatch()), so any number 
+ * of ramping motors costs one I2C transaction per tick. Braking is a timed phase of a ramp rather than 
+ * a sleep, so no caller blocks while a motor brakes.
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.AdafruitDcMotor#rampTo(float)
+ */
+class DcRampEngine {
+	
+	/**
+	 * Ramp of one motor.
+	 */
+	private static class Ramp {
+		final AdafruitDcMotor motor;
+		final CompletableFuture<Void> future = new CompletableFuture<Void>();
+		final float start;
+		final float target;
+		final Interpolation shape;
+		//System.nanoTime() at the start of the ramp and the ramp length in nanoseconds
+		final long t0;
+		final long duration;
+		//Brake instead of ramping, brakeEnd is 0 until the brake is applied
+		final boolean brake;
+		long brakeEnd = 0;
+		
+		Ramp(AdafruitDcMotor motor, float target, boolean brake, long now) {
+			this.motor = motor;
+			this.start = motor.isStopped() ? 0.0f : motor.getSpeed();
+			this.target = target;
+			this.shape = motor.getRampInterpolation();
+			this.brake = brake;
+			this.t0 = now;
+			this.duration = Math.round(Math.abs(target - start)/motor.getRampRate()*1.0E9);
+		}
+		
+		/**
+		 * Return the speed of the ramp at a time.
+		 * @param u Fraction of the ramp duration, 0.0 to 1.0
+		 */
+		float speedAt(double u) {
+			double s;
+			switch (shape) {
+				case CUBIC:
+					s = u*u*(3.0 - 2.0*u);
+					break;
+				case MINIMUM_JERK:
+					s = u*u*u*(10.0 - 15.0*u + 6.0*u*u);
+					break;
+				default:
+					s = u;
+			}
+			return (float) (start + (target - start)*s);
+		}
+	}
+	
+	private final AdafruitMotorHat motorHat;
+	private final List<Ramp> ramps = new ArrayList<Ramp>();
+	private final List<Ramp> finished = new ArrayList<Ramp>();
+	
+	//Nanoseconds between ticks
+	private long interval = 10000000;
+	
+	//Move running the ramps on the motion thread, null while no motor is ramping
+	private MotionThread.Move tick = null;
+	
+	DcRampEngine(AdafruitMotorHat motorHat) {
+		this.motorHat = motorHat;
+	}
+	
+	/**
+	 * Set the time between ticks.
+	 * @param milliseconds 1 or more
+	 */
+	synchronized void setInterval(long milliseconds) {
+		if (milliseconds < 1) {
+			System.out.println("*** Error *** Ramp interval must be >= 1 millisecond");
+			throw new IllegalArgumentException(Long.toString(milliseconds));
+		}
+		interval = milliseconds*1000000;
+	}
+	
+	/**
+	 * Start a ramp, replacing any ramp of the motor in progress.
+	 * @param motor Motor to ramp
+	 * @param target Target speed
+	 * @param brake true=brake and release the motor instead of ramping
+	 * @return CompletableFuture that completes at the end of the ramp
+	 */
+	synchronized CompletableFuture<Void> ramp(AdafruitDcMotor motor, float target, boolean brake) {
+		cancel(motor);
+		Ramp ramp = new Ramp(motor, target, brake, System.nanoTime());
+		ramps.add(ramp);
+		//a tick still waiting to start when the motion thread shut down was never run
+		if (tick == null || tick.future.isDone()) {
+			tick = new Tick();
+			motorHat.submitMove(tick);
+		}
+		return ramp.future;
+	}
+	
+	/**
+	 * Cancel the ramp of a motor. The motor keeps its current speed.
+	 * @param motor Motor
+	 */
+	synchronized void cancel(AdafruitDcMotor motor) {
+		for (int i=0; i<ramps.size(); i++) {
+			if (ramps.get(i).motor == motor) {
+				ramps.remove(i).future.cancel(false);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Advance every ramp to the time given and send the motor registers.
+	 * @param now Current System.nanoTime() value
+	 * @return System.nanoTime() of the next tick, or 0 if no ramps are left
+	 */
+	private synchronized long advance(long now) {
+		long next = now + interval;
+		motorHat.beginBatch();
+		try {
+			for (int i=ramps.size()-1; i>=0; i--) {
+				Ramp ramp = ramps.get(i);
+				AdafruitDcMotor motor = ramp.motor;
+				boolean done;
+				if (ramp.future.isDone()) {
+					//cancelled, never leave a motor braking
+					if (ramp.brake && ramp.brakeEnd != 0) motor.applyRelease();
+					ramps.remove(i);
+					motor.sendCommands();
+					continue;
+				}
+				if (ramp.brake) {
+					if (ramp.brakeEnd == 0) {
+						motor.applyBrake();
+						ramp.brakeEnd = now + motor.getBrakeModeValue()*1000000;
+						if (ramp.brakeEnd - next < 0) next = ramp.brakeEnd;
+						done = false;
+					} else if (ramp.brakeEnd - now > 0) {
+						if (ramp.brakeEnd - next < 0) next = ramp.brakeEnd;
+						done = false;
+					} else {
+						motor.applyRelease();
+						done = true;
+					}
+				} else {
+					double u = (ramp.duration == 0) ? 1.0 : Math.min(1.0, (double) (now - ramp.t0)/ramp.duration);
+					motor.applySpeed((u >= 1.0) ? ramp.target : ramp.speedAt(u));
+					done = u >= 1.0;
+				}
+				motor.sendCommands();
+				if (done) finished.add(ramps.remove(i));
+			}
+		} catch (RuntimeException e) {
+			motorHat.discardBatch();
+			throw e;
+		}
+		motorHat.commitBatch();
+		
+		for (Ramp ramp: finished) ramp.future.complete(null);
+		finished.clear();
+		if (ramps.isEmpty()) {
+			tick = null;
+			return 0;
+		}
+		return next;
+	}
+	
+	/**
+	 * Release the ramping motors. Called when the motion thread shuts down.
+	 */
+	private synchronized void halt() {
+		motorHat.beginBatch();
+		try {
+			for (Ramp ramp: ramps) {
+				ramp.motor.applyRelease();
+				ramp.motor.sendCommands();
+				ramp.future.cancel(false);
+			}
+		} catch (RuntimeException e) {
+			motorHat.discardBatch();
+			throw e;
+		}
+		motorHat.commitBatch();
+		ramps.clear();
+		tick = null;
+	}
+	
+	/**
+	 * The move running the ramps on the motion thread.
+	 */
+	private class Tick extends MotionThread.Move {
+		
+		Tick() {
+			super(DcRampEngine.this);
+		}
+		
+		@Override
+		boolean begin(long now) {
+			deadline = now;
+			return true;
+		}
+		
+		@Override
+		boolean advance(long now) {
+			long next = DcRampEngine.this.advance(now);
+			if (next == 0) return false;
+			deadline = next;
+			return true;
+		}
+		
+		@Override
+		void halt() {
+			DcRampEngine.this.halt();
+		}
+	}
+}
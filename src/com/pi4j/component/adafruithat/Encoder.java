@@ -0,0 +1,55 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  Encoder.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Source of motor position counts for closed-loop control. The count increases
+ * while the motor turns forward and decreases while it turns in reverse.
+ * <p>
+ * getCount() is called from the control loop thread while the count may be
+ * changing on another thread, so implementations must be thread safe.
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.QuadratureEncoder
+ * @see com.pi4j.component.adafruithat.SimulatedEncoder
+ * @see com.pi4j.component.adafruithat.DcMotorSpeedController
+ */
+public interface Encoder {
+	
+	/**
+	 * Return the accumulated encoder count.
+	 * @return count, positive in the forward direction
+	 */
+	long getCount();
+	
+	/**
+	 * Set the count to zero.
+	 */
+	void reset();
+}
@@ -0,0 +1,669 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  GcodeInterpreter.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming G-code interpreter that drives AdafruitStepperMotor axes. Each axis letter 
+ * (X, Y, Z, ...) is mapped onto a stepper motor with a number of steps per unit. The
+ * axes are moved together by a StepperCoordinator so linear moves are straight lines
+ * even across several motor HATs.
+ * <p>
+ * Supported commands:
+ * <pre>
+ *     G0   rapid linear move at the rapid rate
+ *     G1   linear move at the feed rate F (units/minute)
+ *     G4   dwell P milliseconds or S seconds
+ *     G28  move the listed axes (all axes if none listed) to position 0
+ *     G90  absolute positions
+ *     G91  relative positions
+ *     M17  power the motors so they hold position
+ *     M18  remove power from the motors
+ * </pre>
+ * Other G and M codes are reported and skipped. Comments in parentheses or after a 
+ * semicolon are ignored. Position 0 of an axis is currentStep 0 of its motor.
+ * <p>
+ * The program is read one line at a time and at most 16 moves are held by a look-ahead
+ * planner, so toolpaths of any size run in bounded memory. The planner limits the speed
+ * at each junction between moves by the angle of the corner (junction deviation) and 
+ * plans the entry speed of every held move so the axes can always decelerate to a stop
+ * at the end of the look-ahead. Consecutive moves run without stopping. The motors stop
+ * only at the end of the program, a dwell, G28 or M17/M18.
+ * <pre>
+ *     GcodeInterpreter gcode = new GcodeInterpreter();
+ *     gcode.setAxis('X', motorHat.getStepperMotor("SM1"), 80.0);
+ *     gcode.setAxis('Y', motorHat.getStepperMotor("SM2"), 80.0);
+ *     gcode.setAcceleration(500.0);
+ *     gcode.run("toolpath.gcode");
+ * </pre>
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.StepperCoordinator
+ */
+public class GcodeInterpreter {
+	
+	//Number of moves held by the look-ahead planner
+	private static final int LOOKAHEAD = 16;
+	
+	/*
+	 * A linear move held by the look-ahead planner. Velocities are along the path 
+	 * in units/second.
+	 */
+	private static class Segment {
+		long[]   steps;		//steps of each axis
+		double   length;	//path length in units
+		double   nominal;	//requested velocity
+		double   maxEntry;	//junction limit of the entry velocity
+		double   entry;		//planned entry velocity
+	}
+	
+	//Axis letters, motors and scale in the order they were mapped
+	private final List<Character> axisLetters = new ArrayList<Character>();
+	private final List<AdafruitStepperMotor> axisMotors = new ArrayList<AdafruitStepperMotor>();
+	private final List<Double> axisScale = new ArrayList<Double>();
+	//Axis index of each letter A-Z, -1 if not mapped
+	private final int[] axisIndex = new int[26];
+	
+	//Built from the axis mapping when the first line is executed
+	private StepperCoordinator coordinator = null;
+	private int axes;
+	private double[] stepsPerUnit;
+	
+	//Planner ring of segments
+	private Segment[] ring;
+	private int head = 0;
+	private int count = 0;
+	
+	//Planned position of each axis in units and in motor steps
+	private double[] position;
+	private long[]   stepPosition;
+	//Target of the move being parsed
+	private double[] target;
+	//Direction of the last planned move for the junction speed of the next move
+	private double[] lastUnit;
+	private double   lastNominal;
+	private boolean  lastValid = false;
+	
+	//Time of the last tick, the start of the next move when moving continuously
+	private long tCursor;
+	private boolean idle = true;
+	private boolean aborted = false;
+	
+	//Settings
+	private double acceleration = 100.0;			//units/second^2
+	private double junctionDeviation = 0.05;		//units
+	private double feedRate = 600.0;				//units/minute
+	private double rapidRate = 1200.0;				//units/minute
+	
+	//Modal state
+	private boolean relative = false;
+	private int motionMode = 0;
+	
+	//Words of the line being parsed
+	private final double[]  words   = new double[26];
+	private final boolean[] hasWord = new boolean[26];
+	private final int[] gCodes = new int[8];
+	private final int[] mCodes = new int[8];
+	private int gCount;
+	private int mCount;
+	private long lineNumber = 0;
+	
+	public GcodeInterpreter() {
+		for (int i=0; i<axisIndex.length; i++) axisIndex[i] = -1;
+	}
+	
+	/**
+	 * Map an axis letter onto a stepper motor.
+	 * @param axis Axis letter, for example 'X'
+	 * @param motor Stepper motor moving the axis
+	 * @param stepsPerUnit Motor steps (in the motor's StepperMode) per unit of the axis. 
+	 * A negative value reverses the axis.
+	 */
+	public void setAxis(char axis, AdafruitStepperMotor motor, double stepsPerUnit) {
+		axis = Character.toUpperCase(axis);
+		if (axis < 'A' || axis > 'Z' || "FGMNPST".indexOf(axis) >= 0) {
+			System.out.println("*** Error *** Axis must be a letter other than F, G, M, N, P, S or T");
+			throw new IllegalArgumentException(Character.toString(axis));
+		}
+		if (stepsPerUnit == 0.0 || Double.isNaN(stepsPerUnit) || Double.isInfinite(stepsPerUnit)) {
+			System.out.println("*** Error *** stepsPerUnit must be a non-zero number");
+			throw new IllegalArgumentException(Double.toString(stepsPerUnit));
+		}
+		if (count > 0) {
+			System.out.println("*** Error *** Axes can not be changed while moves are planned");
+			throw new IllegalStateException();
+		}
+		int index = axisIndex[axis - 'A'];
+		if (index >= 0) {
+			axisMotors.set(index, motor);
+			axisScale.set(index, stepsPerUnit);
+		}
+		else {
+			axisIndex[axis - 'A'] = axisLetters.size();
+			axisLetters.add(axis);
+			axisMotors.add(motor);
+			axisScale.add(stepsPerUnit);
+		}
+		coordinator = null;
+	}
+	
+	/**
+	 * Set the acceleration and deceleration along the path.
+	 * @param acceleration units/second^2 (default 100)
+	 */
+	public void setAcceleration(double acceleration) {
+		checkPositive(acceleration, "acceleration");
+		this.acceleration = acceleration;
+	}
+	
+	/**
+	 * Set the junction deviation. Larger values allow higher speeds through corners.
+	 * @param junctionDeviation units (default 0.05)
+	 */
+	public void setJunctionDeviation(double junctionDeviation) {
+		checkPositive(junctionDeviation, "junctionDeviation");
+		this.junctionDeviation = junctionDeviation;
+	}
+	
+	/**
+	 * Set the feed rate used by G1 until the program sets one with an F word.
+	 * @param feedRate units/minute (default 600)
+	 */
+	public void setFeedRate(double feedRate) {
+		checkPositive(feedRate, "feedRate");
+		this.feedRate = feedRate;
+	}
+	
+	/**
+	 * Set the rate of G0 rapid moves and G28.
+	 * @param rapidRate units/minute (default 1200)
+	 */
+	public void setRapidRate(double rapidRate) {
+		checkPositive(rapidRate, "rapidRate");
+		this.rapidRate = rapidRate;
+	}
+	
+	private void checkPositive(double value, String name) {
+		if (!(value > 0.0) || Double.isInfinite(value)) {
+			System.out.format("*** Error *** %s must be > 0\n", name);
+			throw new IllegalArgumentException(Double.toString(value));
+		}
+	}
+	
+	/**
+	 * Run a G-code file.
+	 * @param fileName Name of the G-code file
+	 * @throws IOException if the file can not be read
+	 */
+	public void run(String fileName) throws IOException {
+		try (InputStream in = new FileInputStream(fileName)) {
+			run(in);
+		}
+	}
+	
+	/**
+	 * Run a G-code program read from the stream. The stream is read one line at a time
+	 * and is not closed. The call returns when the motors have completed the program.
+	 * If the thread is interrupted the motors are stopped and the call returns with the 
+	 * thread's interrupt status set.
+	 * @param in G-code program
+	 * @throws IOException if the stream can not be read
+	 */
+	public void run(InputStream in) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+		reset();
+		String line;
+		while (!aborted && (line = reader.readLine()) != null) execute(line);
+		if (!aborted) finish();
+	}
+	
+	/**
+	 * Execute one line of G-code. Moves are held by the look-ahead planner and run as
+	 * later lines fill it; call finish() at the end of the program.
+	 * <p>
+	 * If the thread is interrupted while the motors move, the motors are stopped, the 
+	 * held moves are dropped and the interpreter is aborted: execute() and finish() 
+	 * throw IllegalStateException until reset() is called. An invalid word stops the 
+	 * motors and drops the held moves too, and throws IllegalArgumentException.
+	 * @param line G-code line
+	 */
+	public void execute(String line) {
+		checkNotAborted();
+		if (coordinator == null) setup();
+		lineNumber++;
+		parse(line);
+		
+		if (hasWord['F' - 'A']) {
+			checkWord(words['F' - 'A'] > 0.0, "F");
+			feedRate = words['F' - 'A'];
+		}
+		boolean dwell = false;
+		boolean home = false;
+		for (int i=0; i<gCount; i++) {
+			switch (gCodes[i]) {
+				case 0:  motionMode = 0; break;
+				case 1:  motionMode = 1; break;
+				case 4:  dwell = true; break;
+				case 28: home = true; break;
+				case 90: relative = false; break;
+				case 91: relative = true; break;
+				default: System.out.format("*** Warning *** line %d: G%d not supported, ignored\n", lineNumber, gCodes[i]);
+			}
+		}
+		for (int i=0; i<mCount; i++) {
+			switch (mCodes[i]) {
+				case 17:
+					flush();
+					if (aborted) return;
+					for (AdafruitStepperMotor motor: axisMotors) motor.hold();
+					break;
+				case 18:
+					flush();
+					coordinator.stop();
+					break;
+				default: System.out.format("*** Warning *** line %d: M%d not supported, ignored\n", lineNumber, mCodes[i]);
+			}
+		}
+		
+		if (dwell) {
+			double seconds = hasWord['P' - 'A'] ? words['P' - 'A']/1000.0 : hasWord['S' - 'A'] ? words['S' - 'A'] : 0.0;
+			checkWord(seconds >= 0.0, "P");
+			dwell(seconds);
+		}
+		else if (home) {
+			boolean any = false;
+			for (int i=0; i<axes; i++) any |= hasWord[axisLetters.get(i) - 'A'];
+			for (int i=0; i<axes; i++) {
+				target[i] = (!any || hasWord[axisLetters.get(i) - 'A']) ? 0.0 : position[i];
+			}
+			plan(rapidRate/60.0);
+			flush();
+		}
+		else {
+			boolean any = false;
+			for (int i=0; i<axes; i++) {
+				int letter = axisLetters.get(i) - 'A';
+				target[i] = position[i];
+				if (hasWord[letter]) {
+					target[i] = relative ? position[i] + words[letter] : words[letter];
+					any = true;
+				}
+			}
+			if (any) plan(((motionMode == 0) ? rapidRate : feedRate)/60.0);
+		}
+	}
+	
+	/**
+	 * Run all moves held by the planner and bring the motors to a stop.
+	 */
+	public void finish() {
+		checkNotAborted();
+		if (coordinator != null) flush();
+	}
+	
+	/**
+	 * Clear an aborted program so lines can be executed again. The planner is empty and
+	 * the position of each axis is read from its motor. run() calls this at its start.
+	 */
+	public void reset() {
+		aborted = false;
+		if (coordinator != null) clearPlanner();
+	}
+	
+	/**
+	 * Has the program been aborted by an interrupt? See execute().
+	 * @return true until reset() is called
+	 */
+	public boolean isAborted() {
+		return aborted;
+	}
+	
+	private void checkNotAborted() {
+		if (aborted) {
+			System.out.println("*** Error *** G-code program was interrupted, call reset() first");
+			throw new IllegalStateException();
+		}
+	}
+	
+	/**
+	 * Return the number of lines executed.
+	 * @return line count
+	 */
+	public long getLineNumber() {
+		return lineNumber;
+	}
+	
+	/**
+	 * Return the programmed position of an axis. Moves still held by the planner 
+	 * are included.
+	 * @param axis Axis letter
+	 * @return position in units
+	 */
+	public double getPosition(char axis) {
+		axis = Character.toUpperCase(axis);
+		int index = (axis >= 'A' && axis <= 'Z') ? axisIndex[axis - 'A'] : -1;
+		if (index < 0) {
+			System.out.println("*** Error *** Axis is not mapped");
+			throw new IllegalArgumentException(Character.toString(axis));
+		}
+		if (coordinator == null) return axisMotors.get(index).getCurrentStep()/axisScale.get(index);
+		return position[index];
+	}
+	
+	/**
+	 * Return the coordinator moving the axes, for example to read its StepTimer statistics.
+	 * @return StepperCoordinator, null until the first line is executed
+	 */
+	public StepperCoordinator getCoordinator() {
+		return coordinator;
+	}
+	
+	/**
+	 * Build the coordinator and planner storage for the mapped axes.
+	 */
+	private void setup() {
+		axes = axisMotors.size();
+		if (axes == 0) {
+			System.out.println("*** Error *** No axes mapped, use setAxis()");
+			throw new IllegalStateException();
+		}
+		coordinator = new StepperCoordinator(axisMotors.toArray(new AdafruitStepperMotor[axes]));
+		stepsPerUnit = new double[axes];
+		for (int i=0; i<axes; i++) stepsPerUnit[i] = axisScale.get(i);
+		ring = new Segment[LOOKAHEAD];
+		for (int i=0; i<LOOKAHEAD; i++) {
+			ring[i] = new Segment();
+			ring[i].steps = new long[axes];
+		}
+		position = new double[axes];
+		stepPosition = new long[axes];
+		target = new double[axes];
+		lastUnit = new double[axes];
+		clearPlanner();
+	}
+	
+	/**
+	 * Drop the held moves and take the planned position from the motors.
+	 */
+	private void clearPlanner() {
+		for (int i=0; i<axes; i++) {
+			stepPosition[i] = axisMotors.get(i).getCurrentStep();
+			position[i] = stepPosition[i]/stepsPerUnit[i];
+		}
+		head = 0;
+		count = 0;
+		lastValid = false;
+		idle = true;
+	}
+	
+	/**
+	 * Split the line into G codes, M codes and letter words. 
+	 * @param line G-code line
+	 */
+	private void parse(String line) {
+		gCount = 0;
+		mCount = 0;
+		for (int i=0; i<hasWord.length; i++) hasWord[i] = false;
+		
+		int i = 0;
+		int n = line.length();
+		while (i < n) {
+			char c = line.charAt(i);
+			if (c == ';' || c == '%' || c == '*') break;	//comment, tape marker or checksum
+			if (c == '(') {
+				int close = line.indexOf(')', i);
+				if (close < 0) break;
+				i = close + 1;
+				continue;
+			}
+			if (c <= ' ') {
+				i++;
+				continue;
+			}
+			char letter = Character.toUpperCase(c);
+			checkWord(letter >= 'A' && letter <= 'Z', Character.toString(c));
+			//find the extent of the number
+			int start = ++i;
+			while (i < n && (Character.isDigit(line.charAt(i)) || "+-.".indexOf(line.charAt(i)) >= 0)) i++;
+			double value;
+			try {
+				value = Double.parseDouble(line.substring(start, i));
+			} catch (NumberFormatException e) {
+				value = Double.NaN;
+			}
+			checkWord(!Double.isNaN(value), Character.toString(letter));
+			
+			if (letter == 'G' || letter == 'M') {
+				checkWord(value == Math.rint(value) && ((letter == 'G') ? gCount : mCount) < gCodes.length, 
+						Character.toString(letter));
+				if (letter == 'G') gCodes[gCount++] = (int) value;
+				else mCodes[mCount++] = (int) value;
+			}
+			else {
+				words[letter - 'A'] = value;
+				hasWord[letter - 'A'] = true;
+			}
+		}
+	}
+	
+	private void checkWord(boolean valid, String word) {
+		if (!valid) {
+			System.out.format("*** Error *** line %d: invalid G-code word %s\n", lineNumber, word);
+			coordinator.stop();
+			clearPlanner();
+			throw new IllegalArgumentException(String.format("line %d: %s", lineNumber, word));
+		}
+	}
+	
+	/**
+	 * Add the linear move from the planned position to the target to the planner.
+	 * @param nominal Requested velocity in units/second
+	 */
+	private void plan(double nominal) {
+		//Pick up any steps the motors were moved outside the interpreter
+		if (count == 0) {
+			for (int i=0; i<axes; i++) {
+				long currentStep = axisMotors.get(i).getCurrentStep();
+				if (currentStep != stepPosition[i]) {
+					stepPosition[i] = currentStep;
+					position[i] = currentStep/stepsPerUnit[i];
+					lastValid = false;
+				}
+			}
+		}
+		
+		double length = 0.0;
+		boolean moves = false;
+		for (int i=0; i<axes; i++) {
+			double d = target[i] - position[i];
+			length += d*d;
+			moves |= Math.round(target[i]*stepsPerUnit[i]) != stepPosition[i];
+		}
+		length = Math.sqrt(length);
+		if (!moves || length == 0.0) {
+			//less than a step, remember the position for the next move
+			System.arraycopy(target, 0, position, 0, axes);
+			return;
+		}
+		if (count == LOOKAHEAD) executeHead();
+		if (aborted) return;
+		
+		Segment seg = ring[(head + count) % LOOKAHEAD];
+		seg.length = length;
+		seg.nominal = nominal;
+		
+		//The corner with the previous move limits the entry velocity
+		double cos = 0.0;
+		for (int i=0; i<axes; i++) {
+			double unit = (target[i] - position[i])/length;
+			cos -= lastUnit[i]*unit;
+			lastUnit[i] = unit;
+		}
+		if (!lastValid) seg.maxEntry = 0.0;
+		else {
+			double junction;
+			if (cos > 0.999999) junction = 0.0;						//reversal
+			else if (cos < -0.999999) junction = Double.MAX_VALUE;	//straight line
+			else {
+				double sinHalf = Math.sqrt((1.0 - cos)/2.0);
+				junction = Math.sqrt(acceleration*junctionDeviation*sinHalf/(1.0 - sinHalf));
+			}
+			seg.maxEntry = Math.min(junction, Math.min(nominal, lastNominal));
+		}
+		seg.entry = seg.maxEntry;
+		lastNominal = nominal;
+		lastValid = true;
+		
+		for (int i=0; i<axes; i++) {
+			long stepTarget = Math.round(target[i]*stepsPerUnit[i]);
+			seg.steps[i] = stepTarget - stepPosition[i];
+			stepPosition[i] = stepTarget;
+		}
+		System.arraycopy(target, 0, position, 0, axes);
+		count++;
+		recalculate();
+	}
+	
+	/**
+	 * Plan the entry velocities of the held moves. The reverse pass makes sure every move 
+	 * can decelerate to the entry of the next, with the last move ending at rest. The 
+	 * forward pass makes sure every entry can be reached by accelerating from the previous 
+	 * one. The entry of the first move is fixed, its motion has started.
+	 */
+	private void recalculate() {
+		double exit = 0.0;
+		for (int i=count-1; i>0; i--) {
+			Segment seg = ring[(head + i) % LOOKAHEAD];
+			seg.entry = Math.min(seg.maxEntry, Math.sqrt(exit*exit + 2.0*acceleration*seg.length));
+			exit = seg.entry;
+		}
+		for (int i=0; i<count-1; i++) {
+			Segment seg  = ring[(head + i) % LOOKAHEAD];
+			Segment next = ring[(head + i + 1) % LOOKAHEAD];
+			next.entry = Math.min(next.entry, Math.sqrt(seg.entry*seg.entry + 2.0*acceleration*seg.length));
+		}
+	}
+	
+	/**
+	 * Run all held moves, ending at rest.
+	 */
+	private void flush() {
+		while (count > 0 && !aborted) executeHead();
+		count = 0;
+		lastValid = false;
+		idle = true;
+	}
+	
+	/**
+	 * Run the first held move from its entry velocity to the entry velocity of the next.
+	 */
+	private void executeHead() {
+		Segment seg = ring[head];
+		double v0 = seg.entry;
+		double v1 = (count > 1) ? ring[(head + 1) % LOOKAHEAD].entry : 0.0;
+		head = (head + 1) % LOOKAHEAD;
+		count--;
+		
+		long ticks = coordinator.start(seg.steps);
+		if (ticks == 0) return;
+		if (idle) {
+			tCursor = coordinator.getStepTimer().start();
+			idle = false;
+		}
+		
+		//Trapezoid: accelerate over d1, cruise over d2, decelerate over d3
+		double a = acceleration;
+		double vc = seg.nominal;
+		double d1 = (vc*vc - v0*v0)/(2.0*a);
+		double d3 = (vc*vc - v1*v1)/(2.0*a);
+		if (d1 + d3 > seg.length) {
+			//too short to reach the nominal velocity
+			vc = Math.sqrt((2.0*a*seg.length + v0*v0 + v1*v1)/2.0);
+			vc = Math.max(vc, Math.max(v0, v1));
+			d1 = (vc*vc - v0*v0)/(2.0*a);
+			d3 = (vc*vc - v1*v1)/(2.0*a);
+		}
+		d1 = Math.max(0.0, d1);
+		double d2 = Math.max(0.0, seg.length - d1 - Math.max(0.0, d3));
+		double t1 = (vc - v0)/a;
+		double t2 = d2/vc;
+		
+		long tStart = tCursor;
+		long previous = tStart;
+		for (long tick=1; tick<=ticks; tick++) {
+			//time the path reaches this tick's share of the length
+			double s = seg.length*tick/ticks;
+			double t;
+			if (s <= d1) t = (Math.sqrt(v0*v0 + 2.0*a*s) - v0)/a;
+			else if (s <= d1 + d2) t = t1 + (s - d1)/vc;
+			else t = t1 + t2 + (vc - Math.sqrt(Math.max(0.0, vc*vc - 2.0*a*(s - d1 - d2))))/a;
+			
+			long deadline = tStart + Math.round(t*1.0E9);
+			boolean running;
+			try {
+				running = coordinator.waitForTick(deadline, deadline - previous);
+			} catch (IllegalArgumentException e) {
+				//killFlag, the motors were stopped
+				clearPlanner();
+				throw e;
+			}
+			if (!running) {
+				aborted = true;
+				clearPlanner();
+				return;
+			}
+			coordinator.tick(ticks);
+			previous = deadline;
+		}
+		tCursor = previous;
+	}
+	
+	/**
+	 * Stop at the end of the held moves and wait.
+	 * @param seconds Dwell time
+	 */
+	private void dwell(double seconds) {
+		flush();
+		if (aborted) return;
+		StepTimer timer = coordinator.getStepTimer();
+		if (!timer.waitUntil(timer.start() + Math.round(seconds*1.0E9))) {
+			System.out.println("*** ERROR *** Interrupted dwell");
+			coordinator.stop();
+			aborted = true;
+			clearPlanner();
+		}
+	}
+}
@@ -0,0 +1,273 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  I2CDeviceStatistics.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bus statistics of one I2C address managed by AdafruitHatBus: transaction, byte and 
+ * error counters, the time the bus was busy with the address and the time it waited 
+ * for the bus, and histograms of the latency of each transaction and of each wait.
+ * <p>
+ * AdafruitHatBus records every transaction while it holds the bus lock, without 
+ * allocating memory. The getters of the histograms take the bus lock only to copy the 
+ * histogram, and compute the percentiles from the copy after releasing it; they are 
+ * meant for monitoring, not for a control loop. The rates and the bus utilization 
+ * are averages since the statistics were created or reset, so the summed utilization
+ * of all addresses shows how much of the bus is left for more motors and servos.
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.AdafruitHatBus
+ */
+public class I2CDeviceStatistics implements I2CDeviceStatisticsMBean {
+	
+	private final int deviceAddr;
+	private final ReentrantLock lock;
+	
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LatencyHistogram wait = new LatencyHistogram();
+	//Copies read outside the bus lock, guarded by this object's monitor
+	private final LatencyHistogram latencyCopy = new LatencyHistogram();
+	private final LatencyHistogram waitCopy = new LatencyHistogram();
+	
+	//Changed only while holding the bus lock
+	private volatile long busTime = 0;
+	private volatile long waitTime = 0;
+	private volatile long transactions = 0;
+	private volatile long bytes = 0;
+	private volatile long errors = 0;
+	private volatile long since = System.nanoTime();
+	
+	/**
+	 * @param deviceAddr I2C address
+	 * @param lock Bus lock held while recording
+	 */
+	I2CDeviceStatistics(int deviceAddr, ReentrantLock lock) {
+		this.deviceAddr = deviceAddr;
+		this.lock = lock;
+	}
+	
+	/**
+	 * Record the wait for the bus. Caller holds the bus lock.
+	 * @param nanos Time waited
+	 */
+	void recordWait(long nanos) {
+		waitTime += nanos;
+		wait.record(nanos);
+	}
+	
+	/**
+	 * Record a transaction. Caller holds the bus lock.
+	 * @param nanos Time the bus was busy
+	 * @param size Data bytes of the transaction
+	 */
+	void recordTransaction(long nanos, int size) {
+		busTime += nanos;
+		transactions++;
+		bytes += size;
+		latency.record(nanos);
+	}
+	
+	/**
+	 * Record a failed transaction. Caller holds the bus lock.
+	 */
+	void recordError() {
+		errors++;
+	}
+	
+	/**
+	 * Return the I2C address
+	 * @return address as 0XNN
+	 */
+	@Override
+	public String getAddress() {
+		return String.format("0X%02X", deviceAddr);
+	}
+	
+	@Override
+	public long getTransactions() {
+		return transactions;
+	}
+	
+	/**
+	 * Return the data bytes transferred, counting the register address byte of each transaction
+	 * @return bytes
+	 */
+	@Override
+	public long getBytes() {
+		return bytes;
+	}
+	
+	/**
+	 * Return the number of transactions that failed with an IOException
+	 * @return errors
+	 */
+	@Override
+	public long getErrors() {
+		return errors;
+	}
+	
+	@Override
+	public long getBusTimeNanos() {
+		return busTime;
+	}
+	
+	@Override
+	public long getWaitTimeNanos() {
+		return waitTime;
+	}
+	
+	/**
+	 * Return the fraction of the time since the last reset that the bus was busy with this address
+	 * @return 0.0 to 1.0
+	 */
+	@Override
+	public double getBusUtilization() {
+		return busTime/elapsed();
+	}
+	
+	@Override
+	public double getTransactionsPerSecond() {
+		return transactions*1.0E9/elapsed();
+	}
+	
+	@Override
+	public double getBytesPerSecond() {
+		return bytes*1.0E9/elapsed();
+	}
+	
+	private double elapsed() {
+		return Math.max(1, System.nanoTime() - since);
+	}
+	
+	@Override
+	public synchronized double getLatencyMean() {
+		copy(latency, latencyCopy);
+		return latencyCopy.getMean()/1000.0;
+	}
+	
+	@Override
+	public double getLatencyP50() {
+		return percentile(latency, latencyCopy, 50.0);
+	}
+	
+	@Override
+	public double getLatencyP90() {
+		return percentile(latency, latencyCopy, 90.0);
+	}
+	
+	@Override
+	public double getLatencyP99() {
+		return percentile(latency, latencyCopy, 99.0);
+	}
+	
+	@Override
+	public double getLatencyP999() {
+		return percentile(latency, latencyCopy, 99.9);
+	}
+	
+	@Override
+	public double getLatencyMax() {
+		return percentile(latency, latencyCopy, 100.0);
+	}
+	
+	@Override
+	public double getWaitP99() {
+		return percentile(wait, waitCopy, 99.0);
+	}
+	
+	@Override
+	public double getWaitMax() {
+		return percentile(wait, waitCopy, 100.0);
+	}
+	
+	private synchronized double percentile(LatencyHistogram histogram, LatencyHistogram copy, double percentile) {
+		copy(histogram, copy);
+		return copy.getValueAtPercentile(percentile)/1000.0;
+	}
+	
+	/**
+	 * Copy a histogram while holding the bus lock.
+	 */
+	private void copy(LatencyHistogram histogram, LatencyHistogram copy) {
+		lock.lock();
+		try {
+			histogram.copyTo(copy);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Clear the counters and histograms.
+	 */
+	@Override
+	public void reset() {
+		lock.lock();
+		try {
+			busTime = 0;
+			waitTime = 0;
+			transactions = 0;
+			bytes = 0;
+			errors = 0;
+			latency.reset();
+			wait.reset();
+			since = System.nanoTime();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Return a one line report of the statistics. The counters and histograms are copied
+	 * under the bus lock and formatted after releasing it.
+	 */
+	@Override
+	public synchronized String toString() {
+		long transactions, bytes, errors, busTime, waitTime, since;
+		lock.lock();
+		try {
+			transactions = this.transactions;
+			bytes = this.bytes;
+			errors = this.errors;
+			busTime = this.busTime;
+			waitTime = this.waitTime;
+			since = this.since;
+			latency.copyTo(latencyCopy);
+			wait.copyTo(waitCopy);
+		} finally {
+			lock.unlock();
+		}
+		double utilization = busTime/(double) Math.max(1, System.nanoTime() - since);
+		return String.format("%s transactions: %d bytes: %d errors: %d bus: %.3f ms (%.1f%%) wait: %.3f ms " +
+				"latency p50: %.1f us p99: %.1f us max: %.1f us wait p99: %.1f us",
+				getAddress(), transactions, bytes, errors, busTime/1.0E6, utilization*100.0, waitTime/1.0E6,
+				latencyCopy.getValueAtPercentile(50.0)/1000.0, latencyCopy.getValueAtPercentile(99.0)/1000.0, 
+				latencyCopy.getValueAtPercentile(100.0)/1000.0, waitCopy.getValueAtPercentile(99.0)/1000.0);
+	}
+}
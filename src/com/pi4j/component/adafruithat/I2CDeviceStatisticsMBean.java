@@ -0,0 +1,75 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  I2CDeviceStatisticsMBean.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * JMX management interface of the bus statistics of one I2C address. Registered by
+ * AdafruitHatBus.registerMBeans(). Latencies are in microseconds.
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.I2CDeviceStatistics
+ */
+public interface I2CDeviceStatisticsMBean {
+	
+	String getAddress();
+	
+	long getTransactions();
+	
+	long getBytes();
+	
+	long getErrors();
+	
+	long getBusTimeNanos();
+	
+	long getWaitTimeNanos();
+	
+	double getBusUtilization();
+	
+	double getTransactionsPerSecond();
+	
+	double getBytesPerSecond();
+	
+	double getLatencyMean();
+	
+	double getLatencyP50();
+	
+	double getLatencyP90();
+	
+	double getLatencyP99();
+	
+	double getLatencyP999();
+	
+	double getLatencyMax();
+	
+	double getWaitP99();
+	
+	double getWaitMax();
+	
+	void reset();
+}
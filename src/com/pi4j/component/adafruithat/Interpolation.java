@@ -0,0 +1,53 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  Interpolation.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+/**
+ * Interpolation between the keyframes of a ServoTrajectory.
+ * @author eric
+ * @see com.pi4j.component.adafruithat.ServoTrajectory
+ */
+public enum Interpolation {
+	/**
+	 * Straight lines between keyframes. The servo speed changes instantly at
+	 * each keyframe.
+	 */
+	LINEAR,
+	/**
+	 * Monotone cubic spline through the keyframes. The speed changes smoothly
+	 * through keyframes and the path never overshoots between two keyframes.
+	 */
+	CUBIC,
+	/**
+	 * Minimum-jerk curve from each keyframe to the next. The servo starts and stops
+	 * at every keyframe with zero speed and acceleration, the smoothest motion
+	 * for point-to-point moves.
+	 */
+	MINIMUM_JERK
+	
+}
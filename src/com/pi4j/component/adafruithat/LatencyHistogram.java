@@ -0,0 +1,182 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  LatencyHistogram.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.util.Arrays;
+
+/**
+ * Histogram of latencies in nanoseconds with a fixed set of log-linear buckets, in the
+ * manner of HdrHistogram. Values below 64 have a bucket each; above that every power 
+ * of two is split into 32 buckets, so a value is resolved to within about 3% of itself
+ * from nanoseconds up to hours. Recording a value does not allocate memory or lock.
+ * <p>
+ * The histogram is not thread safe. AdafruitHatBus records and reads it while holding
+ * the bus lock.
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.AdafruitHatBus
+ */
+public class LatencyHistogram {
+	
+	//Values below this have a bucket each
+	private static final int LINEAR_BUCKETS = 64;
+	//Buckets for each power of two above LINEAR_BUCKETS
+	private static final int SUB_BUCKETS = 32;
+	//Bucket index of the largest positive long is 32*(62-5)+63
+	private static final int BUCKETS = SUB_BUCKETS*57 + 64;
+	
+	private final long[] counts = new long[BUCKETS];
+	private long count;
+	private long total;
+	private long min;
+	private long max;
+	
+	/**
+	 * Record a latency. Negative values are recorded as 0.
+	 * @param nanos Latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) nanos = 0;
+		counts[index(nanos)]++;
+		if (count == 0 || nanos < min) min = nanos;
+		if (nanos > max) max = nanos;
+		count++;
+		total += nanos;
+	}
+	
+	/**
+	 * Clear the histogram.
+	 */
+	public void reset() {
+		Arrays.fill(counts, 0);
+		count = 0;
+		total = 0;
+		min = 0;
+		max = 0;
+	}
+	
+	/**
+	 * Copy the recorded values into another histogram, replacing its values. Copying 
+	 * does not allocate memory.
+	 * @param target Histogram receiving the copy
+	 */
+	public void copyTo(LatencyHistogram target) {
+		System.arraycopy(counts, 0, target.counts, 0, BUCKETS);
+		target.count = count;
+		target.total = total;
+		target.min = min;
+		target.max = max;
+	}
+	
+	/**
+	 * Return the bucket of a value.
+	 * @param value 0 or more
+	 * @return bucket index
+	 */
+	private static int index(long value) {
+		if (value < LINEAR_BUCKETS) return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int shift = exponent - 5;
+		return SUB_BUCKETS*shift + (int) (value >>> shift);
+	}
+	
+	/**
+	 * Return the largest value that falls in a bucket.
+	 * @param index bucket index
+	 * @return value
+	 */
+	private static long highestValue(int index) {
+		if (index < LINEAR_BUCKETS) return index;
+		int shift = index/SUB_BUCKETS - 1;
+		long subBucket = index%SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+	
+	/**
+	 * Return number of values recorded
+	 * @return count
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	/**
+	 * Return smallest value recorded
+	 * @return nanoseconds, 0 if empty
+	 */
+	public long getMin() {
+		return min;
+	}
+	
+	/**
+	 * Return largest value recorded
+	 * @return nanoseconds, 0 if empty
+	 */
+	public long getMax() {
+		return max;
+	}
+	
+	/**
+	 * Return mean of the values recorded
+	 * @return nanoseconds, 0 if empty
+	 */
+	public double getMean() {
+		return (count == 0) ? 0.0 : (double) total/count;
+	}
+	
+	/**
+	 * Return the value below which a percentage of the recorded values fall, resolved 
+	 * to the upper edge of its bucket (but not above the largest value recorded).
+	 * @param percentile 0.0 to 100.0
+	 * @return nanoseconds, 0 if empty
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (percentile < 0.0 || percentile > 100.0) {
+			System.out.println("*** Error *** percentile must be in range 0.0 to 100.0");
+			throw new IllegalArgumentException(Double.toString(percentile));
+		}
+		if (count == 0) return 0;
+		long rank = Math.max(1, (long) Math.ceil(percentile/100.0*count));
+		long seen = 0;
+		for (int i=0; i<BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) return Math.min(highestValue(i), max);
+		}
+		return max;
+	}
+	
+	/**
+	 * Return a summary of the histogram in microseconds.
+	 */
+	@Override
+	public String toString() {
+		return String.format("count: %d mean: %.1f us p50: %.1f us p99: %.1f us p99.9: %.1f us max: %.1f us",
+				count, getMean()/1000.0, getValueAtPercentile(50.0)/1000.0, 
+				getValueAtPercentile(99.0)/1000.0, getValueAtPercentile(99.9)/1000.0, max/1000.0);
+	}
+}
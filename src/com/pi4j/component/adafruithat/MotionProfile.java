@@ -0,0 +1,367 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  MotionProfile.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+/**
+ * A MotionProfile computes the time of each step of a stepper motor move so the motor
+ * accelerates up to speed, cruises, then decelerates to a stop. Ramping the step rate
+ * lets a stepper motor reach top speeds that would stall it if stepping started at 
+ * full rate.
+ * <p>
+ * Two profiles are supported (see ProfileType): TRAPEZOIDAL limits the acceleration, 
+ * S_CURVE additionally limits the jerk (rate of change of acceleration). Velocities
+ * are in steps/second, acceleration in steps/second^2, and jerk in steps/second^3.
+ * Short moves that can not reach the maximum velocity use a lower peak velocity.
+ * <p>
+ * Attach a profile to a motor with AdafruitStepperMotor.setMotionProfile(). The step() 
+ * and rotate() methods then plan each move with the profile. Planning a move and 
+ * computing step times does not allocate memory.
+ * <p>
+ * plan() stores the planned move in the profile, so a profile holds one move at a time
+ * and must not be planned by several threads or moves at once. Motors and coordinators
+ * plan on their own copy of the profile passed to setMotionProfile(), so one profile
+ * can be attached to several of them.
+ * 
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.AdafruitStepperMotor
+ * @see com.pi4j.component.adafruithat.ProfileType
+ */
+public class MotionProfile {
+	
+	private final ProfileType profileType;
+	private final double maxVelocity;  //steps/second
+	private final double acceleration; //steps/second^2
+	private final double jerk;         //steps/second^3, S_CURVE only
+	
+	/*
+	 * The planned move is a sequence of up to 7 segments with constant jerk.
+	 * For each segment: start time, duration, and the position, velocity and 
+	 * acceleration at the start of the segment.
+	 */
+	private final int MAX_SEGMENTS = 7;
+	private final double[] segmentStart        = new double[MAX_SEGMENTS];
+	private final double[] segmentDuration     = new double[MAX_SEGMENTS];
+	private final double[] segmentPosition     = new double[MAX_SEGMENTS];
+	private final double[] segmentVelocity     = new double[MAX_SEGMENTS];
+	private final double[] segmentAcceleration = new double[MAX_SEGMENTS];
+	private final double[] segmentJerk         = new double[MAX_SEGMENTS];
+	private int segments = 0;
+	
+	//Number of steps in the planned move
+	private long steps = 0;
+	//Duration of the planned move in seconds
+	private double duration = 0.0;
+	//Peak velocity reached in the planned move
+	private double peakVelocity = 0.0;
+	
+	//The two most recently solved steps and their times, used to speed up sequential
+	//lookups: getStepInterval() asks for the step before the one just solved.
+	private long lastStep = 0;
+	private double lastTime = 0.0;
+	private long previousStep = 0;
+	private double previousTime = 0.0;
+	
+	/**
+	 * Create a TRAPEZOIDAL motion profile
+	 * @param maxVelocity Maximum velocity in steps/second
+	 * @param acceleration Acceleration and deceleration in steps/second^2
+	 */
+	public MotionProfile(double maxVelocity, double acceleration) {
+		this(ProfileType.TRAPEZOIDAL, maxVelocity, acceleration, Double.POSITIVE_INFINITY);
+	}
+	
+	/**
+	 * Create an S_CURVE motion profile
+	 * @param maxVelocity Maximum velocity in steps/second
+	 * @param acceleration Maximum acceleration and deceleration in steps/second^2
+	 * @param jerk Maximum jerk in steps/second^3
+	 */
+	public MotionProfile(double maxVelocity, double acceleration, double jerk) {
+		this(ProfileType.S_CURVE, maxVelocity, acceleration, jerk);
+	}
+	
+	/**
+	 * Create a motion profile
+	 * @param profileType ProfileType.TRAPEZOIDAL or ProfileType.S_CURVE
+	 * @param maxVelocity Maximum velocity in steps/second
+	 * @param acceleration Maximum acceleration and deceleration in steps/second^2
+	 * @param jerk Maximum jerk in steps/second^3, ignored for TRAPEZOIDAL
+	 */
+	public MotionProfile(ProfileType profileType, double maxVelocity, double acceleration, double jerk) {
+		if (profileType == null) {
+			System.out.println("*** Error *** profileType must be ProfileType.TRAPEZOIDAL or ProfileType.S_CURVE");
+			throw new IllegalArgumentException();
+		}
+		if (!(maxVelocity > 0.0) || !(acceleration > 0.0) || !(jerk > 0.0)) {
+			System.out.println("*** Error *** maxVelocity, acceleration and jerk must be > 0.0");
+			throw new IllegalArgumentException(String.format("%f %f %f", maxVelocity, acceleration, jerk));
+		}
+		this.profileType  = profileType;
+		this.maxVelocity  = maxVelocity;
+		this.acceleration = acceleration;
+		this.jerk         = jerk;
+	}
+	
+	/**
+	 * Create a motion profile with the same type and limits as another profile. The 
+	 * planned move is not copied.
+	 * @param profile Motion profile to copy
+	 */
+	public MotionProfile(MotionProfile profile) {
+		this(profile.profileType, profile.maxVelocity, profile.acceleration, profile.jerk);
+	}
+	
+	/**
+	 * Plan a move of the given number of steps starting and ending at rest.
+	 * @param steps Number of steps in the move (must be &gt;= 0)
+	 */
+	public void plan(long steps) {
+		if (steps < 0) {
+			System.out.println("*** Error *** Number of steps to plan must be >= 0");
+			throw new IllegalArgumentException(Long.toString(steps));
+		}
+		this.steps = steps;
+		segments = 0;
+		//An empty move has no segments and takes no time
+		if (steps == 0) peakVelocity = 0.0;
+		else if (profileType == ProfileType.TRAPEZOIDAL) planTrapezoidal(steps);
+		else planSCurve(steps);
+		
+		//Integrate the segments to get the position, velocity and acceleration at each segment start
+		double t = 0.0;
+		double s = 0.0;
+		double v = 0.0;
+		for (int i=0; i<segments; i++) {
+			double dt = segmentDuration[i];
+			double a  = segmentAcceleration[i];
+			double j  = segmentJerk[i];
+			segmentStart[i]    = t;
+			segmentPosition[i] = s;
+			segmentVelocity[i] = v;
+			s += v*dt + a*dt*dt/2.0 + j*dt*dt*dt/6.0;
+			v += a*dt + j*dt*dt/2.0;
+			t += dt;
+		}
+		duration = t;
+		lastStep = 0;
+		lastTime = 0.0;
+		previousStep = 0;
+		previousTime = 0.0;
+	}
+	
+	/**
+	 * Plan a trapezoidal move: accelerate, cruise, decelerate.
+	 */
+	private void planTrapezoidal(double distance) {
+		double v = maxVelocity;
+		double rampDistance = v*v/(2.0*acceleration);
+		//Can not reach maximum velocity, peak at the middle of the move
+		if (2.0*rampDistance > distance) {
+			v = Math.sqrt(distance*acceleration);
+			rampDistance = distance/2.0;
+		}
+		double rampTime = v/acceleration;
+		peakVelocity = v;
+		addSegment(rampTime, acceleration, 0.0);
+		addSegment((distance - 2.0*rampDistance)/v, 0.0, 0.0);
+		addSegment(rampTime, -acceleration, 0.0);
+	}
+	
+	/**
+	 * Plan an S-curve move: three jerk-limited segments to accelerate, cruise, and 
+	 * three jerk-limited segments to decelerate.
+	 */
+	private void planSCurve(double distance) {
+		double v = maxVelocity;
+		//Can not reach maximum velocity, find the peak velocity that covers the distance
+		if (2.0*rampDistance(v) > distance) {
+			double low = 0.0;
+			double high = maxVelocity;
+			for (int i=0; i<60; i++) {
+				v = (low + high)/2.0;
+				if (2.0*rampDistance(v) > distance) high = v;
+				else low = v;
+			}
+			v = low;
+		}
+		peakVelocity = v;
+		
+		//jerk time and constant acceleration time of each ramp
+		double jerkTime;
+		double peakAcceleration;
+		if (v*jerk >= acceleration*acceleration) {
+			jerkTime = acceleration/jerk;
+			peakAcceleration = acceleration;
+		}
+		else {
+			jerkTime = Math.sqrt(v/jerk);
+			peakAcceleration = jerk*jerkTime;
+		}
+		double accelerationTime = (v > 0.0) ? v/peakAcceleration - jerkTime : 0.0;
+		double cruiseTime = (v > 0.0) ? (distance - 2.0*rampDistance(v))/v : 0.0;
+		
+		addSegment(jerkTime,          0.0,               jerk);
+		addSegment(accelerationTime,  peakAcceleration,  0.0);
+		addSegment(jerkTime,          peakAcceleration, -jerk);
+		addSegment(cruiseTime,        0.0,               0.0);
+		addSegment(jerkTime,          0.0,              -jerk);
+		addSegment(accelerationTime, -peakAcceleration,  0.0);
+		addSegment(jerkTime,         -peakAcceleration,  jerk);
+	}
+	
+	/**
+	 * Distance covered by a jerk-limited ramp from rest to the velocity v. 
+	 * The ramp is symmetric so the distance is v times half the ramp time.
+	 */
+	private double rampDistance(double v) {
+		double rampTime;
+		if (v*jerk >= acceleration*acceleration) rampTime = v/acceleration + acceleration/jerk;
+		else rampTime = 2.0*Math.sqrt(v/jerk);
+		return v*rampTime/2.0;
+	}
+	
+	private void addSegment(double duration, double acceleration, double jerk) {
+		segmentDuration[segments]     = Math.max(duration, 0.0);
+		segmentAcceleration[segments] = acceleration;
+		segmentJerk[segments]         = jerk;
+		segments++;
+	}
+	
+	/**
+	 * Position (steps) reached at time t (seconds) into the planned move.
+	 */
+	private double position(double t) {
+		int i = segments - 1;
+		while (i > 0 && t < segmentStart[i]) i--;
+		double dt = t - segmentStart[i];
+		return segmentPosition[i] + segmentVelocity[i]*dt + 
+				segmentAcceleration[i]*dt*dt/2.0 + segmentJerk[i]*dt*dt*dt/6.0;
+	}
+	
+	/**
+	 * Return the time, measured from the start of the planned move, at which the
+	 * given step is to be taken.
+	 * @param step Step number 1 through the number of planned steps
+	 * @return Time in nanoseconds
+	 */
+	public long getStepTime(long step) {
+		if (step < 0 || step > steps) {
+			System.out.println("*** Error *** step must be in range 0 to the number of planned steps");
+			throw new IllegalArgumentException(Long.toString(step));
+		}
+		if (step == 0) return 0;
+		if (step == steps) return Math.round(duration*1.0E9);
+		
+		if (step == lastStep) return Math.round(lastTime*1.0E9);
+		if (step == previousStep) return Math.round(previousTime*1.0E9);
+		
+		//Position increases with time so solve for the time of the step by bisection.
+		//Sequential lookups can start from the previously solved step.
+		double low = 0.0;
+		if (step > lastStep) low = lastTime;
+		else if (step > previousStep) low = previousTime;
+		double high = duration;
+		for (int i=0; i<64 && high - low > 1.0E-10; i++) {
+			double t = (low + high)/2.0;
+			if (position(t) < step) low = t;
+			else high = t;
+		}
+		previousStep = lastStep;
+		previousTime = lastTime;
+		lastStep = step;
+		lastTime = high;
+		return Math.round(high*1.0E9);
+	}
+	
+	/**
+	 * Return the time interval between the previous step and the given step.
+	 * @param step Step number 1 through the number of planned steps
+	 * @return Time interval in nanoseconds
+	 */
+	public long getStepInterval(long step) {
+		long previous = (step > 0) ? getStepTime(step - 1) : 0;
+		return getStepTime(step) - previous;
+	}
+	
+	/**
+	 * Return the number of steps of the planned move.
+	 * @return steps
+	 */
+	public long getSteps() {
+		return steps;
+	}
+	
+	/**
+	 * Return the duration of the planned move.
+	 * @return duration in seconds
+	 */
+	public double getDuration() {
+		return duration;
+	}
+	
+	/**
+	 * Return the peak velocity of the planned move. This is less than the maximum
+	 * velocity for moves too short to reach it.
+	 * @return peak velocity in steps/second
+	 */
+	public double getPeakVelocity() {
+		return peakVelocity;
+	}
+	
+	/**
+	 * Return the profile type
+	 * @return ProfileType.TRAPEZOIDAL or ProfileType.S_CURVE
+	 */
+	public ProfileType getProfileType() {
+		return profileType;
+	}
+	
+	/**
+	 * Return the maximum velocity
+	 * @return maximum velocity in steps/second
+	 */
+	public double getMaxVelocity() {
+		return maxVelocity;
+	}
+	
+	/**
+	 * Return the maximum acceleration
+	 * @return acceleration in steps/second^2
+	 */
+	public double getAcceleration() {
+		return acceleration;
+	}
+	
+	/**
+	 * Return the maximum jerk
+	 * @return jerk in steps/second^3 (infinite for TRAPEZOIDAL)
+	 */
+	public double getJerk() {
+		return jerk;
+	}
+}
@@ -0,0 +1,228 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  MotionThread.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Motion thread of an AdafruitMotorHat. It runs the asynchronous moves of all the
+ * motors on the HAT so a single control thread can start several moves at once.
+ * <p>
+ * Each active move has the System.nanoTime() deadline of its next action. The thread
+ * performs the action with the earliest deadline, parking until shortly before it is
+ * due and busy-spinning for the final stretch like the StepTimer. Moves of the same 
+ * motor run one after another in the order they were submitted.
+ * <p>
+ * Cancelling the CompletableFuture of a move halts the motor at its current position.
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.AdafruitMotorHat
+ */
+class MotionThread extends Thread {
+	
+	/**
+	 * A move run by the motion thread. Subclasses perform the motor commands.
+	 */
+	static abstract class Move {
+		//Motor commanded by the move
+		final Object owner;
+		//Completes when the move has finished, exceptionally if it failed
+		final CompletableFuture<Void> future = new CompletableFuture<Void>();
+		//System.nanoTime() value of the next action
+		long deadline;
+		
+		Move(Object owner) {
+			this.owner = owner;
+		}
+		
+		/**
+		 * Start the move and set the deadline of the first action.
+		 * @param now Current System.nanoTime() value
+		 * @return true if there are actions to perform, false if the move is complete
+		 */
+		abstract boolean begin(long now);
+		
+		/**
+		 * Perform the action due at the deadline and set the deadline of the next action.
+		 * @param now Current System.nanoTime() value
+		 * @return true if there are more actions, false if the move is complete
+		 */
+		abstract boolean advance(long now);
+		
+		/**
+		 * Stop the motor at its current position. Called when the move is cancelled.
+		 */
+		abstract void halt();
+	}
+	
+	//Moves submitted by other threads
+	private final ConcurrentLinkedQueue<Move> incoming = new ConcurrentLinkedQueue<Move>();
+	//Moves waiting for an earlier move of the same motor to finish
+	private final List<Move> pending = new ArrayList<Move>();
+	//Moves in progress, at most one per motor
+	private final List<Move> active = new ArrayList<Move>();
+	
+	//Park until this many nanoseconds before a deadline, then spin.
+	private final long spinThreshold = new StepTimer().getSpinThreshold();
+	
+	private volatile boolean running = true;
+	
+	/**
+	 * Create the motion thread. The thread is a daemon so it does not keep the 
+	 * program running.
+	 * @param name Thread name
+	 */
+	MotionThread(String name) {
+		super(name);
+		setDaemon(true);
+	}
+	
+	/**
+	 * Queue a move. The move starts as soon as the motor has no other move in progress.
+	 * @param move Move to run
+	 * @return CompletableFuture of the move
+	 */
+	CompletableFuture<Void> submit(final Move move) {
+		if (!running) {
+			System.out.println("*** Error *** Motion thread has been shut down");
+			throw new IllegalStateException(getName());
+		}
+		//wake the thread so a cancelled move is halted right away
+		move.future.whenComplete((result, error) -> {
+			if (move.future.isCancelled()) LockSupport.unpark(this);
+		});
+		incoming.add(move);
+		LockSupport.unpark(this);
+		return move.future;
+	}
+	
+	/**
+	 * Halt all moves and end the thread.
+	 */
+	void shutdown() {
+		running = false;
+		LockSupport.unpark(this);
+	}
+	
+	@Override
+	public void run() {
+		while (running) {
+			//the thread is only interrupted by mistake, never leave it set or parking stops working
+			Thread.interrupted();
+			
+			Move move;
+			while ((move = incoming.poll()) != null) pending.add(move);
+			activate();
+			
+			//find the move with the earliest deadline, halting cancelled moves
+			Move next = null;
+			for (int i=active.size()-1; i>=0; i--) {
+				move = active.get(i);
+				if (move.future.isDone()) {
+					finish(i);
+					continue;
+				}
+				if (next == null || move.deadline - next.deadline < 0) next = move;
+			}
+			if (next == null) {
+				if (pending.isEmpty() && incoming.isEmpty()) LockSupport.park(this);
+				continue;
+			}
+			
+			//park for the bulk of the wait then look again, a new or cancelled move may have arrived
+			long remaining = next.deadline - System.nanoTime();
+			if (remaining > spinThreshold) {
+				LockSupport.parkNanos(this, remaining - spinThreshold);
+				continue;
+			}
+			while (next.deadline - System.nanoTime() > 0);
+			
+			int index = active.indexOf(next);
+			try {
+				if (!next.advance(System.nanoTime())) {
+					active.remove(index);
+					next.future.complete(null);
+				}
+			} catch (RuntimeException e) {
+				active.remove(index);
+				next.future.completeExceptionally(e);
+			}
+		}
+		
+		//Shut down, halt whatever is still moving
+		Move move;
+		while ((move = incoming.poll()) != null) pending.add(move);
+		for (int i=active.size()-1; i>=0; i--) {
+			active.get(i).future.cancel(false);
+			finish(i);
+		}
+		for (Move waiting: pending) waiting.future.cancel(false);
+		pending.clear();
+	}
+	
+	/**
+	 * Start the pending moves whose motor has no move in progress.
+	 */
+	private void activate() {
+		for (int i=0; i<pending.size(); i++) {
+			Move move = pending.get(i);
+			if (isBusy(move.owner)) continue;
+			pending.remove(i--);
+			if (move.future.isDone()) continue;
+			try {
+				if (move.begin(System.nanoTime())) active.add(move);
+				else move.future.complete(null);
+			} catch (RuntimeException e) {
+				move.future.completeExceptionally(e);
+			}
+		}
+	}
+	
+	private boolean isBusy(Object owner) {
+		for (Move move: active) if (move.owner == owner) return true;
+		return false;
+	}
+	
+	/**
+	 * Remove an active move that was cancelled and stop its motor.
+	 * @param index Index of the move in the active list
+	 */
+	private void finish(int index) {
+		Move move = active.remove(index);
+		try {
+			move.halt();
+		} catch (RuntimeException e) {
+			System.out.println("*** ERROR *** Can not stop motor of cancelled move");
+			e.printStackTrace();
+		}
+	}
+}
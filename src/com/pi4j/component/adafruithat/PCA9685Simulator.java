@@ -0,0 +1,496 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  PCA9685Simulator.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+import com.pi4j.io.i2c.I2CDevice;
+
+/**
+ * In-memory model of the PCA9685 PWM chip used on the Adafruit Motor and Servo HATs.
+ * Pass it to an AdafruitMotorHat or AdafruitServoHat constructor in place of the
+ * Raspberry Pi I2C bus to run, test or benchmark the HAT, motor and servo classes on
+ * any computer.
+ * <p>
+ * The simulator follows the PCA9685 Product Data Sheet, Rev. 4 - 16 April 2015:
+ * <ul>
+ * <li>Register file with the power-up values of table 4 (sleep mode, LEDs full off,
+ * PRE_SCALE 0X1E for 200 Hz).</li>
+ * <li>MODE1 SLEEP stops the oscillator. PRE_SCALE can only be written in sleep mode.
+ * Going to sleep with PWMs running sets the RESTART bit and writing a 1 to RESTART 
+ * clears it.</li>
+ * <li>MODE1 AI (auto-increment) advances the register pointer after each byte of a block
+ * write or read, wrapping from LED15_OFF_H to MODE1. Without AI every byte of a block 
+ * goes to the same register.</li>
+ * <li>Writes to the ALL_LED registers load the register of every LED, the ALL_LED 
+ * registers read back as zero. Reserved registers ignore writes.</li>
+ * </ul>
+ * Each transaction waits the time of a latency model: a fixed time per transaction plus
+ * a time per byte, so measured throughput reflects the bus. The default has no latency.
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.AdafruitHat
+ */
+public class PCA9685Simulator implements I2CDevice {
+	
+	//Register addresses, table 4
+	private static final int MODE1         = 0X00;
+	private static final int MODE2         = 0X01;
+	private static final int SUBADR1       = 0X02;
+	private static final int SUBADR2       = 0X03;
+	private static final int SUBADR3       = 0X04;
+	private static final int ALLCALLADR    = 0X05;
+	private static final int LED0_ON_L     = 0X06;
+	private static final int LED15_OFF_H   = 0X45;
+	private static final int ALL_LED_ON_L  = 0XFA;
+	private static final int ALL_LED_OFF_H = 0XFD;
+	private static final int PRE_SCALE     = 0XFE;
+	private static final int TEST_MODE     = 0XFF;
+	
+	//MODE1 bits, table 5
+	private static final int MODE1_RESTART = 0X80;
+	private static final int MODE1_AI      = 0X20;
+	private static final int MODE1_SLEEP   = 0X10;
+	
+	//Oscillator frequency and the time it needs to start after leaving sleep mode
+	private static final double OSCILLATOR_HZ = 25000000.0;
+	private static final long   OSCILLATOR_START = 500000;
+	
+	private final byte[] registers = new byte[256];
+	//Register pointer, set by the first byte of each write
+	private int pointer = 0;
+	//System.nanoTime() when the oscillator left sleep mode
+	private long wakeTime;
+	
+	//Latency model in nanoseconds
+	private long transactionLatency = 0;
+	private long byteLatency = 0;
+	
+	//Counters
+	private long transactions = 0;
+	private long bytesWritten = 0;
+	private long bytesRead = 0;
+	
+	/**
+	 * Create a simulated PCA9685 in its power-up state.
+	 */
+	public PCA9685Simulator() {
+		reset();
+	}
+	
+	/**
+	 * Return the chip to its power-up state. The counters are not changed.
+	 */
+	public synchronized void reset() {
+		for (int i=0; i<registers.length; i++) registers[i] = 0;
+		registers[MODE1]      = 0X11;	//SLEEP, ALLCALL
+		registers[MODE2]      = 0X04;	//OUTDRV
+		registers[SUBADR1]    = (byte) 0XE2;
+		registers[SUBADR2]    = (byte) 0XE4;
+		registers[SUBADR3]    = (byte) 0XE8;
+		registers[ALLCALLADR] = (byte) 0XE0;
+		for (int addr=LED0_ON_L; addr<=LED15_OFF_H; addr+=4) registers[addr+3] = 0X10;	//full off
+		registers[PRE_SCALE]  = 0X1E;
+		pointer = 0;
+	}
+	
+	/**
+	 * Set the latency model. Each transaction waits transactionNanos plus byteNanos for every
+	 * byte transferred, including the register address byte.
+	 * @param transactionNanos Fixed time per transaction in nanoseconds
+	 * @param byteNanos Time per byte in nanoseconds
+	 */
+	public synchronized void setLatency(long transactionNanos, long byteNanos) {
+		if (transactionNanos < 0 || byteNanos < 0) {
+			System.out.println("*** Error *** latency must be >= 0");
+			throw new IllegalArgumentException();
+		}
+		this.transactionLatency = transactionNanos;
+		this.byteLatency = byteNanos;
+	}
+	
+	/**
+	 * Set the latency model for an I2C bus clock. A byte takes 9 clock cycles (8 data bits 
+	 * and the acknowledge) and each transaction adds the device address byte plus about 
+	 * one byte time for the start and stop conditions. 
+	 * @param clockHz I2C clock, 100000 (standard mode) or 400000 (fast mode) on the Raspberry Pi
+	 */
+	public void setBusSpeed(int clockHz) {
+		if (clockHz <= 0) {
+			System.out.println("*** Error *** I2C clock must be > 0");
+			throw new IllegalArgumentException(Integer.toString(clockHz));
+		}
+		long byteNanos = Math.round(9.0E9/clockHz);
+		setLatency(2*byteNanos, byteNanos);
+	}
+	
+	/**
+	 * Wait the modelled time of a transaction.
+	 * @param bytes Bytes transferred
+	 */
+	private void transaction(int bytes) {
+		transactions++;
+		long latency = transactionLatency + bytes*byteLatency;
+		if (latency == 0) return;
+		long deadline = System.nanoTime() + latency;
+		long remaining = latency;
+		while (remaining > 0) {
+			//park for the bulk of long waits, spin for short ones
+			if (remaining > 1000000) LockSupport.parkNanos(remaining - 500000);
+			remaining = deadline - System.nanoTime();
+		}
+	}
+	
+	/**
+	 * Store a byte into a register with the side effects of the chip.
+	 * @param addr Register address
+	 * @param value Value written
+	 */
+	private void store(int addr, byte value) {
+		bytesWritten++;
+		if (addr == MODE1) {
+			int old = registers[MODE1] & 0XFF;
+			int mode1 = value & 0X7F;
+			//RESTART is set by the chip, writing a 1 clears it
+			if ((value & MODE1_RESTART) == 0) mode1 |= old & MODE1_RESTART;
+			if ((old & MODE1_SLEEP) == 0 && (mode1 & MODE1_SLEEP) != 0 && isAnyPwmRunning()) mode1 |= MODE1_RESTART;
+			if ((old & MODE1_SLEEP) != 0 && (mode1 & MODE1_SLEEP) == 0) wakeTime = System.nanoTime();
+			registers[MODE1] = (byte) mode1;
+		}
+		else if (addr == PRE_SCALE) {
+			//blocked unless the oscillator is off, values below 3 are taken as 3
+			if ((registers[MODE1] & MODE1_SLEEP) != 0) registers[PRE_SCALE] = (byte) Math.max(3, value & 0XFF);
+		}
+		else if (addr >= ALL_LED_ON_L && addr <= ALL_LED_OFF_H) {
+			for (int led=LED0_ON_L + addr - ALL_LED_ON_L; led<=LED15_OFF_H; led+=4) registers[led] = value;
+		}
+		else if (addr <= LED15_OFF_H || addr == TEST_MODE) {
+			registers[addr] = value;
+		}
+		//reserved registers ignore writes
+	}
+	
+	/**
+	 * Read a register as the chip returns it.
+	 * @param addr Register address
+	 * @return register value
+	 */
+	private int load(int addr) {
+		bytesRead++;
+		if (addr > LED15_OFF_H && addr != PRE_SCALE && addr != TEST_MODE) return 0;
+		return registers[addr] & 0XFF;
+	}
+	
+	/**
+	 * Advance the register pointer after a byte if auto-increment is enabled.
+	 */
+	private int next(int addr) {
+		if ((registers[MODE1] & MODE1_AI) == 0) return addr;
+		if (addr == LED15_OFF_H) return MODE1;
+		return (addr + 1) & 0XFF;
+	}
+	
+	private boolean isAnyPwmRunning() {
+		for (int channel=0; channel<16; channel++) {
+			if (!isFullOff(channel) && (getOff(channel) != getOn(channel) || isFullOn(channel))) return true;
+		}
+		return false;
+	}
+	
+	private static void checkAddress(int addr) throws IOException {
+		if (addr < 0 || addr > 0XFF) throw new IOException(String.format("Illegal PCA9685 register address 0X%X", addr));
+	}
+	
+	private static void checkRange(byte[] buffer, int offset, int size) throws IOException {
+		if (offset < 0 || size < 0 || offset + size > buffer.length) throw new IOException("Buffer range out of bounds");
+	}
+	
+	/*****************************************************
+	 * I2CDevice interface
+	 ****************************************************/
+	
+	/**
+	 * Write a single byte, which sets the register pointer.
+	 */
+	@Override
+	public synchronized void write(byte b) throws IOException {
+		transaction(2);
+		pointer = b & 0XFF;
+	}
+	
+	/**
+	 * Write the register pointer followed by data bytes.
+	 */
+	@Override
+	public synchronized void write(byte[] buffer, int offset, int size) throws IOException {
+		checkRange(buffer, offset, size);
+		if (size == 0) return;
+		transaction(size + 1);
+		pointer = buffer[offset] & 0XFF;
+		for (int i=1; i<size; i++) {
+			store(pointer, buffer[offset+i]);
+			pointer = next(pointer);
+		}
+	}
+	
+	@Override
+	public void write(byte[] buffer) throws IOException {
+		write(buffer, 0, buffer.length);
+	}
+	
+	@Override
+	public synchronized void write(int address, byte b) throws IOException {
+		checkAddress(address);
+		transaction(3);
+		pointer = address;
+		store(pointer, b);
+		pointer = next(pointer);
+	}
+	
+	@Override
+	public synchronized void write(int address, byte[] buffer, int offset, int size) throws IOException {
+		checkAddress(address);
+		checkRange(buffer, offset, size);
+		transaction(size + 2);
+		pointer = address;
+		for (int i=0; i<size; i++) {
+			store(pointer, buffer[offset+i]);
+			pointer = next(pointer);
+		}
+	}
+	
+	@Override
+	public void write(int address, byte[] buffer) throws IOException {
+		write(address, buffer, 0, buffer.length);
+	}
+	
+	/**
+	 * Read the register at the register pointer.
+	 */
+	@Override
+	public synchronized int read() throws IOException {
+		transaction(2);
+		int value = load(pointer);
+		pointer = next(pointer);
+		return value;
+	}
+	
+	@Override
+	public synchronized int read(byte[] buffer, int offset, int size) throws IOException {
+		checkRange(buffer, offset, size);
+		transaction(size + 1);
+		for (int i=0; i<size; i++) {
+			buffer[offset+i] = (byte) load(pointer);
+			pointer = next(pointer);
+		}
+		return size;
+	}
+	
+	@Override
+	public synchronized int read(int address) throws IOException {
+		checkAddress(address);
+		transaction(4);
+		pointer = address;
+		int value = load(pointer);
+		pointer = next(pointer);
+		return value;
+	}
+	
+	@Override
+	public synchronized int read(int address, byte[] buffer, int offset, int size) throws IOException {
+		checkAddress(address);
+		checkRange(buffer, offset, size);
+		transaction(size + 3);
+		pointer = address;
+		for (int i=0; i<size; i++) {
+			buffer[offset+i] = (byte) load(pointer);
+			pointer = next(pointer);
+		}
+		return size;
+	}
+	
+	/**
+	 * Write bytes then read bytes. The written bytes start with the register address.
+	 */
+	@Override
+	public synchronized int read(byte[] writeBuffer, int writeOffset, int writeSize, 
+			byte[] readBuffer, int readOffset, int readSize) throws IOException {
+		checkRange(writeBuffer, writeOffset, writeSize);
+		checkRange(readBuffer, readOffset, readSize);
+		transaction(writeSize + readSize + 2);
+		if (writeSize > 0) {
+			pointer = writeBuffer[writeOffset] & 0XFF;
+			for (int i=1; i<writeSize; i++) {
+				store(pointer, writeBuffer[writeOffset+i]);
+				pointer = next(pointer);
+			}
+		}
+		for (int i=0; i<readSize; i++) {
+			readBuffer[readOffset+i] = (byte) load(pointer);
+			pointer = next(pointer);
+		}
+		return readSize;
+	}
+	
+	/*****************************************************
+	 * Inspection of the simulated chip
+	 ****************************************************/
+	
+	/**
+	 * Return a register value without a bus transaction.
+	 * @param addr Register address
+	 * @return value 0 - 255
+	 */
+	public synchronized int getRegister(int addr) {
+		return registers[addr & 0XFF] & 0XFF;
+	}
+	
+	/**
+	 * Return the 12-bit ON count of an LED PWM channel.
+	 * @param channel 0 - 15
+	 * @return ON count
+	 */
+	public synchronized int getOn(int channel) {
+		int addr = ledAddress(channel);
+		return (registers[addr] & 0XFF) | ((registers[addr+1] & 0X0F) << 8);
+	}
+	
+	/**
+	 * Return the 12-bit OFF count of an LED PWM channel.
+	 * @param channel 0 - 15
+	 * @return OFF count
+	 */
+	public synchronized int getOff(int channel) {
+		int addr = ledAddress(channel);
+		return (registers[addr+2] & 0XFF) | ((registers[addr+3] & 0X0F) << 8);
+	}
+	
+	/**
+	 * Is the full-on bit (bit 4 of LEDn_ON_H) of the channel set?
+	 * @param channel 0 - 15
+	 * @return true if the output is always on
+	 */
+	public synchronized boolean isFullOn(int channel) {
+		return (registers[ledAddress(channel)+1] & 0X10) != 0 && !isFullOff(channel);
+	}
+	
+	/**
+	 * Is the full-off bit (bit 4 of LEDn_OFF_H) of the channel set? Full off takes
+	 * precedence over full on.
+	 * @param channel 0 - 15
+	 * @return true if the output is always off
+	 */
+	public synchronized boolean isFullOff(int channel) {
+		return (registers[ledAddress(channel)+3] & 0X10) != 0;
+	}
+	
+	/**
+	 * Return the duty cycle of a channel, the fraction of each period the output is on.
+	 * @param channel 0 - 15
+	 * @return duty cycle 0.0 to 1.0
+	 */
+	public synchronized double getDutyCycle(int channel) {
+		if (isFullOff(channel)) return 0.0;
+		if (isFullOn(channel)) return 1.0;
+		return (double) Math.floorMod(getOff(channel) - getOn(channel), 4096)/4096.0;
+	}
+	
+	private static int ledAddress(int channel) {
+		if (channel < 0 || channel > 15) {
+			System.out.println("*** Error *** PWM channel must be in range 0 - 15");
+			throw new IllegalArgumentException(Integer.toString(channel));
+		}
+		return LED0_ON_L + 4*channel;
+	}
+	
+	/**
+	 * Is the chip in sleep mode (oscillator off)?
+	 * @return true if sleeping
+	 */
+	public synchronized boolean isSleeping() {
+		return (registers[MODE1] & MODE1_SLEEP) != 0;
+	}
+	
+	/**
+	 * Is the oscillator running? It needs 500 microseconds to start after leaving sleep mode.
+	 * @return true if the PWM outputs are running
+	 */
+	public synchronized boolean isOscillatorRunning() {
+		return !isSleeping() && System.nanoTime() - wakeTime >= OSCILLATOR_START;
+	}
+	
+	/**
+	 * Is MODE1 auto-increment enabled?
+	 * @return true if block transfers advance the register pointer
+	 */
+	public synchronized boolean isAutoIncrement() {
+		return (registers[MODE1] & MODE1_AI) != 0;
+	}
+	
+	/**
+	 * Return the PWM frequency set by the PRE_SCALE register.
+	 * @return frequency in Hz
+	 */
+	public synchronized double getFrequency() {
+		return OSCILLATOR_HZ/(4096.0*((registers[PRE_SCALE] & 0XFF) + 1));
+	}
+	
+	/**
+	 * Return the number of bus transactions (reads and writes).
+	 * @return transactions
+	 */
+	public synchronized long getTransactions() {
+		return transactions;
+	}
+	
+	/**
+	 * Return the number of register bytes written.
+	 * @return bytes written
+	 */
+	public synchronized long getBytesWritten() {
+		return bytesWritten;
+	}
+	
+	/**
+	 * Return the number of register bytes read.
+	 * @return bytes read
+	 */
+	public synchronized long getBytesRead() {
+		return bytesRead;
+	}
+	
+	/**
+	 * Reset the transaction and byte counters to zero.
+	 */
+	public synchronized void resetCounters() {
+		transactions = 0;
+		bytesWritten = 0;
+		bytesRead = 0;
+	}
+}
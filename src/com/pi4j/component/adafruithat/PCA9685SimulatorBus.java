@@ -0,0 +1,202 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  PCA9685SimulatorBus.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.pi4j.io.i2c.I2CBus;
+import com.pi4j.io.i2c.I2CDevice;
+
+/**
+ * Simulated I2C bus carrying a stack of PCA9685Simulator chips, for running a
+ * stack of HATs through an AdafruitHatBus without a Raspberry Pi.
+ * <p>
+ * A write reaches every chip that answers the address: the chip at that address and 
+ * every chip with LED All Call enabled in MODE1 whose ALLCALLADR register holds the 
+ * address, as on a real bus. A read is answered by the chip at the address only. A 
+ * transaction that no chip answers fails with an IOException, like a missing 
+ * acknowledge.
+ * <pre>
+ *     PCA9685SimulatorBus simBus = new PCA9685SimulatorBus();
+ *     simBus.addSimulator(0X60);
+ *     simBus.addSimulator(0X61);
+ *     AdafruitHatBus hatBus = new AdafruitHatBus(simBus);
+ *     AdafruitMotorHat hat0 = new AdafruitMotorHat(0X60, hatBus);
+ *     AdafruitMotorHat hat1 = new AdafruitMotorHat(0X61, hatBus);
+ * </pre>
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.AdafruitHatBus
+ */
+public class PCA9685SimulatorBus implements I2CBus {
+	
+	//MODE1 LED All Call enable bit and register addresses
+	private static final int MODE1         = 0X00;
+	private static final int ALLCALLADR    = 0X05;
+	private static final int MODE1_ALLCALL = 0X01;
+	
+	private final Map<Integer,PCA9685Simulator> simulators = new TreeMap<Integer,PCA9685Simulator>();
+	
+	/**
+	 * Put a simulated chip in its power-up state on the bus.
+	 * @param deviceAddr I2C address of the chip
+	 * @return the simulated chip
+	 */
+	public synchronized PCA9685Simulator addSimulator(int deviceAddr) {
+		if (simulators.containsKey(deviceAddr)) {
+			System.out.println("*** Error *** A simulated chip is already at this address");
+			throw new IllegalArgumentException(String.format("0X%02X", deviceAddr));
+		}
+		PCA9685Simulator simulator = new PCA9685Simulator();
+		simulators.put(deviceAddr, simulator);
+		return simulator;
+	}
+	
+	/**
+	 * Return the simulated chip at an address.
+	 * @param deviceAddr I2C address
+	 * @return the simulated chip, or null if there is none
+	 */
+	public synchronized PCA9685Simulator getSimulator(int deviceAddr) {
+		return simulators.get(deviceAddr);
+	}
+	
+	/**
+	 * Return the chips that answer a write to an address.
+	 */
+	private synchronized List<PCA9685Simulator> responders(int deviceAddr) throws IOException {
+		List<PCA9685Simulator> responders = new ArrayList<PCA9685Simulator>();
+		for (Map.Entry<Integer,PCA9685Simulator> entry: simulators.entrySet()) {
+			PCA9685Simulator simulator = entry.getValue();
+			boolean allCall = (simulator.getRegister(MODE1) & MODE1_ALLCALL) != 0 && 
+					simulator.getRegister(ALLCALLADR) >> 1 == deviceAddr;
+			if (entry.getKey() == deviceAddr || allCall) responders.add(simulator);
+		}
+		if (responders.isEmpty()) throw new IOException(String.format("No acknowledge from 0X%02X", deviceAddr));
+		return responders;
+	}
+	
+	/**
+	 * Return the chip that answers a read from an address.
+	 */
+	private synchronized PCA9685Simulator reader(int deviceAddr) throws IOException {
+		PCA9685Simulator simulator = simulators.get(deviceAddr);
+		if (simulator == null) throw new IOException(String.format("No acknowledge from 0X%02X", deviceAddr));
+		return simulator;
+	}
+	
+	@Override
+	public I2CDevice getDevice(int deviceAddr) throws IOException {
+		return new BusDevice(deviceAddr);
+	}
+	
+	@Override
+	public String getFileName() {
+		return "simulated";
+	}
+	
+	@Override
+	public int getFileDescriptor() {
+		return -1;
+	}
+	
+	@Override
+	public void close() throws IOException {
+	}
+	
+	/**
+	 * An address on the simulated bus.
+	 */
+	private class BusDevice implements I2CDevice {
+		private final int deviceAddr;
+		
+		BusDevice(int deviceAddr) {
+			this.deviceAddr = deviceAddr;
+		}
+		
+		@Override
+		public void write(byte b) throws IOException {
+			for (PCA9685Simulator simulator: responders(deviceAddr)) simulator.write(b);
+		}
+		
+		@Override
+		public void write(byte[] buffer, int offset, int size) throws IOException {
+			for (PCA9685Simulator simulator: responders(deviceAddr)) simulator.write(buffer, offset, size);
+		}
+		
+		@Override
+		public void write(byte[] buffer) throws IOException {
+			write(buffer, 0, buffer.length);
+		}
+		
+		@Override
+		public void write(int address, byte b) throws IOException {
+			for (PCA9685Simulator simulator: responders(deviceAddr)) simulator.write(address, b);
+		}
+		
+		@Override
+		public void write(int address, byte[] buffer, int offset, int size) throws IOException {
+			for (PCA9685Simulator simulator: responders(deviceAddr)) simulator.write(address, buffer, offset, size);
+		}
+		
+		@Override
+		public void write(int address, byte[] buffer) throws IOException {
+			write(address, buffer, 0, buffer.length);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			return reader(deviceAddr).read();
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int size) throws IOException {
+			return reader(deviceAddr).read(buffer, offset, size);
+		}
+		
+		@Override
+		public int read(int address) throws IOException {
+			return reader(deviceAddr).read(address);
+		}
+		
+		@Override
+		public int read(int address, byte[] buffer, int offset, int size) throws IOException {
+			return reader(deviceAddr).read(address, buffer, offset, size);
+		}
+		
+		@Override
+		public int read(byte[] writeBuffer, int writeOffset, int writeSize, 
+				byte[] readBuffer, int readOffset, int readSize) throws IOException {
+			return reader(deviceAddr).read(writeBuffer, writeOffset, writeSize, readBuffer, readOffset, readSize);
+		}
+	}
+}
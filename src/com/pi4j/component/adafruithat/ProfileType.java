@@ -0,0 +1,49 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  ProfileType.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+/**
+ * Velocity profiles available for stepper motor moves commanded with a MotionProfile.
+ * @author eric
+ * @see com.pi4j.component.adafruithat.MotionProfile
+ */
+public enum ProfileType {
+	/**
+	 * Constant acceleration up to the maximum velocity, constant velocity, then
+	 * constant deceleration to a stop. Acceleration changes instantly at the
+	 * start and end of each ramp.
+	 */
+	TRAPEZOIDAL,
+	/**
+	 * Acceleration itself is ramped at a limited jerk so the velocity follows an
+	 * S-shaped curve. Smoother than TRAPEZOIDAL and less likely to lose steps at
+	 * the transitions, but each ramp takes slightly longer.
+	 */
+	S_CURVE
+	
+}
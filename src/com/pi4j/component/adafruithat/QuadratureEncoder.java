@@ -0,0 +1,159 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  QuadratureEncoder.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.pi4j.io.gpio.GpioPinDigitalInput;
+import com.pi4j.io.gpio.event.GpioPinDigitalStateChangeEvent;
+import com.pi4j.io.gpio.event.GpioPinListenerDigital;
+
+/**
+ * Counts the edges of a quadrature encoder wired to two Raspberry Pi GPIO inputs 
+ * (channels A and B). Both edges of both channels are counted, so the count per
+ * revolution is four times the encoder's lines per revolution.
+ * <p>
+ * The count is updated from the pi4j GPIO listeners without locks: the last A/B state
+ * and the count are atomics, so edges arriving on the listener thread never block a
+ * control loop reading getCount(). A transition where both channels change at once
+ * can not be decoded; it is not counted and is reported by getErrors().
+ * <pre>
+ *     GpioController gpio = GpioFactory.getInstance();
+ *     Encoder encoder = new QuadratureEncoder(
+ *             gpio.provisionDigitalInputPin(RaspiPin.GPIO_00, PinPullResistance.PULL_UP),
+ *             gpio.provisionDigitalInputPin(RaspiPin.GPIO_03, PinPullResistance.PULL_UP));
+ * </pre>
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.DcMotorSpeedController
+ */
+public class QuadratureEncoder implements Encoder {
+	
+	/*
+	 * Count change indexed by (previous state << 2) | new state, where a state is
+	 * (A << 1) | B. Forward rotation runs the states 00, 01, 11, 10. Zero entries 
+	 * are no change or an invalid double transition.
+	 */
+	private static final int[] TRANSITION = new int[] {
+		 0,  1, -1,  0,
+		-1,  0,  0,  1,
+		 1,  0,  0, -1,
+		 0, -1,  1,  0
+	};
+	
+	private final GpioPinDigitalInput pinA;
+	private final GpioPinDigitalInput pinB;
+	private final GpioPinListenerDigital listener;
+	
+	private final AtomicInteger state  = new AtomicInteger();
+	private final AtomicLong    count  = new AtomicLong();
+	private final AtomicLong    errors = new AtomicLong();
+	
+	//Count direction, -1 when the encoder is mounted so forward counts down
+	private volatile int direction = 1;
+	
+	/**
+	 * Start counting the edges of the encoder channels.
+	 * @param pinA GPIO input for channel A
+	 * @param pinB GPIO input for channel B
+	 */
+	public QuadratureEncoder(GpioPinDigitalInput pinA, GpioPinDigitalInput pinB) {
+		if (pinA == null || pinB == null || pinA == pinB) {
+			System.out.println("*** Error *** Encoder needs two different GPIO input pins");
+			throw new IllegalArgumentException();
+		}
+		this.pinA = pinA;
+		this.pinB = pinB;
+		state.set(readState());
+		listener = new GpioPinListenerDigital() {
+			@Override
+			public void handleGpioPinDigitalStateChangeEvent(GpioPinDigitalStateChangeEvent event) {
+				//Take the changed channel from the event, the other from the pin
+				boolean a = (event.getPin() == QuadratureEncoder.this.pinA) ? event.getState().isHigh() : QuadratureEncoder.this.pinA.isHigh();
+				boolean b = (event.getPin() == QuadratureEncoder.this.pinB) ? event.getState().isHigh() : QuadratureEncoder.this.pinB.isHigh();
+				edge((a ? 2 : 0) | (b ? 1 : 0));
+			}
+		};
+		pinA.addListener(listener);
+		pinB.addListener(listener);
+	}
+	
+	private int readState() {
+		return (pinA.isHigh() ? 2 : 0) | (pinB.isHigh() ? 1 : 0);
+	}
+	
+	/**
+	 * Decode the change to a new A/B state.
+	 * @param next New state (A << 1) | B
+	 */
+	private void edge(int next) {
+		int previous = state.getAndSet(next);
+		if (previous == next) return;
+		int delta = TRANSITION[(previous << 2) | next];
+		if (delta == 0) errors.incrementAndGet();
+		else count.addAndGet(delta*direction);
+	}
+	
+	@Override
+	public long getCount() {
+		return count.get();
+	}
+	
+	@Override
+	public void reset() {
+		count.set(0);
+		errors.set(0);
+	}
+	
+	/**
+	 * Return the number of transitions that could not be decoded because both channels
+	 * changed between edges. A growing value means edges are being missed.
+	 * @return invalid transitions since the last reset()
+	 */
+	public long getErrors() {
+		return errors.get();
+	}
+	
+	/**
+	 * Reverse the count direction, for an encoder that counts down while the motor 
+	 * turns forward.
+	 * @param reversed true=negate the count direction
+	 */
+	public void setReversed(boolean reversed) {
+		direction = reversed ? -1 : 1;
+	}
+	
+	/**
+	 * Stop counting and remove the GPIO listeners.
+	 */
+	public void close() {
+		pinA.removeListener(listener);
+		pinB.removeListener(listener);
+	}
+}
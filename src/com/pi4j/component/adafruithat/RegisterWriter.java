@@ -0,0 +1,302 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  RegisterWriter.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * I2C writer thread of an AdafruitHat in asynchronous write mode (see 
+ * AdafruitHat.setAsyncWrites()).
+ * <p>
+ * Register writes are put on a bounded lock-free ring buffer and sent to the chip by
+ * this thread. Any number of threads (one per motor or control loop) can put writes
+ * without taking a lock: a writer reserves a slot with a compare-and-set of the tail
+ * and publishes it through the slot's sequence number (a bounded multi-producer 
+ * queue as described by D. Vyukov). The ring has a single consumer at a time: it is
+ * only drained while holding the HAT's lock, normally by this thread.
+ * <p>
+ * All the writes waiting in the ring are merged into a staging copy of the register 
+ * file before they are sent. Each run of adjacent changed registers goes out as one
+ * block transfer, so a write is never split and the four registers of a channel written
+ * together change together. A masked write (a register batch) holds only some of the
+ * registers of its span; the others are filled in with their current values when the
+ * write is sent, so the whole span still goes out as one block. Writes outside the LED PWM registers (MODE1, PRE_SCALE...)
+ * are sent in order after the staged writes before them.
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.AdafruitHat
+ */
+class RegisterWriter extends Thread {
+	
+	//Largest write held by a slot, the size of the LED PWM register block
+	static final int SLOT_SIZE = 64;
+	
+	private final AdafruitHat hat;
+	
+	//Ring buffer of writes. A slot may be written by the producer that reserved 
+	//position pos when its sequence is pos and read by the consumer when it is pos+1.
+	private final int mask;
+	private final AtomicLongArray sequence;
+	private final int[]     slotAddr;
+	private final int[]     slotLength;
+	//Bit i set when register slotAddr+i is written, the other registers of the span keep their values
+	private final long[]    slotMask;
+	private final byte[]    slotData;
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head = 0;
+	
+	//Staging copy of the register file for merging the writes of a batch
+	private final byte[]    stage = new byte[256];
+	private final boolean[] dirty = new boolean[256];
+	//Registers inside the span of a masked write that are sent with their current value
+	private final boolean[] spanned = new boolean[256];
+	private int low = 256;
+	private int high = -1;
+	
+	private volatile boolean parked = false;
+	private volatile boolean running = true;
+	
+	/**
+	 * Create the writer thread. The thread is a daemon so it does not keep the 
+	 * program running.
+	 * @param hat HAT the writes are sent to
+	 * @param capacity Number of slots, a power of two
+	 * @param name Thread name
+	 */
+	RegisterWriter(AdafruitHat hat, int capacity, String name) {
+		super(name);
+		setDaemon(true);
+		this.hat = hat;
+		mask = capacity - 1;
+		sequence = new AtomicLongArray(capacity);
+		for (int i=0; i<capacity; i++) sequence.set(i, i);
+		slotAddr = new int[capacity];
+		slotLength = new int[capacity];
+		slotMask = new long[capacity];
+		slotData = new byte[capacity*SLOT_SIZE];
+	}
+	
+	/**
+	 * Reserve the next slot, waiting while the ring is full.
+	 * @return ring position of the slot
+	 */
+	private long reserve() {
+		long pos = tail.get();
+		while (true) {
+			long difference = sequence.get((int) pos & mask) - pos;
+			if (difference == 0) {
+				if (tail.compareAndSet(pos, pos + 1)) return pos;
+				pos = tail.get();
+			} else if (difference < 0) {
+				//full, let the consumer catch up. A caller holding the HAT's lock 
+				//would block the consumer, so it drains the ring itself.
+				if (Thread.holdsLock(hat)) {
+					drain(true);
+				} else {
+					LockSupport.unpark(this);
+					Thread.yield();
+				}
+				pos = tail.get();
+			} else {
+				pos = tail.get();
+			}
+		}
+	}
+	
+	/**
+	 * Publish a filled slot and wake the writer thread. If the thread has been shut
+	 * down the caller sends the write itself.
+	 */
+	private void publish(long pos) {
+		sequence.set((int) pos & mask, pos + 1);
+		if (parked) LockSupport.unpark(this);
+		if (!running) {
+			synchronized (hat) {
+				drain(true);
+			}
+		}
+	}
+	
+	/**
+	 * Queue a write of one register. Does not block unless the ring is full.
+	 * @param addr Register address
+	 * @param value Value
+	 */
+	void put(int addr, byte value) {
+		long pos = reserve();
+		int slot = (int) pos & mask;
+		slotAddr[slot] = addr;
+		slotLength[slot] = 1;
+		slotMask[slot] = -1L;
+		slotData[slot*SLOT_SIZE] = value;
+		publish(pos);
+	}
+	
+	/**
+	 * Queue a write of sequential registers. Does not block unless the ring is full.
+	 * @param addr Register address of the first value
+	 * @param values Values
+	 * @param offset Index of the first value in the values array
+	 * @param length Number of values, 1 to SLOT_SIZE
+	 */
+	void put(int addr, byte[] values, int offset, int length) {
+		put(addr, values, offset, length, -1L);
+	}
+	
+	/**
+	 * Queue a masked write of a span of sequential registers. Only the registers whose
+	 * bit is set in the mask are written; the other registers of the span are sent with
+	 * their current values, in the same block. Does not block unless the ring is full.
+	 * @param addr Register address of the first value
+	 * @param values Values
+	 * @param offset Index of the first value in the values array
+	 * @param length Number of values, 1 to SLOT_SIZE
+	 * @param written Bit i set when register addr+i is written
+	 */
+	void put(int addr, byte[] values, int offset, int length, long written) {
+		if (length < 1 || length > SLOT_SIZE) {
+			System.out.format("*** Error *** Asynchronous write length must be in range 1 - %d\n", SLOT_SIZE);
+			throw new IllegalArgumentException(Integer.toString(length));
+		}
+		long pos = reserve();
+		int slot = (int) pos & mask;
+		slotAddr[slot] = addr;
+		slotLength[slot] = length;
+		slotMask[slot] = written;
+		System.arraycopy(values, offset, slotData, slot*SLOT_SIZE, length);
+		publish(pos);
+	}
+	
+	/**
+	 * Is a published write waiting?
+	 */
+	private boolean available() {
+		long pos = head;
+		return sequence.get((int) pos & mask) == pos + 1;
+	}
+	
+	/**
+	 * Send every write queued before the call. The caller must hold the HAT's lock.
+	 * @param send true=send the writes, false=discard them
+	 */
+	void drain(boolean send) {
+		long target = tail.get();
+		long pos = head;
+		while (pos - target < 0) {
+			int slot = (int) pos & mask;
+			//a producer may have reserved the slot and not yet filled it
+			while (sequence.get(slot) != pos + 1) Thread.yield();
+			if (send) take(slotAddr[slot], slot*SLOT_SIZE, slotLength[slot], slotMask[slot]);
+			sequence.set(slot, pos + mask + 1);
+			pos++;
+			head = pos;
+		}
+		if (send) sendStage();
+	}
+	
+	/**
+	 * Merge a write into the staging copy. Writes outside the LED PWM registers are
+	 * sent right away, after the staged writes.
+	 */
+	private void take(int addr, int index, int length, long written) {
+		if (addr < hat.LED0_ON_L || addr + length - 1 > hat.LED15_OFF_H) {
+			sendStage();
+			hat.writeNow(addr, slotData, index, length, length > 1);
+			return;
+		}
+		for (int i=0; i<length; i++) {
+			if ((written >>> i & 1) != 0) {
+				stage[addr+i] = slotData[index+i];
+				dirty[addr+i] = true;
+			} else {
+				spanned[addr+i] = true;
+			}
+		}
+		low = Math.min(low, addr);
+		high = Math.max(high, addr + length - 1);
+	}
+	
+	/**
+	 * Send each run of adjacent staged registers as one block. The registers spanned
+	 * by a masked write and not staged take their current values, which include every
+	 * write queued before them.
+	 */
+	private void sendStage() {
+		int addr = low;
+		while (addr <= high) {
+			if (!dirty[addr] && !spanned[addr]) {
+				addr++;
+				continue;
+			}
+			int start = addr;
+			while (addr <= high && (dirty[addr] || spanned[addr])) {
+				if (dirty[addr]) {
+					dirty[addr] = false;
+					spanned[addr++] = false;
+					continue;
+				}
+				//a gap of the masked write, read its current values in one go
+				int gap = addr;
+				while (addr <= high && spanned[addr] && !dirty[addr]) spanned[addr++] = false;
+				hat.readCurrent(gap, stage, gap, addr - gap);
+			}
+			hat.writeNow(start, stage, start, addr - start, true);
+		}
+		low = 256;
+		high = -1;
+	}
+	
+	/**
+	 * Stop the thread after it sends the writes already queued. Later writes are sent
+	 * by the threads making them.
+	 */
+	void shutdown() {
+		running = false;
+		LockSupport.unpark(this);
+	}
+	
+	@Override
+	public void run() {
+		while (running) {
+			if (available()) {
+				synchronized (hat) {
+					drain(true);
+				}
+				continue;
+			}
+			parked = true;
+			if (running && !available()) LockSupport.park(this);
+			parked = false;
+		}
+		synchronized (hat) {
+			drain(true);
+		}
+	}
+}
@@ -0,0 +1,320 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  ServoShowPlayer.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Plays a servo show file (see ServoShowWriter for the format) on one AdafruitServoHat
+ * or a stack of them.
+ * <p>
+ * The file is memory-mapped and each HAT frame is decoded straight from the mapping into
+ * its HAT's frame register image and sent as one block write (see 
+ * AdafruitServoHat.beginFrame()), so each tick sends one write per HAT. Playback does not allocate memory, so heap use is the
+ * same for a show of seconds or of hours, and seeking to any frame is immediate.
+ * Channels not in the show keep their current PWM values.
+ * <pre>
+ *     ServoShowPlayer show = new ServoShowPlayer(servoHat, "show.svsh");
+ *     show.seek(60.0);
+ *     show.play().join();
+ * </pre>
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.ServoShowWriter
+ */
+public class ServoShowPlayer {
+	
+	private final MappedByteBuffer frames;
+	
+	//HAT of each entry of the show's HAT table
+	private final AdafruitServoHat[] servoHats;
+	//Register address of the LEDn_ON_L register of each channel in the show, for each HAT
+	private final int[][] channelAddr;
+	//Offset of the first frame in the file
+	private final int dataOffset;
+	private final int frameSize;
+	private final long frameCount;
+	private final long periodNanos;
+	
+	//PWM register values of one channel
+	private final byte[] pwm = new byte[4];
+	
+	//Next frame to play
+	private volatile long position = 0;
+	private boolean loop = false;
+	
+	//Paces the frames and keeps the interval statistics
+	private final StepTimer stepTimer = new StepTimer();
+	
+	private Thread thread = null;
+	private CompletableFuture<Void> future = null;
+	
+	/**
+	 * Open a show file for one HAT.
+	 * @param servoHat HAT playing the show
+	 * @param fileName Name of the show file
+	 * @throws IOException if the file can not be read or is not a show file
+	 */
+	public ServoShowPlayer(AdafruitServoHat servoHat, String fileName) throws IOException {
+		this(new AdafruitServoHat[] {servoHat}, fileName);
+	}
+	
+	/**
+	 * Open a show file for a stack of HATs. Each HAT in the show is played on the HAT
+	 * with the same I2C device address.
+	 * @param servoHats HATs playing the show
+	 * @param fileName Name of the show file
+	 * @throws IOException if the file can not be read or is not a show file
+	 */
+	public ServoShowPlayer(AdafruitServoHat[] servoHats, String fileName) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+			FileChannel channel = file.getChannel();
+			frames = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (frames.capacity() < ServoShowWriter.HEADER_SIZE || frames.getInt(0) != ServoShowWriter.MAGIC) {
+			throw new IOException("Not a servo show file: " + fileName);
+		}
+		if (frames.getShort(4) != ServoShowWriter.VERSION) {
+			throw new IOException("Unsupported servo show version: " + frames.getShort(4));
+		}
+		int hats = frames.getShort(6) & 0XFFFF;
+		int periodMicros = frames.getInt(8);
+		dataOffset = ServoShowWriter.HEADER_SIZE + hats*ServoShowWriter.HAT_ENTRY_SIZE;
+		if (hats == 0 || periodMicros <= 0 || frames.capacity() < dataOffset) {
+			throw new IOException("Corrupt servo show header: " + fileName);
+		}
+		
+		this.servoHats = new AdafruitServoHat[hats];
+		channelAddr = new int[hats][];
+		int size = 0;
+		for (int hat=0; hat<hats; hat++) {
+			int entry = ServoShowWriter.HEADER_SIZE + hat*ServoShowWriter.HAT_ENTRY_SIZE;
+			int deviceAddr = frames.getShort(entry) & 0XFFFF;
+			int channelMask = frames.getShort(entry + 2) & 0XFFFF;
+			if (channelMask == 0) throw new IOException("Corrupt servo show header: " + fileName);
+			for (AdafruitServoHat servoHat: servoHats) {
+				if (servoHat.DEVICE_ADDR == deviceAddr) {
+					this.servoHats[hat] = servoHat;
+					break;
+				}
+			}
+			if (this.servoHats[hat] == null) {
+				System.out.format("*** Error *** No servo HAT with device address 0X%02X for the show\n", deviceAddr);
+				throw new IllegalArgumentException(String.format("0X%02X", deviceAddr));
+			}
+			channelAddr[hat] = new int[Integer.bitCount(channelMask)];
+			for (int channel=0, i=0; channel<16; channel++) {
+				if ((channelMask & (1 << channel)) != 0) channelAddr[hat][i++] = this.servoHats[hat].LED0_ON_L + 4*channel;
+			}
+			size += ServoShowWriter.frameSize(channelAddr[hat].length);
+		}
+		frameSize = size;
+		frameCount = (frames.capacity() - dataOffset)/frameSize;
+		periodNanos = periodMicros*1000L;
+	}
+	
+	/**
+	 * Return the number of frames in the show.
+	 * @return frames
+	 */
+	public long getFrameCount() {
+		return frameCount;
+	}
+	
+	/**
+	 * Return the time between frames.
+	 * @return period in nanoseconds
+	 */
+	public long getPeriodNanos() {
+		return periodNanos;
+	}
+	
+	/**
+	 * Return the length of the show.
+	 * @return duration in seconds
+	 */
+	public double getDuration() {
+		return frameCount*periodNanos/1.0E9;
+	}
+	
+	/**
+	 * Move to a frame. Takes effect at the next frame during playback.
+	 * @param frame Frame number, 0 is the first frame
+	 */
+	public void seek(long frame) {
+		if (frame < 0 || frame > frameCount) {
+			System.out.format("*** Error *** frame must be in range 0 - %d\n", frameCount);
+			throw new IllegalArgumentException(Long.toString(frame));
+		}
+		position = frame;
+	}
+	
+	/**
+	 * Move to a time in the show. Takes effect at the next frame during playback.
+	 * @param seconds Time from the start of the show
+	 */
+	public void seek(double seconds) {
+		seek(Math.min(frameCount, Math.max(0, (long) Math.floor(seconds*1.0E9/periodNanos))));
+	}
+	
+	/**
+	 * Return the next frame to be played.
+	 * @return frame number
+	 */
+	public long getPosition() {
+		return position;
+	}
+	
+	/**
+	 * Start over at the first frame after the last frame.
+	 * @param loop true=repeat until stopped, false=play once (default)
+	 */
+	public synchronized void setLoop(boolean loop) {
+		this.loop = loop;
+	}
+	
+	/**
+	 * Send a frame to the servos, one block write per HAT.
+	 * @param frame Frame number
+	 */
+	public synchronized void showFrame(long frame) {
+		if (frame < 0 || frame >= frameCount) {
+			System.out.format("*** Error *** frame must be in range 0 - %d\n", frameCount - 1);
+			throw new IllegalArgumentException(Long.toString(frame));
+		}
+		int base = dataOffset + (int) (frame*frameSize);
+		for (int hat=0; hat<servoHats.length; hat++) {
+			AdafruitServoHat servoHat = servoHats[hat];
+			int[] addr = channelAddr[hat];
+			servoHat.beginFrame();
+			for (int i=0; i<addr.length; i++) {
+				int j = base + (i/2)*3;
+				int count;
+				if (i % 2 == 0) count = ((frames.get(j) & 0XFF) << 4) | ((frames.get(j+1) & 0XF0) >> 4);
+				else count = ((frames.get(j+1) & 0X0F) << 8) | (frames.get(j+2) & 0XFF);
+				pwm[2] = (byte) (count & 0XFF);
+				pwm[3] = (byte) (count >> 8);
+				servoHat.write(addr[i], pwm, 0, 4);
+			}
+			servoHat.commitFrame();
+			base += ServoShowWriter.frameSize(addr.length);
+		}
+	}
+	
+	/**
+	 * Play the show from the current position on the player's thread.
+	 * @return CompletableFuture that completes after the last frame. Cancel it (or call stop())
+	 * to stop; the servos hold the last frame.
+	 */
+	public synchronized CompletableFuture<Void> play() {
+		if (isPlaying()) {
+			System.out.println("*** Error *** Show is playing, call stop() first");
+			throw new IllegalStateException();
+		}
+		final CompletableFuture<Void> playing = new CompletableFuture<Void>();
+		future = playing;
+		thread = new Thread("ServoShowPlayer") {
+			@Override
+			public void run() {
+				try {
+					playback(playing);
+					playing.complete(null);
+				} catch (RuntimeException e) {
+					playing.completeExceptionally(e);
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		return playing;
+	}
+	
+	/**
+	 * Send a frame every period until the end of the show or until cancelled.
+	 */
+	private void playback(CompletableFuture<Void> playing) {
+		long deadline = stepTimer.start();
+		while (!playing.isDone()) {
+			long frame = position;
+			if (frame >= frameCount) {
+				if (!loop || frameCount == 0) return;
+				frame = 0;
+			}
+			showFrame(frame);
+			position = frame + 1;
+			
+			deadline += periodNanos;
+			if (!stepTimer.waitUntil(deadline)) {
+				//interrupted by stop()
+				playing.cancel(false);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Stop playback. The servos hold the last frame and the position is kept, so play()
+	 * resumes where the show stopped.
+	 */
+	public void stop() {
+		Thread playing;
+		synchronized (this) {
+			if (future != null) future.cancel(false);
+			playing = thread;
+		}
+		if (playing != null) {
+			playing.interrupt();
+			try {
+				playing.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Is playback in progress?
+	 * @return true while playing
+	 */
+	public synchronized boolean isPlaying() {
+		return future != null && !future.isDone();
+	}
+	
+	/**
+	 * Return the timer pacing the frames. The timer reports the achieved versus 
+	 * requested interval statistics.
+	 * @return StepTimer for this player
+	 */
+	public StepTimer getStepTimer() {
+		return stepTimer;
+	}
+}
@@ -0,0 +1,224 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  ServoShowWriter.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a servo show file played by the ServoShowPlayer.
+ * <p>
+ * A show drives the servos of one or more stacked servo HATs. The file is a 16 byte
+ * header and a table of the HATs in the show, followed by one fixed-size frame per tick.
+ * All values are big-endian.
+ * <pre>
+ *     offset  size  header field
+ *     0       4     magic "SVSH"
+ *     4       2     format version (1)
+ *     6       2     number of HATs in the show (n)
+ *     8       4     frame period in microseconds (20000 for 50 Hz)
+ *     12      4     reserved (0)
+ *     16      4*n   HAT table, for each HAT:
+ *                     2  I2C device address of the HAT (0X40 - 0X7F)
+ *                     2  channel mask, bit c set if LED PWM channel c (servo "S01" is channel 0) is in the show
+ * </pre>
+ * A frame holds one HAT frame for each HAT, in the order of the HAT table. A HAT frame
+ * holds a 12-bit PWM OFF count (0-4095, pulse width = count/4096 of the PWM period) for
+ * every channel in the HAT's mask, in increasing channel order. Two counts are packed in
+ * three bytes: the first count in the first byte and the high nibble of the second byte,
+ * the next count in the low nibble and the third byte. An odd last count takes two bytes
+ * (its high 8 bits, then its low 4 bits in the high nibble). A count of 0 turns the servo
+ * off. The number of frames is (file length - 16 - 4*n)/frame size, so a show can be 
+ * written as a stream.
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.ServoShowPlayer
+ */
+public class ServoShowWriter implements Closeable {
+	
+	static final int MAGIC = 0X53565348;	//"SVSH"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 16;
+	static final int HAT_ENTRY_SIZE = 4;
+	
+	private final DataOutputStream out;
+	//Number of channels of each HAT in the show
+	private final int[] hatChannels;
+	private final int channels;
+	private final byte[] frame;
+	private long frameCount = 0;
+	
+	/**
+	 * Create a show file for one HAT.
+	 * @param fileName Name of the show file
+	 * @param deviceAddr I2C device address of the HAT
+	 * @param channelMask Bit n set for each LED PWM channel n in the show
+	 * @param periodMicros Frame period in microseconds
+	 * @throws IOException if the file can not be written
+	 */
+	public ServoShowWriter(String fileName, int deviceAddr, int channelMask, int periodMicros) throws IOException {
+		this(new FileOutputStream(fileName), new int[] {deviceAddr}, new int[] {channelMask}, periodMicros);
+	}
+	
+	/**
+	 * Create a show file for a stack of HATs.
+	 * @param fileName Name of the show file
+	 * @param deviceAddr I2C device address of each HAT
+	 * @param channelMask Bit n set for each LED PWM channel n in the show, for each HAT
+	 * @param periodMicros Frame period in microseconds
+	 * @throws IOException if the file can not be written
+	 */
+	public ServoShowWriter(String fileName, int[] deviceAddr, int[] channelMask, int periodMicros) throws IOException {
+		this(new FileOutputStream(fileName), deviceAddr, channelMask, periodMicros);
+	}
+	
+	/**
+	 * Write a show for a stack of HATs to a stream. The stream is closed by close().
+	 * @param stream Output stream
+	 * @param deviceAddr I2C device address of each HAT
+	 * @param channelMask Bit n set for each LED PWM channel n in the show, for each HAT
+	 * @param periodMicros Frame period in microseconds
+	 * @throws IOException if the stream can not be written
+	 */
+	public ServoShowWriter(OutputStream stream, int[] deviceAddr, int[] channelMask, int periodMicros) throws IOException {
+		if (deviceAddr.length == 0 || deviceAddr.length != channelMask.length) {
+			stream.close();
+			System.out.println("*** Error *** One channelMask required for each HAT device address");
+			throw new IllegalArgumentException(Integer.toString(channelMask.length));
+		}
+		for (int i=0; i<deviceAddr.length; i++) {
+			if (deviceAddr[i] < 0X40 || deviceAddr[i] > 0X7F) {
+				stream.close();
+				System.out.println("*** Error *** HAT device address must be in range 0X40 to 0X7F");
+				throw new IllegalArgumentException(String.format("0X%02X", deviceAddr[i]));
+			}
+			for (int j=0; j<i; j++) {
+				if (deviceAddr[j] == deviceAddr[i]) {
+					stream.close();
+					System.out.println("*** Error *** HAT device address used twice");
+					throw new IllegalArgumentException(String.format("0X%02X", deviceAddr[i]));
+				}
+			}
+			if (channelMask[i] <= 0 || channelMask[i] > 0XFFFF) {
+				stream.close();
+				System.out.println("*** Error *** channelMask must select channels 0 - 15");
+				throw new IllegalArgumentException(Integer.toHexString(channelMask[i]));
+			}
+		}
+		if (periodMicros <= 0) {
+			stream.close();
+			System.out.println("*** Error *** periodMicros must be > 0");
+			throw new IllegalArgumentException(Integer.toString(periodMicros));
+		}
+		hatChannels = new int[deviceAddr.length];
+		int count = 0;
+		int size = 0;
+		for (int i=0; i<deviceAddr.length; i++) {
+			hatChannels[i] = Integer.bitCount(channelMask[i]);
+			count += hatChannels[i];
+			size += frameSize(hatChannels[i]);
+		}
+		channels = count;
+		frame = new byte[size];
+		out = new DataOutputStream(new BufferedOutputStream(stream));
+		out.writeInt(MAGIC);
+		out.writeShort(VERSION);
+		out.writeShort(deviceAddr.length);
+		out.writeInt(periodMicros);
+		out.writeInt(0);
+		for (int i=0; i<deviceAddr.length; i++) {
+			out.writeShort(deviceAddr[i]);
+			out.writeShort(channelMask[i]);
+		}
+	}
+	
+	/**
+	 * Return the size of a HAT frame.
+	 * @param channels Number of channels of the HAT in the show
+	 * @return bytes per HAT frame
+	 */
+	static int frameSize(int channels) {
+		return (channels*12 + 7)/8;
+	}
+	
+	/**
+	 * Append a frame.
+	 * @param counts PWM OFF count (0-4095) of each channel in the show, HAT by HAT in the
+	 * order the HATs were given and in increasing channel order for each HAT
+	 * @throws IOException if the frame can not be written
+	 */
+	public void writeFrame(int[] counts) throws IOException {
+		if (counts.length != channels) {
+			System.out.format("*** Error *** %d counts required, one per channel\n", channels);
+			throw new IllegalArgumentException(Integer.toString(counts.length));
+		}
+		int next = 0;
+		int base = 0;
+		for (int hat=0; hat<hatChannels.length; hat++) {
+			for (int i=0; i<hatChannels[hat]; i++) {
+				int count = counts[next++];
+				if (count < 0 || count > 4095) {
+					System.out.println("*** Error *** PWM count must be in range 0 - 4095");
+					throw new IllegalArgumentException(Integer.toString(count));
+				}
+				int j = base + (i/2)*3;
+				if (i % 2 == 0) {
+					frame[j] = (byte) (count >> 4);
+					frame[j+1] = (byte) ((frame[j+1] & 0X0F) | ((count & 0X0F) << 4));
+				}
+				else {
+					frame[j+1] = (byte) ((frame[j+1] & 0XF0) | (count >> 8));
+					frame[j+2] = (byte) count;
+				}
+			}
+			base += frameSize(hatChannels[hat]);
+		}
+		out.write(frame);
+		frameCount++;
+	}
+	
+	/**
+	 * Return the number of frames written.
+	 * @return frames
+	 */
+	public long getFrameCount() {
+		return frameCount;
+	}
+	
+	/**
+	 * Flush and close the show file.
+	 */
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}
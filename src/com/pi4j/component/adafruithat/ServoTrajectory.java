@@ -0,0 +1,188 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  ServoTrajectory.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.util.Arrays;
+
+/**
+ * Keyframes (time, position) for one servo and the interpolation between them.
+ * Positions are in the servo's position range (see AdafruitServo.setPositionRange()).
+ * Before the first keyframe the servo holds the first position, after the last
+ * keyframe it holds the last position.
+ * <pre>
+ *     ServoTrajectory sweep = new ServoTrajectory(Interpolation.MINIMUM_JERK);
+ *     sweep.addKeyframe(0.0, 0.0f);
+ *     sweep.addKeyframe(1.5, 1.0f);
+ *     sweep.addKeyframe(3.0, 0.0f);
+ * </pre>
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.ServoTrajectoryPlayer
+ */
+public class ServoTrajectory {
+	
+	private final Interpolation interpolation;
+	
+	//Keyframes in increasing time order
+	private double[] times = new double[8];
+	private float[] positions = new float[8];
+	private int count = 0;
+	
+	//Tangents of the CUBIC interpolation at each keyframe, null until computed
+	private double[] slopes = null;
+	
+	/**
+	 * Create an empty trajectory.
+	 * @param interpolation Interpolation between keyframes
+	 */
+	public ServoTrajectory(Interpolation interpolation) {
+		this.interpolation = interpolation;
+	}
+	
+	/**
+	 * Add a keyframe. A keyframe at the time of an existing keyframe replaces it.
+	 * @param time Time in seconds from the start of the trajectory, {@literal >=} 0
+	 * @param position Servo position at that time
+	 */
+	public void addKeyframe(double time, float position) {
+		if (!(time >= 0.0) || Double.isInfinite(time)) {
+			System.out.println("*** Error *** keyframe time must be >= 0 seconds");
+			throw new IllegalArgumentException(Double.toString(time));
+		}
+		int i = Arrays.binarySearch(times, 0, count, time);
+		if (i >= 0) {
+			positions[i] = position;
+		}
+		else {
+			i = -i - 1;
+			if (count == times.length) {
+				times = Arrays.copyOf(times, 2*count);
+				positions = Arrays.copyOf(positions, 2*count);
+			}
+			System.arraycopy(times, i, times, i+1, count-i);
+			System.arraycopy(positions, i, positions, i+1, count-i);
+			times[i] = time;
+			positions[i] = position;
+			count++;
+		}
+		slopes = null;
+	}
+	
+	/**
+	 * Return the number of keyframes.
+	 * @return keyframes
+	 */
+	public int getKeyframeCount() {
+		return count;
+	}
+	
+	/**
+	 * Return the time of the last keyframe.
+	 * @return duration in seconds
+	 */
+	public double getDuration() {
+		return (count == 0) ? 0.0 : times[count-1];
+	}
+	
+	/**
+	 * Return the interpolation between keyframes.
+	 * @return interpolation
+	 */
+	public Interpolation getInterpolation() {
+		return interpolation;
+	}
+	
+	/**
+	 * Return the interpolated servo position.
+	 * @param time Time in seconds from the start of the trajectory
+	 * @return position
+	 */
+	public float getPosition(double time) {
+		if (count == 0) {
+			System.out.println("*** Error *** trajectory has no keyframes");
+			throw new IllegalStateException();
+		}
+		if (time <= times[0]) return positions[0];
+		if (time >= times[count-1]) return positions[count-1];
+		
+		//keyframes i and i+1 bracket the time
+		int i = Arrays.binarySearch(times, 0, count, time);
+		if (i >= 0) return positions[i];
+		i = -i - 2;
+		double h = times[i+1] - times[i];
+		double u = (time - times[i])/h;
+		double p0 = positions[i];
+		double p1 = positions[i+1];
+		
+		switch (interpolation) {
+			case CUBIC:
+				if (slopes == null) computeSlopes();
+				//cubic Hermite basis
+				double u2 = u*u;
+				double u3 = u2*u;
+				return (float) ((2*u3 - 3*u2 + 1)*p0 + (u3 - 2*u2 + u)*h*slopes[i] + 
+						(-2*u3 + 3*u2)*p1 + (u3 - u2)*h*slopes[i+1]);
+			case MINIMUM_JERK:
+				double s = u*u*u*(10.0 - 15.0*u + 6.0*u*u);
+				return (float) (p0 + (p1 - p0)*s);
+			default:
+				return (float) (p0 + (p1 - p0)*u);
+		}
+	}
+	
+	/**
+	 * Compute the keyframe tangents of a monotone cubic spline (Fritsch-Carlson) so the
+	 * curve does not overshoot the keyframe positions.
+	 */
+	private void computeSlopes() {
+		double[] m = new double[count];
+		double[] delta = new double[Math.max(1, count-1)];
+		for (int k=0; k<count-1; k++) delta[k] = (positions[k+1] - positions[k])/(times[k+1] - times[k]);
+		m[0] = delta[0];
+		m[count-1] = delta[count-2];
+		for (int k=1; k<count-1; k++) {
+			m[k] = (delta[k-1]*delta[k] <= 0.0) ? 0.0 : (delta[k-1] + delta[k])/2.0;
+		}
+		for (int k=0; k<count-1; k++) {
+			if (delta[k] == 0.0) {
+				m[k] = 0.0;
+				m[k+1] = 0.0;
+				continue;
+			}
+			double a = m[k]/delta[k];
+			double b = m[k+1]/delta[k];
+			double r = a*a + b*b;
+			if (r > 9.0) {
+				double t = 3.0/Math.sqrt(r);
+				m[k] = t*a*delta[k];
+				m[k+1] = t*b*delta[k];
+			}
+		}
+		slopes = m;
+	}
+}
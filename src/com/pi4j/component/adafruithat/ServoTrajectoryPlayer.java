@@ -0,0 +1,232 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  ServoTrajectoryPlayer.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Plays ServoTrajectory keyframes on a set of AdafruitServo channels, which can be on
+ * one or several Servo HATs. 
+ * <p>
+ * Playback runs on one thread per player. On each tick the interpolated position of
+ * every servo is computed and the positions for each HAT are sent as one frame (see 
+ * AdafruitServoHat.beginFrame()), so the bus load is one transaction per HAT per tick.
+ * The tick is locked to the PWM frequency of the first servo's HAT, as set by its
+ * prescale (see AdafruitHat.getActualPwmFreq()): by default one tick per PWM period 
+ * (about 20 milliseconds at 50 Hz), since a servo can not respond to a new position 
+ * more often than that.
+ * <pre>
+ *     ServoTrajectoryPlayer player = new ServoTrajectoryPlayer();
+ *     player.add(servoHat.getServo("S01"), sweep);
+ *     player.add(servoHat.getServo("S02"), nod);
+ *     player.play().join();
+ * </pre>
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.ServoTrajectory
+ */
+public class ServoTrajectoryPlayer {
+	
+	private final List<AdafruitServo> servos = new ArrayList<AdafruitServo>();
+	private final List<ServoTrajectory> trajectories = new ArrayList<ServoTrajectory>();
+	
+	//Number of PWM periods between ticks
+	private int periodsPerTick = 1;
+	//Start over at the end of the longest trajectory
+	private boolean loop = false;
+	
+	//Paces the ticks and keeps the interval statistics
+	private final StepTimer stepTimer = new StepTimer();
+	
+	private Thread thread = null;
+	private CompletableFuture<Void> future = null;
+	
+	/**
+	 * Add a servo and the trajectory it is to follow.
+	 * @param servo Servo
+	 * @param trajectory Trajectory with at least one keyframe
+	 */
+	public synchronized void add(AdafruitServo servo, ServoTrajectory trajectory) {
+		checkStopped();
+		if (trajectory.getKeyframeCount() == 0) {
+			System.out.println("*** Error *** trajectory has no keyframes");
+			throw new IllegalArgumentException();
+		}
+		if (servos.contains(servo)) {
+			System.out.println("*** Error *** servo already has a trajectory");
+			throw new IllegalArgumentException(servo.getName());
+		}
+		servos.add(servo);
+		trajectories.add(trajectory);
+	}
+	
+	/**
+	 * Set the number of PWM periods between ticks. Larger values reduce the bus load.
+	 * @param periodsPerTick 1 (default) or more
+	 */
+	public synchronized void setPeriodsPerTick(int periodsPerTick) {
+		if (periodsPerTick < 1) {
+			System.out.println("*** Error *** periodsPerTick must be >= 1");
+			throw new IllegalArgumentException(Integer.toString(periodsPerTick));
+		}
+		this.periodsPerTick = periodsPerTick;
+	}
+	
+	/**
+	 * Repeat the trajectories until stop() is called.
+	 * @param loop true=repeat, false=play once (default)
+	 */
+	public synchronized void setLoop(boolean loop) {
+		this.loop = loop;
+	}
+	
+	/**
+	 * Return the length of the playback, the duration of the longest trajectory.
+	 * @return duration in seconds
+	 */
+	public synchronized double getDuration() {
+		double duration = 0.0;
+		for (ServoTrajectory trajectory: trajectories) duration = Math.max(duration, trajectory.getDuration());
+		return duration;
+	}
+	
+	/**
+	 * Start playback on the player's thread.
+	 * @return CompletableFuture that completes at the end of the playback. Cancel it (or
+	 * call stop()) to stop; the servos hold their last position.
+	 */
+	public synchronized CompletableFuture<Void> play() {
+		checkStopped();
+		if (servos.isEmpty()) {
+			System.out.println("*** Error *** No servos added to the player");
+			throw new IllegalStateException();
+		}
+		final CompletableFuture<Void> playing = new CompletableFuture<Void>();
+		final AdafruitServo[] servoArray = servos.toArray(new AdafruitServo[servos.size()]);
+		final ServoTrajectory[] trajectoryArray = trajectories.toArray(new ServoTrajectory[trajectories.size()]);
+		List<AdafruitServoHat> hatList = new ArrayList<AdafruitServoHat>();
+		for (AdafruitServo servo: servoArray) {
+			if (!hatList.contains(servo.getServoHat())) hatList.add(servo.getServoHat());
+		}
+		final AdafruitServoHat[] hats = hatList.toArray(new AdafruitServoHat[hatList.size()]);
+		//The tick follows the PWM period the chip actually runs at
+		final double tick = periodsPerTick/hats[0].getActualPwmFreq();
+		final double duration = getDuration();
+		final boolean repeat = loop && duration > 0.0;
+		
+		future = playing;
+		thread = new Thread("ServoTrajectoryPlayer") {
+			@Override
+			public void run() {
+				try {
+					playback(playing, servoArray, trajectoryArray, hats, tick, duration, repeat);
+					playing.complete(null);
+				} catch (RuntimeException e) {
+					playing.completeExceptionally(e);
+				}
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+		return playing;
+	}
+	
+	/**
+	 * Send the positions of every tick until the end of the trajectories or until cancelled.
+	 */
+	private void playback(CompletableFuture<Void> playing, AdafruitServo[] servos, ServoTrajectory[] trajectories, 
+			AdafruitServoHat[] hats, double tick, double duration, boolean repeat) {
+		long tStart = stepTimer.start();
+		for (long k=0; !playing.isDone(); k++) {
+			double time = k*tick;
+			boolean last = !repeat && time >= duration;
+			if (repeat) time = time % duration;
+			
+			for (AdafruitServoHat hat: hats) hat.beginFrame();
+			try {
+				for (int i=0; i<servos.length; i++) servos[i].setPosition(trajectories[i].getPosition(time));
+			} catch (RuntimeException e) {
+				for (AdafruitServoHat hat: hats) hat.discardFrame();
+				throw e;
+			}
+			for (AdafruitServoHat hat: hats) hat.commitFrame();
+			
+			if (last) return;
+			if (!stepTimer.waitUntil(tStart + Math.round((k + 1)*tick*1.0E9))) {
+				//interrupted by stop()
+				playing.cancel(false);
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Stop playback. The servos hold their last position.
+	 */
+	public void stop() {
+		Thread playing;
+		synchronized (this) {
+			if (future != null) future.cancel(false);
+			playing = thread;
+		}
+		if (playing != null) {
+			playing.interrupt();
+			try {
+				playing.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Is playback in progress?
+	 * @return true while playing
+	 */
+	public synchronized boolean isPlaying() {
+		return future != null && !future.isDone();
+	}
+	
+	/**
+	 * Return the timer pacing the ticks. The timer reports the achieved versus 
+	 * requested interval statistics.
+	 * @return StepTimer for this player
+	 */
+	public StepTimer getStepTimer() {
+		return stepTimer;
+	}
+	
+	private void checkStopped() {
+		if (isPlaying()) {
+			System.out.println("*** Error *** Player is playing, call stop() first");
+			throw new IllegalStateException();
+		}
+	}
+}
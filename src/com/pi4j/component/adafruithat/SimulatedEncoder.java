@@ -0,0 +1,155 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  SimulatedEncoder.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+
+/**
+ * Encoder that simulates a DC motor driven by an AdafruitDcMotor, for running and
+ * tuning closed-loop speed control without a motor or Raspberry Pi (for example with
+ * an AdafruitMotorHat on a PCA9685Simulator).
+ * <p>
+ * The motor speed follows the commanded power with a first order lag. Without load
+ * the steady speed is the no-load speed times the fraction of full power; a load
+ * takes away a fixed fraction of full power and a weak supply scales the power 
+ * down, so an open-loop motor slows under load just like the real one. The count is
+ * the exact integral of the modeled speed up to the time of each getCount() call.
+ * <pre>
+ *     AdafruitDcMotor motor = motorHat.getDcMotor("M1");
+ *     SimulatedEncoder encoder = new SimulatedEncoder(motor, 1200, 200.0, 0.05);
+ *     encoder.setLoad(0.3);
+ * </pre>
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.DcMotorSpeedController
+ */
+public class SimulatedEncoder implements Encoder {
+	
+	private final AdafruitDcMotor motor;
+	private final int countsPerRevolution;
+	private final double noLoadRpm;
+	private final double timeConstant;
+	
+	private double load = 0.0;
+	private double supplyScale = 1.0;
+	
+	//Model state at the time of the last update
+	private long   lastTime;
+	private double rpm = 0.0;
+	private double revolutions = 0.0;
+	private double zero = 0.0;
+	
+	/**
+	 * Simulate an encoder on the motor.
+	 * @param motor DC motor whose commanded power drives the model
+	 * @param countsPerRevolution Encoder counts per motor revolution
+	 * @param noLoadRpm Speed at full power without load
+	 * @param timeConstant Time for the speed to reach 63% of a step change, in seconds
+	 */
+	public SimulatedEncoder(AdafruitDcMotor motor, int countsPerRevolution, double noLoadRpm, double timeConstant) {
+		if (countsPerRevolution < 1) {
+			System.out.println("*** Error *** countsPerRevolution must be >= 1");
+			throw new IllegalArgumentException(Integer.toString(countsPerRevolution));
+		}
+		if (noLoadRpm <= 0.0 || timeConstant <= 0.0) {
+			System.out.println("*** Error *** noLoadRpm and timeConstant must be > 0.0");
+			throw new IllegalArgumentException(noLoadRpm + " " + timeConstant);
+		}
+		this.motor = motor;
+		this.countsPerRevolution = countsPerRevolution;
+		this.noLoadRpm = noLoadRpm;
+		this.timeConstant = timeConstant;
+		lastTime = System.nanoTime();
+	}
+	
+	/**
+	 * Set the load on the motor as the fraction of full power it takes to overcome.
+	 * The motor does not turn while the power is below the load.
+	 * @param load 0.0 (no load) to 1.0 (stalled at full power)
+	 */
+	public synchronized void setLoad(double load) {
+		if (load < 0.0 || load > 1.0) {
+			System.out.println("*** Error *** load must be in range 0.0 to 1.0");
+			throw new IllegalArgumentException(Double.toString(load));
+		}
+		update(System.nanoTime());
+		this.load = load;
+	}
+	
+	/**
+	 * Set the supply voltage as a fraction of nominal, to model a draining battery.
+	 * @param supplyScale 1.0 (nominal, default) or less
+	 */
+	public synchronized void setSupplyScale(double supplyScale) {
+		if (supplyScale < 0.0) {
+			System.out.println("*** Error *** supplyScale must be >= 0.0");
+			throw new IllegalArgumentException(Double.toString(supplyScale));
+		}
+		update(System.nanoTime());
+		this.supplyScale = supplyScale;
+	}
+	
+	/**
+	 * Advance the model to the time given, holding the power at its current value.
+	 */
+	private void update(long now) {
+		double dt = (now - lastTime)/1.0E9;
+		lastTime = now;
+		if (dt <= 0.0) return;
+		
+		double power = motor.isStopped() ? 0.0 : motor.getSpeed()/motor.getPowerRange();
+		power *= supplyScale;
+		double drive = Math.max(0.0, Math.abs(power) - load);
+		double target = Math.signum(power)*drive*noLoadRpm;
+		
+		//Exact solution of rpm' = (target - rpm)/timeConstant over dt
+		double decay = Math.exp(-dt/timeConstant);
+		revolutions += (target*dt + (rpm - target)*timeConstant*(1.0 - decay))/60.0;
+		rpm = target + (rpm - target)*decay;
+	}
+	
+	@Override
+	public synchronized long getCount() {
+		update(System.nanoTime());
+		return (long) Math.floor((revolutions - zero)*countsPerRevolution);
+	}
+	
+	@Override
+	public synchronized void reset() {
+		update(System.nanoTime());
+		zero = revolutions;
+	}
+	
+	/**
+	 * Return the modeled motor speed.
+	 * @return revolutions per minute, negative in reverse
+	 */
+	public synchronized double getRpm() {
+		update(System.nanoTime());
+		return rpm;
+	}
+}
@@ -0,0 +1,263 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  StepTimer.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * High resolution timer for pacing stepper motor steps. Deadlines are absolute 
+ * System.nanoTime() values so timing errors do not accumulate over a move.
+ * <p>
+ * Each wait parks the thread with LockSupport.parkNanos() for the bulk of the wait
+ * and busy-spins for the final stretch. The length of the spin is calibrated from the 
+ * measured wake-up latency of parkNanos() on this computer so sub-millisecond intervals
+ * are met with small jitter while the CPU is free for most of a longer wait.
+ * <p>
+ * The timer keeps statistics of the achieved versus requested time between waits.
+ * Recording statistics does not allocate memory.
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.AdafruitStepperMotor
+ */
+public class StepTimer {
+	
+	//Spin threshold limits in nanoseconds
+	private static final long MIN_SPIN_THRESHOLD = 10000;
+	private static final long MAX_SPIN_THRESHOLD = 2000000;
+	//Calibration parks this many times for this many nanoseconds 
+	private static final int  CALIBRATION_ROUNDS = 40;
+	private static final long CALIBRATION_PARK   = 100000;
+	//Calibrated spin threshold shared by all timers, -1 until calibrated.
+	private static long calibratedThreshold = -1;
+	
+	//Park until this many nanoseconds before the deadline, then spin.
+	private long spinThreshold;
+	
+	//Deadline and actual end time of the previous wait.
+	private long lastDeadline;
+	private long lastActual;
+	
+	/*
+	 * Statistics of the intervals between waits. The error is the 
+	 * achieved interval minus the requested interval in nanoseconds.
+	 */
+	private long   count;
+	private long   requestedTotal;
+	private long   achievedTotal;
+	private long   minError;
+	private long   maxError;
+	private double errorSquaredTotal;
+	
+	/**
+	 * Create a timer using the calibrated spin threshold for this computer. 
+	 * The first timer created performs the calibration (a few milliseconds).
+	 */
+	public StepTimer() {
+		spinThreshold = calibrate();
+		start();
+		resetStatistics();
+	}
+	
+	/**
+	 * Measure how late parkNanos() wakes up and use a high percentile of the 
+	 * lateness (plus margin) as the time to spin before each deadline.
+	 * @return spin threshold in nanoseconds
+	 */
+	private static synchronized long calibrate() {
+		if (calibratedThreshold < 0) {
+			long[] overshoot = new long[CALIBRATION_ROUNDS];
+			for (int i=0; i<CALIBRATION_ROUNDS; i++) {
+				long t0 = System.nanoTime();
+				LockSupport.parkNanos(CALIBRATION_PARK);
+				overshoot[i] = System.nanoTime() - t0 - CALIBRATION_PARK;
+			}
+			Arrays.sort(overshoot);
+			long threshold = overshoot[CALIBRATION_ROUNDS*9/10]*3/2;
+			calibratedThreshold = Math.max(MIN_SPIN_THRESHOLD, Math.min(MAX_SPIN_THRESHOLD, threshold));
+		}
+		return calibratedThreshold;
+	}
+	
+	/**
+	 * Start a new sequence of waits. The current time becomes the reference 
+	 * for the first interval.
+	 * @return Current System.nanoTime() value
+	 */
+	public long start() {
+		lastDeadline = System.nanoTime();
+		lastActual = lastDeadline;
+		return lastDeadline;
+	}
+	
+	/**
+	 * Wait until the deadline. Returns immediately if the deadline has passed. 
+	 * @param deadline System.nanoTime() value to wait for
+	 * @return true if the deadline was reached, false if the thread was interrupted. 
+	 * The thread's interrupt status is left set.
+	 */
+	public boolean waitUntil(long deadline) {
+		long remaining = deadline - System.nanoTime();
+		while (remaining > 0) {
+			if (remaining > spinThreshold) LockSupport.parkNanos(remaining - spinThreshold);
+			if (Thread.currentThread().isInterrupted()) return false;
+			remaining = deadline - System.nanoTime();
+		}
+		long now = System.nanoTime();
+		record(deadline - lastDeadline, now - lastActual);
+		lastDeadline = deadline;
+		lastActual = now;
+		return true;
+	}
+	
+	/**
+	 * Wait the interval after the previous deadline. 
+	 * @param interval Interval in nanoseconds
+	 * @return true if the deadline was reached, false if the thread was interrupted.
+	 */
+	public boolean waitInterval(long interval) {
+		return waitUntil(lastDeadline + interval);
+	}
+	
+	/**
+	 * Return the deadline of the previous wait, or the start time if there have been no waits.
+	 * @return System.nanoTime() value
+	 */
+	public long getLastDeadline() {
+		return lastDeadline;
+	}
+	
+	/**
+	 * Return the time the previous wait returned, or the start time if there have been no waits.
+	 * @return System.nanoTime() value
+	 */
+	public long getLastActual() {
+		return lastActual;
+	}
+	
+	private void record(long requested, long achieved) {
+		long error = achieved - requested;
+		if (count == 0 || error < minError) minError = error;
+		if (count == 0 || error > maxError) maxError = error;
+		count++;
+		requestedTotal += requested;
+		achievedTotal += achieved;
+		errorSquaredTotal += (double) error * (double) error;
+	}
+	
+	/**
+	 * Clear the interval statistics.
+	 */
+	public void resetStatistics() {
+		count = 0;
+		requestedTotal = 0;
+		achievedTotal = 0;
+		minError = 0;
+		maxError = 0;
+		errorSquaredTotal = 0.0;
+	}
+	
+	/**
+	 * Return number of intervals measured
+	 * @return interval count
+	 */
+	public long getCount() {
+		return count;
+	}
+	
+	/**
+	 * Return mean requested interval
+	 * @return interval in nanoseconds
+	 */
+	public double getMeanRequested() {
+		return (count == 0) ? 0.0 : (double) requestedTotal/count;
+	}
+	
+	/**
+	 * Return mean achieved interval
+	 * @return interval in nanoseconds
+	 */
+	public double getMeanAchieved() {
+		return (count == 0) ? 0.0 : (double) achievedTotal/count;
+	}
+	
+	/**
+	 * Return smallest achieved minus requested interval
+	 * @return error in nanoseconds
+	 */
+	public long getMinError() {
+		return minError;
+	}
+	
+	/**
+	 * Return largest achieved minus requested interval
+	 * @return error in nanoseconds
+	 */
+	public long getMaxError() {
+		return maxError;
+	}
+	
+	/**
+	 * Return jitter as the root mean square of achieved minus requested interval
+	 * @return jitter in nanoseconds
+	 */
+	public double getJitter() {
+		return (count == 0) ? 0.0 : Math.sqrt(errorSquaredTotal/count);
+	}
+	
+	/**
+	 * Set the time before each deadline that the timer busy-spins instead of parking.
+	 * Larger values reduce jitter at the cost of CPU time.
+	 * @param spinThreshold nanoseconds (0 to never spin)
+	 */
+	public void setSpinThreshold(long spinThreshold) {
+		if (spinThreshold < 0) {
+			System.out.println("*** Error *** spinThreshold must be >= 0");
+			throw new IllegalArgumentException(Long.toString(spinThreshold));
+		}
+		this.spinThreshold = spinThreshold;
+	}
+	
+	/**
+	 * Return the time before each deadline that the timer busy-spins.
+	 * @return spin threshold in nanoseconds
+	 */
+	public long getSpinThreshold() {
+		return spinThreshold;
+	}
+	
+	/**
+	 * Return a report of the interval statistics in microseconds.
+	 */
+	@Override
+	public String toString() {
+		return String.format("intervals: %d requested: %.1f us achieved: %.1f us error: %.1f to %.1f us jitter: %.1f us",
+				count, getMeanRequested()/1000.0, getMeanAchieved()/1000.0, 
+				minError/1000.0, maxError/1000.0, getJitter()/1000.0);
+	}
+}
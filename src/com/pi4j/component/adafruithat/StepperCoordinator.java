@@ -0,0 +1,374 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  StepperCoordinator.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import java.util.ArrayList;
+import java.util.List;
+
+import com.pi4j.component.motor.MotorState;
+
+/**
+ * Moves several AdafruitStepperMotor instances in lockstep so they start and arrive 
+ * together along a straight line. The motors can be on the same or on different
+ * AdafruitMotorHat boards.
+ * <p>
+ * A move is planned as a Bresenham (DDA) step stream. The motor with the most steps to 
+ * go takes a step on every tick and the other motors step at evenly spread ticks. On each
+ * tick the register images of all stepping motors on a HAT are combined into one buffer
+ * and sent with a single write to that HAT. SM1 and SM2 occupy contiguous PCA9685 
+ * registers so both motors of a HAT are updated in one block write.
+ * <p>
+ * Ticks are paced like the AdafruitStepperMotor step() method: a fixed time interval 
+ * or a MotionProfile planned for the ticks of the move.
+ * <pre>
+ *     AdafruitMotorHat motorHat = new AdafruitMotorHat(0X60);
+ *     StepperCoordinator xy = new StepperCoordinator(
+ *         motorHat.getStepperMotor("SM1"), motorHat.getStepperMotor("SM2"));
+ *     xy.setStepIntervalNanos(2000000, false);
+ *     xy.moveTo(400, 100);
+ * </pre>
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.AdafruitStepperMotor
+ */
+public class StepperCoordinator {
+	
+	/*
+	 * The motors of one HAT. The buffer holds the register images of the motors from 
+	 * the lowest to the highest register address they occupy.
+	 */
+	private static class HatGroup {
+		final AdafruitMotorHat motorHat;
+		int baseAddr;
+		int length;
+		byte[] buffer;
+		boolean dirty;
+		
+		HatGroup(AdafruitMotorHat motorHat) {
+			this.motorHat = motorHat;
+		}
+	}
+	
+	private final AdafruitStepperMotor[] motors;
+	private final List<HatGroup> groups = new ArrayList<HatGroup>();
+	//HAT group of each motor
+	private final HatGroup[] motorGroup;
+	
+	//Steps to go and Bresenham error term of each motor for the current move
+	private final long[] delta;
+	private final long[] error;
+	
+	//Time interval (nanoseconds) between ticks, 0 for the fastest possible rate
+	private long stepInterval = 0;
+	//Terminate if the tick's time interval can not be achieved
+	private boolean killFlag = false;
+	//Optional acceleration profile over the ticks of a move
+	private MotionProfile motionProfile = null;
+	//The coordinator's copy of the motion profile, which holds the planned move
+	private MotionProfile plannedProfile = null;
+	//Paces the ticks and keeps the interval statistics
+	private final StepTimer stepTimer = new StepTimer();
+	
+	/**
+	 * Create a coordinator for the stepper motors. Each motor is an axis; positions
+	 * passed to moveTo() and moveBy() are in the order of the motors here.
+	 * @param motors Stepper motors, each allocated by its AdafruitMotorHat
+	 */
+	public StepperCoordinator(AdafruitStepperMotor... motors) {
+		if (motors.length == 0) {
+			System.out.println("*** Error *** At least one stepper motor is required");
+			throw new IllegalArgumentException();
+		}
+		this.motors = motors.clone();
+		motorGroup = new HatGroup[motors.length];
+		delta = new long[motors.length];
+		error = new long[motors.length];
+		
+		for (int i=0; i<motors.length; i++) {
+			for (int j=0; j<i; j++) {
+				if (motors[j] == motors[i]) {
+					System.out.println("*** Error *** Stepper motor listed more than once");
+					throw new IllegalArgumentException(motors[i].getName());
+				}
+			}
+			//Group the motors by HAT and widen the register span of the group
+			HatGroup group = null;
+			for (HatGroup g: groups) if (g.motorHat == motors[i].getMotorHat()) group = g;
+			if (group == null) {
+				group = new HatGroup(motors[i].getMotorHat());
+				groups.add(group);
+			}
+			int start = motors[i].getBaseAddr();
+			int end = start + motors[i].getImageSize();
+			if (group.length > 0) {
+				start = Math.min(start, group.baseAddr);
+				end = Math.max(end, group.baseAddr + group.length);
+			}
+			group.baseAddr = start;
+			group.length = end - start;
+			motorGroup[i] = group;
+		}
+		for (HatGroup group: groups) group.buffer = new byte[group.length];
+	}
+	
+	/**
+	 * Move every motor to its target position (see AdafruitStepperMotor.getCurrentStep()).
+	 * The motors start and arrive together. The call returns when the move has finished.
+	 * @param targets Target step position of each motor
+	 */
+	public void moveTo(long... targets) {
+		checkAxes(targets);
+		for (int i=0; i<motors.length; i++) delta[i] = targets[i] - motors[i].getCurrentStep();
+		move();
+	}
+	
+	/**
+	 * Move every motor the number of steps specified. Positive values move forward, 
+	 * negative values reverse. The call returns when the move has finished.
+	 * @param steps Steps to move each motor
+	 */
+	public void moveBy(long... steps) {
+		checkAxes(steps);
+		System.arraycopy(steps, 0, delta, 0, motors.length);
+		move();
+	}
+	
+	private void checkAxes(long[] values) {
+		if (values.length != motors.length) {
+			System.out.format("*** Error *** %d positions required, one per stepper motor\n", motors.length);
+			stopAll();
+			throw new IllegalArgumentException(Integer.toString(values.length));
+		}
+	}
+	
+	/**
+	 * Set up the Bresenham step stream of a move. The caller then paces the ticks with
+	 * waitForTick() and tick().
+	 * @param steps Steps to move each motor
+	 * @return Number of ticks of the move, 0 if no motor moves
+	 */
+	long start(long[] steps) {
+		System.arraycopy(steps, 0, delta, 0, motors.length);
+		return start();
+	}
+	
+	/**
+	 * Set up the Bresenham step stream for the steps in the delta array.
+	 * @return Number of ticks of the move
+	 */
+	private long start() {
+		//The motor with the most steps sets the number of ticks
+		long ticks = 0;
+		for (int i=0; i<motors.length; i++) ticks = Math.max(ticks, Math.abs(delta[i]));
+		if (ticks == 0) return 0;
+		
+		for (int i=0; i<motors.length; i++) {
+			if (delta[i] > 0) motors[i].setState(MotorState.FORWARD);
+			else if (delta[i] < 0) motors[i].setState(MotorState.REVERSE);
+			delta[i] = Math.abs(delta[i]);
+			error[i] = ticks/2;
+		}
+		//Start each buffer from the image every motor is holding
+		for (int i=0; i<motors.length; i++) copyImage(i, motors[i].getImage());
+		return ticks;
+	}
+	
+	/**
+	 * Run the Bresenham step stream for the steps in the delta array.
+	 */
+	private void move() {
+		long ticks = start();
+		if (ticks == 0) return;
+		
+		MotionProfile profile = plannedProfile;
+		if (profile != null) {
+			profile.plan(ticks);
+			long tStart = stepTimer.start();
+			for (long tick=1; tick<=ticks; tick++) {
+				//wait for the planned time of this tick
+				if (!waitForTick(tStart + profile.getStepTime(tick), profile.getStepInterval(tick))) return;
+				tick(ticks);
+			}
+		}
+		else if (stepInterval == 0) for (long tick=0; tick<ticks; tick++) tick(ticks);
+		else {
+			long deadline = stepTimer.start();
+			for (long tick=0; tick<ticks; tick++) {
+				tick(ticks);
+				//wait the additional time for the desired time interval
+				deadline += stepInterval;
+				if (!waitForTick(deadline, stepInterval)) return;
+			}
+		}
+	}
+	
+	/**
+	 * Step the motors due on this tick and send one write to each HAT with a stepping motor.
+	 * @param ticks Number of ticks of the move
+	 */
+	void tick(long ticks) {
+		for (int i=0; i<motors.length; i++) {
+			error[i] -= delta[i];
+			if (error[i] < 0) {
+				error[i] += ticks;
+				copyImage(i, motors[i].nextImage());
+			}
+		}
+		for (HatGroup group: groups) {
+			if (!group.dirty) continue;
+			//one batch per HAT so all the coils of the HAT change together, unless the
+			//caller has a batch open on the HAT, which then holds the write
+			boolean own = !group.motorHat.isBatchOpen();
+			if (own) group.motorHat.beginBatch();
+			group.motorHat.write(group.baseAddr, group.buffer, 0, group.length);
+			if (own) group.motorHat.commitBatch();
+			group.dirty = false;
+		}
+	}
+	
+	private void copyImage(int motor, byte[] image) {
+		HatGroup group = motorGroup[motor];
+		System.arraycopy(image, 0, group.buffer, motors[motor].getBaseAddr() - group.baseAddr, image.length);
+		group.dirty = true;
+	}
+	
+	/**
+	 * Wait for the deadline of the next tick. With the killFlag set the move is terminated
+	 * when the time taken since the previous tick started is the requested interval or more.
+	 * @param deadline System.nanoTime() value of the next tick
+	 * @param interval Requested time since the previous tick in nanoseconds
+	 * @return true to continue, false if interrupted and the motors were stopped
+	 */
+	boolean waitForTick(long deadline, long interval) {
+		if (killFlag && System.nanoTime() - stepTimer.getLastActual() >= interval) {
+			//If the time interval per tick can not be achieved 
+			//and the killFlag is true then get out of here.
+			System.out.println("*** Error *** Time interval per step can not be achieved");
+			stopAll();
+			throw new IllegalArgumentException();	
+		}
+		if (!stepTimer.waitUntil(deadline)) {
+			System.out.println("*** ERROR *** Interrupted step");
+			stopAll();
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Stop all motors and servos of every HAT used by the coordinator.
+	 */
+	private void stopAll() {
+		for (HatGroup group: groups) group.motorHat.stopAll();
+	}
+	
+	/**
+	 * Stop all power to the coordinated stepper motors.
+	 */
+	public void stop() {
+		for (AdafruitStepperMotor motor: motors) motor.stop();
+	}
+	
+	/**
+	 * Specify the time interval between ticks, the steps of the motor moving furthest.
+	 * @param milliSeconds Time interval in milliseconds. If 0 (default value) the ticks 
+	 * occur at the fastest rate possible.
+	 */
+	public void setStepInterval(long milliSeconds) {
+		if (milliSeconds < 0) {
+			System.out.println("*** Error ***  milliSeconds specified must be greater than or equal to 0");
+			stopAll();
+			throw new IllegalArgumentException();		
+		}
+		this.stepInterval = milliSeconds*1000000;
+	}
+	
+	/**
+	 * Specify the time interval between ticks in nanoseconds.
+	 * @param nanoSeconds Time interval in nanoseconds. If 0 the ticks occur at the
+	 * fastest rate possible.
+	 * @param killFlag true=terminate if time interval can not be achieved, false=keep stepping
+	 * even if time interval can not be achieved.
+	 */
+	public void setStepIntervalNanos(long nanoSeconds, boolean killFlag) {
+		if (nanoSeconds < 0) {
+			System.out.println("*** Error ***  nanoSeconds specified must be greater than or equal to 0");
+			stopAll();
+			throw new IllegalArgumentException();		
+		}
+		this.killFlag = killFlag;
+		this.stepInterval = nanoSeconds;
+	}
+	
+	/**
+	 * Return the time interval between ticks.
+	 * @return Time interval in nanoseconds, 0 for the fastest possible rate
+	 */
+	public long getStepIntervalNanos() {
+		return stepInterval;
+	}
+	
+	/**
+	 * Use a motion profile to accelerate and decelerate along the line of the move. The
+	 * profile is planned over the ticks of each move so its velocities are in steps/second
+	 * of the motor moving furthest. While a profile is set the step interval is not used.
+	 * The coordinator plans its moves on a copy of the profile, so the profile can be shared.
+	 * @param motionProfile Motion profile for each move, null to return to fixed time intervals
+	 */
+	public void setMotionProfile(MotionProfile motionProfile) {
+		this.motionProfile = motionProfile;
+		this.plannedProfile = (motionProfile == null) ? null : new MotionProfile(motionProfile);
+	}
+	
+	/**
+	 * Return the motion profile used by moves.
+	 * @return motion profile, null if ticks use a fixed time interval
+	 */
+	public MotionProfile getMotionProfile() {
+		return motionProfile;
+	}
+	
+	/**
+	 * Return the timer pacing the ticks. The timer reports the achieved versus 
+	 * requested interval statistics.
+	 * @return StepTimer for this coordinator
+	 */
+	public StepTimer getStepTimer() {
+		return stepTimer;
+	}
+	
+	/**
+	 * Return the current step position of every motor.
+	 * @return step positions in the order of the motors
+	 */
+	public long[] getCurrentSteps() {
+		long[] steps = new long[motors.length];
+		for (int i=0; i<motors.length; i++) steps[i] = motors[i].getCurrentStep();
+		return steps;
+	}
+}
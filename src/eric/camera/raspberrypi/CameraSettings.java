@@ -0,0 +1,508 @@
+/**
+ * The CameraSettings class is an immutable set of Raspberry Pi camera image settings
+ * (width, height, quality, exposure, white balance, ...). Settings are created with a
+ * Builder, and changed by copying them to a new Builder with toBuilder().
+ *
+ * The command-line arguments for the settings are built the first time they are needed
+ * and kept with the settings, so repeated captures with the same settings do not build
+ * them again. The arguments are separate strings for ProcessBuilder, so no value is
+ * split at spaces by the shell-style tokenizing of Runtime.exec(String).
+ *
+ *     CameraSettings settings = CameraSettings.builder()
+ *         .setWidthHeight(1296, 972)
+ *         .setAwb("sun")
+ *         .build();
+ *     camera.setSettings(settings);
+ *
+ * Not all raspistill imaging options are available. For more information on the
+ * options see the documentation here:
+ * https://www.raspberrypi.org/documentation/raspbian/applications/camera.md
+ *
+ */
+package eric.camera.raspberrypi;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public final class CameraSettings {
+
+	/**
+	 * Settings with every option left at the camera program's default.
+	 */
+	public static final CameraSettings DEFAULT = new Builder().build();
+
+	//The value -1 (or null) is an indicator to not set this parameter in the command
+	private final int sharpness;
+	private final int contrast;
+	private final int brightness;
+	private final int saturation;
+	private final int iso;
+	private final int ev;			//exposure compensation
+	private final String exposure;	//exposure mode
+	private final String awb;		//automatic white balance
+	private final String metering;	//type of metering
+	private final int rotation;
+	private final boolean hflip;	//flip image horizontally
+	private final boolean vflip;	//flip image vertically
+	private final float[] roi;		//roi (region of interest) specification, null for the whole image
+	private final int shutter;		//shutter time in microseconds
+	private final String drc;		//Dynamic range compression
+	private final int width;
+	private final int height;
+	private final int quality;
+
+	//Command-line arguments, built on first use
+	private volatile List<String> stillArguments;
+	private volatile List<String> videoArguments;
+
+	private CameraSettings(Builder builder) {
+		sharpness  = builder.sharpness;
+		contrast   = builder.contrast;
+		brightness = builder.brightness;
+		saturation = builder.saturation;
+		iso        = builder.iso;
+		ev         = builder.ev;
+		exposure   = builder.exposure;
+		awb        = builder.awb;
+		metering   = builder.metering;
+		rotation   = builder.rotation;
+		hflip      = builder.hflip;
+		vflip      = builder.vflip;
+		roi        = (builder.roi == null) ? null : builder.roi.clone();
+		shutter    = builder.shutter;
+		drc        = builder.drc;
+		width      = builder.width;
+		height     = builder.height;
+		quality    = builder.quality;
+	}
+
+	/**
+	 * Create a Builder with every option left at the camera program's default.
+	 * @return Builder
+	 */
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Create a Builder holding these settings.
+	 * @return Builder
+	 */
+	public Builder toBuilder() {
+		return new Builder(this);
+	}
+
+	/**
+	 * Return the raspistill command-line arguments for the settings.
+	 * @return Unmodifiable list of arguments, shared by every call
+	 */
+	public List<String> getStillArguments() {
+		List<String> arguments = stillArguments;
+		if (arguments == null) {
+			arguments = buildArguments(true);
+			stillArguments = arguments;
+		}
+		return arguments;
+	}
+
+	/**
+	 * Return the raspivid command-line arguments for the settings. raspivid has no jpeg
+	 * quality option, so the quality setting is not used.
+	 * @return Unmodifiable list of arguments, shared by every call
+	 */
+	public List<String> getVideoArguments() {
+		List<String> arguments = videoArguments;
+		if (arguments == null) {
+			arguments = buildArguments(false);
+			videoArguments = arguments;
+		}
+		return arguments;
+	}
+
+	private List<String> buildArguments(boolean still) {
+		List<String> arguments = new ArrayList<String>();
+		if (width       != -1) 	add(arguments, "--width",      String.valueOf(width));
+		if (height      != -1) 	add(arguments, "--height",     String.valueOf(height));
+		if (quality != -1 && still) add(arguments, "--quality", String.valueOf(quality));
+		if (sharpness   != -1) 	add(arguments, "--sharpness",  String.valueOf(sharpness));
+		if (contrast    != -1) 	add(arguments, "--contrast",   String.valueOf(contrast));
+		if (brightness  != -1) 	add(arguments, "--brightness", String.valueOf(brightness));
+		if (saturation  != -1) 	add(arguments, "--saturation", String.valueOf(saturation));
+		if (iso         != -1) 	add(arguments, "--ISO",        String.valueOf(iso));
+		if (ev          != -1) 	add(arguments, "--ev",         String.valueOf(ev));
+		if (exposure  != null) 	add(arguments, "--exposure",   exposure);
+		if (awb       != null) 	add(arguments, "--awb",        awb);
+		if (metering  != null) 	add(arguments, "--metering",   metering);
+		if (rotation    != -1) 	add(arguments, "--rotation",   String.valueOf(rotation));
+		if (hflip)				arguments.add("--hflip");
+		if (vflip)				arguments.add("--vflip");
+		if (roi       != null) 	add(arguments, "--roi",
+											String.valueOf(roi[0])+","
+											+String.valueOf(roi[1])+","
+											+String.valueOf(roi[2])+","
+											+String.valueOf(roi[3]));
+		if (shutter   != -1)    add(arguments, "--shutter",    String.valueOf(shutter));
+		if (drc       != null)  add(arguments, "--drc",        drc);
+		return Collections.unmodifiableList(arguments);
+	}
+
+	private static void add(List<String> arguments, String option, String value) {
+		arguments.add(option);
+		arguments.add(value);
+	}
+
+	/**
+	 * Return the image width
+	 * @return Width in pixels, -1 for the camera program's default
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Return the image height
+	 * @return Height in pixels, -1 for the camera program's default
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Return the jpeg quality
+	 * @return Quality (0-100), -1 for the camera program's default
+	 */
+	public int getQuality() {
+		return quality;
+	}
+
+	/**
+	 * Return the raspistill arguments as a command-line string.
+	 */
+	@Override
+	public String toString() {
+		return String.join(" ", getStillArguments());
+	}
+
+	/**
+	 * The Builder class collects camera settings and builds an immutable CameraSettings.
+	 * Each value is checked when it is set.
+	 */
+	public static final class Builder {
+		private int sharpness   = -1;
+		private int contrast    = -1;
+		private int brightness  = -1;
+		private int saturation  = -1;
+		private int iso         = -1;
+		private int ev          = -1;
+		private String exposure = null;
+		private String awb      = null;
+		private String metering = null;
+		private int rotation    = -1;
+		private boolean hflip   = false;
+		private boolean vflip   = false;
+		private float[] roi     = null;
+		private int shutter     = -1;
+		private String drc      = null;
+		private int width       = -1;
+		private int height      = -1;
+		private int quality     = -1;
+
+		private Builder() {
+		}
+
+		private Builder(CameraSettings settings) {
+			sharpness  = settings.sharpness;
+			contrast   = settings.contrast;
+			brightness = settings.brightness;
+			saturation = settings.saturation;
+			iso        = settings.iso;
+			ev         = settings.ev;
+			exposure   = settings.exposure;
+			awb        = settings.awb;
+			metering   = settings.metering;
+			rotation   = settings.rotation;
+			hflip      = settings.hflip;
+			vflip      = settings.vflip;
+			roi        = settings.roi;
+			shutter    = settings.shutter;
+			drc        = settings.drc;
+			width      = settings.width;
+			height     = settings.height;
+			quality    = settings.quality;
+		}
+
+		/**
+		 * Build the settings.
+		 * @return CameraSettings
+		 */
+		public CameraSettings build() {
+			return new CameraSettings(this);
+		}
+
+		/**
+		 * Set the width and height of the image to be acquired.
+		 * Note: when setting width and height be sure to make the
+		 * height/width values proportional to the 2592x1944 dimensions
+		 * of the camera in order to capture the entire scene.
+		 *
+		 * @param width  Width in pixels of acquired image (1 - 2592)
+		 * @param height Height in pixels of acquired image (1 - 1944)
+		 * @return this Builder
+		 */
+		public Builder setWidthHeight(int width, int height) {
+			if (width < 1 || width > 2592) {
+				System.out.println("Error - image width be in the range 1 to 2592 pixels");
+				System.exit(-1);
+			}
+			if (height < 1 || height > 1944 ) {
+				System.out.println("Error - image width be in the range 1 to 1944 pixels");
+				System.exit(-1);
+			}
+			this.width =  width;
+			this.height = height;
+			return this;
+		}
+
+		/**
+		 * Set the jpeg image quality parameter.
+		 * @param quality Jpeg quality value (0-100)
+		 * @return this Builder
+		 */
+		public Builder setQuality(int quality) {
+			if (quality < 0 || quality > 100){
+				System.out.println("Error - image quality must be in the range 0 to 100");
+				System.exit(-1);
+			}
+			this.quality = quality;
+			return this;
+		}
+
+		/**
+		 * Set the sharpness level of the image.
+		 * @param sharpness Image Sharpness level value (-100 - 100)
+		 * @return this Builder
+		 */
+		public Builder setSharpness(int sharpness) {
+			if (sharpness < -100 || sharpness > 100){
+				System.out.println("Error - image sharpness must be in the range -100 to 100");
+				System.exit(-1);
+			}
+			this.sharpness = sharpness;
+			return this;
+		}
+
+		/**
+		 * Set the contrast level of the image
+		 * @param contrast  Image contrast value (-100 to 100)
+		 * @return this Builder
+		 */
+		public Builder setContrast(int contrast) {
+			if (contrast < -100 || contrast > 100){
+				System.out.println("Error - image contrast must be in the range -100 to 100");
+				System.exit(-1);
+			}
+			this.contrast = contrast;
+			return this;
+		}
+
+		/**
+		 * Set the brightness level of the image
+		 * @param brightness Image brightness level (0 - 100)
+		 * @return this Builder
+		 */
+		public Builder setBrightness(int brightness) {
+			if (brightness < 0 || brightness > 100){
+				System.out.println("Error - image brightness must be in the range 0 to 100");
+				System.exit(-1);
+			}
+			this.brightness = brightness;
+			return this;
+		}
+
+		/**
+		 * Set the saturation level of the image
+		 * @param saturation Image saturation value (-100 - 100)
+		 * @return this Builder
+		 */
+		public Builder setSaturation(int saturation) {
+			if (saturation < -100 || saturation > 100){
+				System.out.println("Error - image saturation must be in the range -100 to 100");
+				System.exit(-1);
+			}
+			this.saturation = saturation;
+			return this;
+		}
+
+		/**
+		 * Set the ISO level for the image
+		 * @param iso Camera ISO value (100 - 800)
+		 * @return this Builder
+		 */
+		public Builder setISO(int iso) {
+			if (iso < 100 || iso > 800){
+				System.out.println("Error - image ISO must be in the range 100 to 800");
+				System.exit(-1);
+			}
+			this.iso = iso;
+			return this;
+		}
+
+		/**
+		 * Set the Exposure Compensation (EV) for the image
+		 * @param ev Image exposure compensation value  (-10 - 10)
+		 * @return this Builder
+		 */
+		public Builder setEV(int ev) {
+			if (ev < -10 || ev > 10){
+				System.out.println("Error - image EV must be in the range -10 to 10");
+				System.exit(-1);
+			}
+			this.ev = ev;
+			return this;
+		}
+
+		/**
+		 * Set exposure mode and test for valid value
+		 * @param exposure Image exposure mode. Options:  "auto", "night", "nightpreview",
+		 * "backlight", "spotlight", "sports", "snow", "beach", "verylong",
+		 * "fixedfps", "antishake", "fireworks"
+		 * @return this Builder
+		 */
+		public Builder setExposureMode(String exposure) {
+			//permitted values for the exposure mode
+			String modeValues[] ={"auto", "night", "nightpreview", "backlight", "spotlight",
+					"sports", "snow", "beach", "verylong", "fixedfps", "antishake", "fireworks"};
+			this.exposure = checkValue(exposure, modeValues, "Error - image eposure mode permitted values:");
+			return this;
+		}
+
+		/**
+		 * Set automatic white balance values
+		 * @param awb  Automatic white balance. Options: "off", "auto", "sun", "shade",
+		 * "tungsten", "fluorescent", "incandescent", "flash", "horizon"
+		 * @return this Builder
+		 */
+		public Builder setAwb(String awb) {
+			//permitted values for the white balance mode
+			String awbValues[] ={"off", "auto", "sun", "shade", "tungsten", "fluorescent",
+					"incandescent", "flash", "horizon"};
+			this.awb = checkValue(awb, awbValues, "Error - image awb (automatic white balance) mode permitted values:");
+			return this;
+		}
+
+		/**
+		 * Set the metering value for determining exposure settings
+		 * @param metering Exposure's metering value. Options: "average",
+		 * "spot", "backlit", "matrix"
+		 * @return this Builder
+		 */
+		public Builder setMetering(String metering) {
+			//permitted values for the metering mode
+			String meteringValues[] ={"average", "spot", "backlit", "matrix"};
+			this.metering = checkValue(metering, meteringValues, "Error - image metering mode permitted values:");
+			return this;
+		}
+
+		/**
+		 * Set the image rotation value
+		 * @param rotation Rotate image in degrees.  Permitted values: 0, 90, 180, 270
+		 * @return this Builder
+		 */
+		public Builder setRotation(int rotation) {
+			if (rotation != 0 && rotation  != 90 && rotation != 180 && rotation != 270){
+				System.out.println("Error - image roation must 0, 90, 180,270");
+				System.exit(-1);
+			}
+			this.rotation = rotation;
+			return this;
+		}
+
+		/**
+		 * Flip image horizontally
+		 * @param hflip true to flip
+		 * @return this Builder
+		 */
+		public Builder setHflip(boolean hflip) {
+			this.hflip = hflip;
+			return this;
+		}
+
+		/**
+		 * Flip image vertically
+		 * @param vflip true to flip
+		 * @return this Builder
+		 */
+		public Builder setVflip(boolean vflip) {
+			this.vflip = vflip;
+			return this;
+		}
+
+		/**
+		 * Set the roi (region of interest) values
+		 * @param roi Four values specifying region of interest
+		 * {start width, start height, width, height}.
+		 * Values are in the range 0.0f to 1.0f. null for the whole image.
+		 * @return this Builder
+		 */
+		public Builder setRoi(float[] roi) {
+			if (roi == null) {
+				this.roi = null;
+				return this;
+			}
+			if (roi.length != 4) {
+				System.out.println("Error - must provide exactly 4 values for roi (region of interest) ");
+				System.exit(-1);
+			}
+			for (float x: roi) {
+				if (x < 0.0 || x > 1.0) {
+					System.out.println("Error - roi (region of interest) values must be in range 0.0 - 1.0");
+					System.exit(-1);
+				}
+			}
+			this.roi = roi.clone();
+			return this;
+		}
+
+		/**
+		 * Set the dynamic range compression mode
+		 * @param drc Dynamic range compression. Options: "off", "low", "medium", "high"
+		 * @return this Builder
+		 */
+		public Builder setDrc(String drc) {
+			//permitted values for the drc mode
+			String drcValues[] ={"off", "low", "medium", "high"};
+			this.drc = checkValue(drc, drcValues, "Error - image drc (dynamic range compression) mode permitted values:");
+			return this;
+		}
+
+		/**
+		 * Set the shutter time of the exposure in microseconds
+		 * @param shutter Exposure duration in microseconds (1 - 6000000)
+		 * @return this Builder
+		 */
+		public Builder setShutter(int shutter) {
+			if (shutter < 1 || shutter > 6000000 ){
+				System.out.println("Error - shutter time (microseconds) must be in range 0 to 6.0 seconds");
+				System.exit(-1);
+			}
+			this.shutter = shutter;
+			return this;
+		}
+
+		/**
+		 * Check a mode value against its permitted values.
+		 * @param value Value to check
+		 * @param permitted Permitted values
+		 * @param error Error message printed before the permitted values
+		 * @return value
+		 */
+		private static String checkValue(String value, String[] permitted, String error) {
+			for (String s: permitted) if (s.equals(value)) return s;
+			System.out.println(error);
+			for (String s: permitted) System.out.println(s);
+			System.exit(-1);
+			return null;
+		}
+	}
+}
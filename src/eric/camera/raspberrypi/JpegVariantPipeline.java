@@ -0,0 +1,269 @@
+/**
+ * The JpegVariantPipeline class makes smaller copies (thumbnails and resized variants) of
+ * JPEG images taken by the Raspberry Pi camera, so uploaders do not need to send the
+ * full 2592x1944 images.
+ *
+ * Each image is decoded once, with ImageIO source subsampling: the decoder skips rows
+ * and columns so only an image about twice the width of the largest variant is held in
+ * memory, never the full resolution image. The variants are then scaled down from it
+ * in steps of at most one half, largest first, and written as JPEG files next to the
+ * original, named with the variant width, for example "image_320.jpg".
+ *
+ * Images are processed on a bounded pool of worker threads, one per processor core by
+ * default. When the pool and its queue are full, the thread submitting an image
+ * processes it itself, which slows the submitter instead of queueing images without
+ * limit.
+ *
+ *     JpegVariantPipeline variants = new JpegVariantPipeline(1024, 320, 160);
+ *     RaspberryPiCameraExecutor executor = new RaspberryPiCameraExecutor();
+ *     CompletableFuture<List<File>> files =
+ *         executor.submit(camera.captureRequest("a.jpg")).thenCompose(variants::submit);
+ *     ...
+ *     variants.shutdown();
+ *
+ */
+package eric.camera.raspberrypi;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+public class JpegVariantPipeline {
+
+	private final int[] widths;		//variant widths, largest first
+	private final float quality;	//jpeg quality of the variants (0.0 - 1.0)
+	private final ThreadPoolExecutor workers;
+
+	/**
+	 * Create a pipeline with one worker thread per processor core, a queue of 8 images
+	 * per worker and jpeg quality 85.
+	 * @param widths Widths in pixels of the variants (1 - 2592)
+	 */
+	public JpegVariantPipeline(int... widths) {
+		this(Runtime.getRuntime().availableProcessors(), 8*Runtime.getRuntime().availableProcessors(), 85, widths);
+	}
+
+	/**
+	 * Create a pipeline.
+	 * @param threads Number of worker threads (1 or more)
+	 * @param queueSize Number of images waiting for a worker before the submitter
+	 * processes images itself (1 or more)
+	 * @param quality Jpeg quality of the variants (0 - 100)
+	 * @param widths Widths in pixels of the variants (1 - 2592)
+	 */
+	public JpegVariantPipeline(int threads, int queueSize, int quality, int[] widths) {
+		if (threads < 1 || queueSize < 1) {
+			System.out.println("Error - number of worker threads and queue size must be 1 or more");
+			System.exit(-1);
+		}
+		if (quality < 0 || quality > 100) {
+			System.out.println("Error - variant jpeg quality must be in the range 0 to 100");
+			System.exit(-1);
+		}
+		if (widths.length == 0) {
+			System.out.println("Error - at least one variant width is required");
+			System.exit(-1);
+		}
+		for (int width: widths) {
+			if (width < 1 || width > 2592) {
+				System.out.println("Error - variant width must be in the range 1 to 2592 pixels");
+				System.exit(-1);
+			}
+		}
+		this.widths = widths.clone();
+		Arrays.sort(this.widths);
+		for (int i=0; i<this.widths.length/2; i++) {
+			int swap = this.widths[i];
+			this.widths[i] = this.widths[this.widths.length-1-i];
+			this.widths[this.widths.length-1-i] = swap;
+		}
+		this.quality = quality/100.0f;
+
+		final AtomicInteger count = new AtomicInteger();
+		workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "JpegVariantPipeline-" + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				},
+				new RejectedExecutionHandler() {
+					@Override
+					public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+						//after shutdown() the task would never run, reject it instead
+						if (executor.isShutdown()) throw new RejectedExecutionException("JpegVariantPipeline is shut down");
+						task.run();
+					}
+				});
+	}
+
+	/**
+	 * Queue an image for the worker threads.
+	 * @param jpeg JPEG image file
+	 * @return CompletableFuture that completes with the variant files, largest first, or
+	 * completes exceptionally if the image can not be read or a variant written, or if
+	 * the pipeline has been shut down
+	 */
+	public CompletableFuture<List<File>> submit(final File jpeg) {
+		final CompletableFuture<List<File>> files = new CompletableFuture<List<File>>();
+		try {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						files.complete(process(jpeg));
+					} catch (IOException | RuntimeException e) {
+						files.completeExceptionally(e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			files.completeExceptionally(e);
+		}
+		return files;
+	}
+
+	/**
+	 * Make the variants of an image on the calling thread.
+	 * @param jpeg JPEG image file
+	 * @return Variant files, largest first
+	 * @throws IOException if the image can not be read or a variant written
+	 */
+	public List<File> process(File jpeg) throws IOException {
+		BufferedImage image = read(jpeg, widths[0]);
+		List<File> files = new ArrayList<File>();
+		for (int width: widths) {
+			//never scale up a variant beyond the resolution of the original
+			width = Math.min(width, image.getWidth());
+			int height = Math.max(1, (int) Math.round((double) image.getHeight()*width/image.getWidth()));
+			image = scale(image, width, height);
+			File file = variantFile(jpeg, width);
+			write(image, file);
+			files.add(file);
+		}
+		return Collections.unmodifiableList(files);
+	}
+
+	/**
+	 * Decode an image, skipping rows and columns so the image is no more than about
+	 * twice the width needed. The full resolution image is never held in memory.
+	 * @param jpeg JPEG image file
+	 * @param width Largest width needed
+	 * @return Subsampled image
+	 * @throws IOException if the image can not be read
+	 */
+	private static BufferedImage read(File jpeg, int width) throws IOException {
+		ImageInputStream input = ImageIO.createImageInputStream(jpeg);
+		if (input == null) throw new IOException("Can not open image " + jpeg);
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+			if (!readers.hasNext()) throw new IOException("Not a readable image " + jpeg);
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(input, true, true);
+				int subsampling = Math.max(1, reader.getWidth(0)/(2*width));
+				ImageReadParam param = reader.getDefaultReadParam();
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+				return reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Scale an image down, halving it with bilinear interpolation until the last step is
+	 * at most one half, so no pixels are skipped.
+	 * @param image Image to scale
+	 * @param width Width of the scaled image
+	 * @param height Height of the scaled image
+	 * @return Scaled image, or the image itself if it already has the size
+	 */
+	private static BufferedImage scale(BufferedImage image, int width, int height) {
+		while (image.getWidth() != width || image.getHeight() != height) {
+			int w = Math.max(width, (image.getWidth() + 1)/2);
+			int h = Math.max(height, (image.getHeight() + 1)/2);
+			BufferedImage scaled = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+			Graphics2D g = scaled.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.drawImage(image, 0, 0, w, h, null);
+			g.dispose();
+			image = scaled;
+		}
+		return image;
+	}
+
+	private void write(BufferedImage image, File file) throws IOException {
+		ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+		ImageOutputStream output = ImageIO.createImageOutputStream(file);
+		if (output == null) throw new IOException("Can not create image " + file);
+		try {
+			writer.setOutput(output);
+			ImageWriteParam param = writer.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(quality);
+			writer.write(null, new IIOImage(image, null, null), param);
+		} finally {
+			writer.dispose();
+			output.close();
+		}
+	}
+
+	/**
+	 * Return the file of a variant: the image file name with "_" and the width added.
+	 * @param jpeg JPEG image file
+	 * @param width Width of the variant
+	 * @return Variant file in the directory of the image
+	 */
+	private static File variantFile(File jpeg, int width) {
+		String name = jpeg.getName();
+		int dot = name.lastIndexOf('.');
+		String base = (dot > 0) ? name.substring(0, dot) : name;
+		return new File(jpeg.getParentFile(), base + "_" + width + ".jpg");
+	}
+
+	/**
+	 * Return the number of images waiting for a worker thread.
+	 * @return images
+	 */
+	public int getQueued() {
+		return workers.getQueue().size();
+	}
+
+	/**
+	 * Stop accepting images. Queued images are still processed; images submitted later
+	 * complete exceptionally.
+	 */
+	public void shutdown() {
+		workers.shutdown();
+	}
+}
@@ -9,7 +9,9 @@
  * by raspistill.
  * 
  * Various methods are used to define the image characteristics such as the width, height, 
- * image quality, etc. Not all raspistill imaging options are used in this class
+ * image quality, etc. Not all raspistill imaging options are used in this class.
+ * The characteristics are kept as an immutable CameraSettings, which can also be built
+ * directly and set with setSettings().
  * 
  * Note that for an image sequence the image file name provide must contain the form 
  * "my_pics%04d.jpg" where "%04d" provides sequence-number formatting of the file name.
@@ -21,32 +23,16 @@
 package eric.camera.raspberrypi;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import eric.utility.CheckExecutable;
 
 public class RaspberryPiCamera 
 {
 	
-	//Fields used to specify raspistill command-line parameters
+	//Image settings used for the raspistill command-line parameters
+	private CameraSettings settings = CameraSettings.DEFAULT;
 	//The value -1 is an indicator to not set this parameter in the raspistill command
-	private int sharpness      = -1;
-	private int contrast       = -1;
-	private int brightness     = -1;
-	private int saturation     = -1;
-	private int iso            = -1;
-	private int ev             = -1;   //exposure compensation
-	private String exposure    = null; //exposure mode 
-	private String awb         = null; //automatic white balance
-	private String metering    = null; //type of metering
-	private int rotation       = -1; 
-	private boolean hflip      = false; //flip image horizontally
-	private boolean vflip      = false; //flip image vertically	
-	private boolean roiFlag    = false;
-	private float[] roi        = {0.0f, 0.0f, 1.0f, 1.0f}; //roi (region of interest) specification
-	private int shutter        = -1; //shutter time in microseconds
-	private String drc         = null; //Dynamic range compression	
-	private int width          = -1;  		
-	private int height         = -1;  		
-	private int quality        = -1;
 	private int timeOut        = -1; //raspistill will take images for this length of time (milliseconds)
 	private int timeLapse      = -1; //time between images in sequence (milliseconds) 0=next image taken immediately
 	
@@ -56,6 +42,7 @@ public class RaspberryPiCamera
 	private boolean verbose = false; //print information about commanding
 	private String imageFile; 	//name of image file or image file sequence;
 	private String program;     //name of raspistill program
+	private String videoProgram = "/usr/bin/raspivid"; //name of raspivid program used for streaming
 	private boolean directoryFlag = false; //add directory specification to image file name
 	private String  directoryTree;  //directory location to store image files
 		
@@ -86,28 +73,7 @@ public class RaspberryPiCamera
 	 * Reset default raspistill parameters.
 	 */
 	public void resetDefaults() {
-		sharpness   = -1;
-		contrast    = -1;
-		brightness  = -1;
-		saturation  = -1;
-		iso         = -1;
-		ev          = -1;
-		exposure    = null;
-		awb         = null;
-		metering    = null;
-		rotation    = -1;
-		hflip       = false;
-		vflip       = false;
-		roiFlag     = false;
-		roi[0]      = 0.0f;
-		roi[1]      = 0.0f;
-		roi[2]      = 0.0f;
-		roi[3]      = 0.0f;
-		shutter     = -1;
-		drc         = null;		
-		width 		= -1;
-		height 		= -1;
-		quality		= -1;
+		settings    = CameraSettings.DEFAULT;
 		timeOut     = -1;
 		timeLapse   = -1;
 		imageFile	= null;	
@@ -127,31 +93,17 @@ public class RaspberryPiCamera
 			this.imageFile = directoryTree + "/" + this.imageFile;
 		}
 		
-		command = program + " ";
-		if (width       != -1) 	command = command + "--width "      + String.valueOf(width)   + " ";
-		if (height      != -1) 	command = command + "--height "     + String.valueOf(height)  + " ";
-		if (quality     != -1) 	command = command + "--quality "    + String.valueOf(quality) + " ";
-		if (sharpness   != -1) 	command = command + "--sharpness "  + String.valueOf(sharpness) + " ";
-		if (contrast    != -1) 	command = command + "--contrast "   + String.valueOf(contrast) + " ";
-		if (brightness  != -1) 	command = command + "--brightness " + String.valueOf(brightness) + " ";
-		if (saturation  != -1) 	command = command + "--saturation " + String.valueOf(saturation) + " ";
-		if (iso         != -1) 	command = command + "--ISO "        + String.valueOf(iso) + " ";
-		if (ev          != -1) 	command = command + "--ev "         + String.valueOf(ev) + " ";
-		if (exposure  != null) 	command = command + "--exposure "   + exposure + " ";
-		if (awb       != null) 	command = command + "--exposure "   + awb + " ";
-		if (metering  != null) 	command = command + "--metering "   + metering + " ";
-		if (rotation    != -1) 	command = command + "--rotation "   + String.valueOf(rotation) + " ";
-		if (hflip)				command = command + "--hflip ";
-		if (vflip)				command = command + "--vflip ";		
-		if (roiFlag) 			command = command + "--roi "
-											+String.valueOf(roi[0])+","
-											+String.valueOf(roi[1])+","
-											+String.valueOf(roi[2])+","
-											+String.valueOf(roi[3])+" ";
-		if (shutter   != -1)    command = command + "--shutter "    + String.valueOf(shutter) + " ";
-		if (drc       != null)  command = command + "--drc "        + drc + " ";
-		if (timeOut   != -1)    command = command + "--timeout "    + String.valueOf(timeOut) + " ";
-		if (timeLapse != -1)    command = command + "--timelapse " + String.valueOf(timeLapse) + " ";
+		List<String> arguments = new ArrayList<String>();
+		arguments.add(program);
+		arguments.addAll(settings.getStillArguments());
+		if (timeOut   != -1) {
+			arguments.add("--timeout");
+			arguments.add(String.valueOf(timeOut));
+		}
+		if (timeLapse != -1) {
+			arguments.add("--timelapse");
+			arguments.add(String.valueOf(timeLapse));
+		}
 
 		//if image file name not available and image sequence specified the create this file name
 		if (this.imageFile == null && timeOut != -1 && timeLapse != -1) {
@@ -163,18 +115,26 @@ public class RaspberryPiCamera
 		}
 		
 		if (timeOut != -1 && timeLapse != -1) {
-			if (imageFile.indexOf('%') == -1) {
+			if (this.imageFile.indexOf('%') == -1) {
 				System.out.println("Error - file name must contain sequence designation '%XXd'");
 				System.exit(-1);
 			}
 		}
 		
 		
-		command = command + "--output " + this.imageFile + " ";
+		arguments.add("--output");
+		arguments.add(this.imageFile);
+		command = String.join(" ", arguments);
+		
+		//only one raspistill can use the camera, do not orphan an acquisition in progress
+		if (pCamera != null && pCamera.isAlive()) {
+			if (verbose) System.out.println("Waiting for the previous image acquisition to end");
+			waitfor();
+		}
 		
 		if (verbose) System.out.println(command);
 		try {
-			pCamera = Runtime.getRuntime().exec(command);
+			pCamera = new ProcessBuilder(arguments).start();
 		} catch (IOException e) {
 			System.out.println("Error - Something wrong with RaspberryPiCamera.getImaging()");
 			e.printStackTrace();
@@ -182,6 +142,97 @@ public class RaspberryPiCamera
 		
 	}
 	
+	/**
+	 * Create a capture request for RaspberryPiCameraExecutor. The request holds a snapshot
+	 * of the image settings of this camera, so later changes to the settings do not affect it.
+	 * The timeout setting is the delay before the image is taken; the timelapse setting is not used.
+	 * @param imageFile Name of output image file, placed in the directory set by directory()
+	 * if it has no path. null for "image.jpg".
+	 * @return RaspberryPiCaptureRequest 
+	 */
+	public RaspberryPiCaptureRequest captureRequest(String imageFile) {
+		if (imageFile == null) imageFile = "image.jpg";
+		if (imageFile.indexOf('%') != -1) {
+			System.out.println("Error - capture request file name can not contain '%'");
+			System.exit(-1);
+		}
+		if (directoryFlag && imageFile.indexOf("/") == -1) {
+			imageFile = directoryTree + "/" + imageFile;
+		}
+		List<String> request = new ArrayList<String>();
+		request.add(program);
+		request.addAll(settings.getStillArguments());
+		if (timeOut != -1) {
+			request.add("--timeout");
+			request.add(String.valueOf(timeOut));
+		}
+		request.add("--output");
+		request.add(imageFile);
+		return new RaspberryPiCaptureRequest(request, new File(imageFile));
+	}
+	
+	/**
+	 * Start a persistent capture session. The raspistill program is started once in its 
+	 * keypress mode and stays running; each RaspberryPiCameraSession.capture() triggers 
+	 * one image. The sensor warm-up and the exposure and white balance convergence happen 
+	 * once at the start of the session instead of for every image, so periodic captures 
+	 * take tens of milliseconds instead of seconds. The image settings of this camera 
+	 * (width, height, quality, exposure, ...) at the time of the call apply to the session;
+	 * the timeout and timelapse settings are not used.
+	 * 
+	 * Images are written to the directory set by directory() (else the current directory)
+	 * as the file name prefix followed by a 6 digit sequence number and ".jpg".
+	 * Be sure to call RaspberryPiCameraSession.close() to end the raspistill program.
+	 * 
+	 * @param imagePrefix File name prefix of the images, for example "inspect"
+	 * @return RaspberryPiCameraSession for triggering images
+	 */
+	public RaspberryPiCameraSession startSession(String imagePrefix) {
+		if (imagePrefix == null || imagePrefix.length() == 0 || imagePrefix.indexOf('/') != -1 
+				|| imagePrefix.indexOf('%') != -1) {
+			System.out.println("Error - session image prefix must be a file name without '/' or '%'");
+			System.exit(-1);
+		}
+		File dir = new File(directoryFlag ? directoryTree : ".");
+		return new RaspberryPiCameraSession(program, settings.getStillArguments(), dir, imagePrefix, verbose);
+	}
+	
+	/**
+	 * Start streaming JPEG frames at video rate with the raspivid program, without writing
+	 * files. Each frame is passed to the listener as a view of a reusable buffer (see 
+	 * RaspberryPiCameraStream). The image settings of this camera at the time of the call
+	 * apply to the stream, except the jpeg quality, timeout and timelapse settings.
+	 * Be sure to call RaspberryPiCameraStream.close() to end the raspivid program.
+	 * 
+	 * @param framerate Frames per second (1 - 90)
+	 * @param bufferSize Size of the frame buffer in bytes, at least two frames 
+	 * @param listener Receives the frames on the reader thread of the stream
+	 * @return RaspberryPiCameraStream 
+	 */
+	public RaspberryPiCameraStream startStream(int framerate, int bufferSize, RaspberryPiCameraStream.FrameListener listener) {
+		if (framerate < 1 || framerate > 90) {
+			System.out.println("Error - stream frame rate must be in the range 1 to 90 frames per second");
+			System.exit(-1);
+		}
+		if (bufferSize < 65536) {
+			System.out.println("Error - stream buffer size must be at least 65536 bytes");
+			System.exit(-1);
+		}
+		//make sure "raspivid" is properly installed
+		new CheckExecutable(videoProgram).ifNotExecutableKill();
+		return new RaspberryPiCameraStream(videoProgram, settings.getVideoArguments(), framerate, bufferSize, listener, verbose);
+	}
+	
+	/**
+	 * Start streaming JPEG frames with a 4 MB frame buffer.
+	 * @param framerate Frames per second (1 - 90)
+	 * @param listener Receives the frames on the reader thread of the stream
+	 * @return RaspberryPiCameraStream 
+	 */
+	public RaspberryPiCameraStream startStream(int framerate, RaspberryPiCameraStream.FrameListener listener) {
+		return startStream(framerate, 4*1024*1024, listener);
+	}
+	
 	/**
 	 * Wait for end of image acquisition. It takes about 5 seconds
 	 * to acquire an image.
@@ -222,6 +273,26 @@ public class RaspberryPiCamera
 		
 	}
 	
+	/**
+	 * Return the image settings.
+	 * @return Immutable CameraSettings
+	 */
+	public CameraSettings getSettings() {
+		return settings;
+	}
+	
+	/**
+	 * Replace the image settings. The timeout and timelapse settings are not changed.
+	 * @param settings Immutable CameraSettings, see CameraSettings.builder()
+	 */
+	public void setSettings(CameraSettings settings) {
+		if (settings == null) {
+			System.out.println("Error - camera settings can not be null");
+			System.exit(-1);
+		}
+		this.settings = settings;
+	}
+	
 	/**
 	 * Set the width and height of the image to be acquired.
 	 * Note: when setting width and height be sure to make the
@@ -232,16 +303,7 @@ public class RaspberryPiCamera
 	 * @param height Height in pixels of acquired image (1 - 1944)
 	 */
 	public void setWidthHeight(int width, int height) {
-		if (width < 1 || width > 2592) {
-			System.out.println("Error - image width be in the range 1 to 2592 pixels");
-			System.exit(-1);
-		}
-		if (height < 1 || height > 1944 ) {
-			System.out.println("Error - image width be in the range 1 to 1944 pixels");
-			System.exit(-1);
-		}
-		this.width =  width;
-		this.height = height;
+		settings = settings.toBuilder().setWidthHeight(width, height).build();
 	}
 	
 	/**
@@ -249,11 +311,7 @@ public class RaspberryPiCamera
 	 * @param quality Jpeg quality value (0-100)
 	 */
 	public void setQuality(int quality) {
-		if (quality < 0 || quality > 100){
-			System.out.println("Error - image quality must be in the range 0 to 100");
-			System.exit(-1);	
-		}
-		this.quality = quality;
+		settings = settings.toBuilder().setQuality(quality).build();
 	}
 	
 	/**
@@ -261,11 +319,7 @@ public class RaspberryPiCamera
 	 * @param sharpness Image Sharpness level value (-100 - 100)
 	 */
 	public void setSharpness(int sharpness) {
-		if (sharpness < -100 || sharpness > 100){
-			System.out.println("Error - image sharpness must be in the range -100 to 100");
-			System.exit(-1);	
-		}
-		this.sharpness = sharpness;
+		settings = settings.toBuilder().setSharpness(sharpness).build();
 	}
 	
 	/**
@@ -273,11 +327,7 @@ public class RaspberryPiCamera
 	 * @param contrast  Image contrast value (-100 to 100)
 	 */
 	public void setContrast(int contrast) {
-		if (contrast < -100 || contrast > 100){
-			System.out.println("Error - image contrast must be in the range -100 to 100");
-			System.exit(-1);	
-		}
-		this.contrast = contrast;
+		settings = settings.toBuilder().setContrast(contrast).build();
 	}
 	
 	/**
@@ -285,11 +335,7 @@ public class RaspberryPiCamera
 	 * @param brightness Image brightness level (0 - 100)
 	 */
 	public void setBrightness(int brightness) {
-		if (brightness < 0 || brightness > 100){
-			System.out.println("Error - image brightness must be in the range -100 to 100");
-			System.exit(-1);	
-		}
-		this.brightness = brightness;
+		settings = settings.toBuilder().setBrightness(brightness).build();
 	}
 
 	/**
@@ -297,11 +343,7 @@ public class RaspberryPiCamera
 	 * @param saturation Image saturation value (-100 - 100)
 	 */
 	public void setSaturation(int saturation) {
-		if (saturation < -100 || saturation > 100){
-			System.out.println("Error - image saturation must be in the range -100 to 100");
-			System.exit(-1);	
-		}
-		this.saturation = saturation;
+		settings = settings.toBuilder().setSaturation(saturation).build();
 	}
 	
 	/**
@@ -309,11 +351,7 @@ public class RaspberryPiCamera
 	 * @param iso Camera ISO value (100 - 800)
 	 */
 	public void setISO(int iso) {
-		if (iso < 100 || iso > 800){
-			System.out.println("Error - image ISO must be in the range 100 to 800");
-			System.exit(-1);	
-		}
-		this.iso = iso;
+		settings = settings.toBuilder().setISO(iso).build();
 	}
 	
 	/**
@@ -321,11 +359,7 @@ public class RaspberryPiCamera
 	 * @param ev Image exposure compensation value  (-10 - 10)
 	 */
 	public void setEV(int ev) {
-		if (ev < -10 || ev > 10){
-			System.out.println("Error - image EV must be in the range -10 to 10");
-			System.exit(-1);	
-		}
-		this.ev = ev;
+		settings = settings.toBuilder().setEV(ev).build();
 	}
 	
 	/**
@@ -336,22 +370,7 @@ public class RaspberryPiCamera
 	 * 
 	 */
 	public void setExposureMode(String exposure) {
-		
-		//permitted values for the exposure mode
-		String modeValues[] ={"auto", "night", "nightpreview", "backlight", "spotlight",
-				"sports", "snow", "beach", "verylong", "fixedfps", "antishake", "fireworks"};
-		boolean exposureOk;
-		
-		exposureOk = false;
-		for (String s: modeValues) if (exposure == s) exposureOk = true;
-				
-		if (!exposureOk)
-		{
-			System.out.println("Error - image eposure mode permitted values:");
-			for (String s: modeValues) System.out.println(s);			
-			System.exit(-1);	
-		}
-		this.exposure = exposure;
+		settings = settings.toBuilder().setExposureMode(exposure).build();
 	}	
 
 	/**
@@ -360,22 +379,7 @@ public class RaspberryPiCamera
 	 * "tungsten", "fluorescent", "incandescent", "flash", "horizon"
 	 */
 	public void setAwb(String awb) {
-		
-		//permitted values for the exposure mode
-		String awbValues[] ={"off", "auto", "sun", "shade", "tungsten", "fluorescent", 
-				"incandescent", "flash", "horizon"};
-		boolean awbOk;
-		
-		awbOk = false;
-		for (String s: awbValues) if (awb == s) awbOk = true;
-				
-		if (!awbOk)
-		{
-			System.out.println("Error - image eposure mode permitted values:");
-			for (String s: awbValues) System.out.println(s);			
-			System.exit(-1);	
-		}
-		this.awb = awb;
+		settings = settings.toBuilder().setAwb(awb).build();
 	}
 	
 	/**
@@ -384,21 +388,7 @@ public class RaspberryPiCamera
 	 * "spot", "backlit", "matrix"
 	 */
 	public void setMetering(String metering) {
-		
-		//permitted values for the metering mode
-		String meteringValues[] ={"average", "spot", "backlit", "matrix"};
-		boolean meteringOk;
-		
-		meteringOk = false;
-		for (String s: meteringValues) if (metering == s) meteringOk = true;
-				
-		if (!meteringOk)
-		{
-			System.out.println("Error - image eposure mode permitted values:");
-			for (String s: meteringValues) System.out.println(s);			
-			System.exit(-1);	
-		}
-		this.metering = metering;
+		settings = settings.toBuilder().setMetering(metering).build();
 	}
 	
 	/**
@@ -406,25 +396,21 @@ public class RaspberryPiCamera
 	 * @param rotation Rotate image in degrees.  Permitted values: 0, 90, 180, 270
 	 */
 	public void setRotation(int rotation) {
-		if (rotation != 0 && rotation  != 90 && rotation != 180 && rotation != 270){
-			System.out.println("Error - image roation must 0, 90, 180,270");
-			System.exit(-1);	
-		}
-		this.rotation = rotation;
+		settings = settings.toBuilder().setRotation(rotation).build();
 	}
 	
 	/**
 	 * Flip image horizontally
 	 */
 	public void setHflip() {
-		this.hflip = true;
+		settings = settings.toBuilder().setHflip(true).build();
 	}
 	
 	/**
 	 * Flip image vertically
 	 */
 	public void setVflip() {
-		this.vflip = true;
+		settings = settings.toBuilder().setVflip(true).build();
 	}
 	
 	/**
@@ -434,19 +420,7 @@ public class RaspberryPiCamera
 	 * Values are in the range 0.0f to 1.0f.
 	 */
 	public void setRoi(float[] roi) {
-		roiFlag = true;
-		if (roi.length != 4) {
-			System.out.println("Error - must provide exactly 4 values for roi (region of interest) ");
-			System.exit(-1);	
-		}
-		for (float x: roi) {
-			if (x < 0.0 || x > 1.0) {
-				System.out.println("Error - roi (region of interest) values must be in range 0.0 - 1.0");
-				System.exit(-1);	
-			}
-		}
-		
-		this.roi = roi;
+		settings = settings.toBuilder().setRoi(roi).build();
 	}
 	
 	/**
@@ -455,21 +429,7 @@ public class RaspberryPiCamera
 	 * @param drc Dynamic range compression. Options: "off", "low", "medium", "high"
 	 */
 	public void setDrc(String drc) {
-		
-		//permitted values for the drc mode
-		String drcValues[] ={"off", "low", "medium", "high"};
-		boolean drcOk;
-		
-		drcOk = false;
-		for (String s: drcValues) if (drc == s) drcOk = true;
-				
-		if (!drcOk)
-		{
-			System.out.println("Error - image drc (dynamic range compression) mode permitted values:");
-			for (String s: drcValues) System.out.println(s);			
-			System.exit(-1);	
-		}
-		this.drc = drc;
+		settings = settings.toBuilder().setDrc(drc).build();
 	}
 	
 	/**
@@ -477,11 +437,7 @@ public class RaspberryPiCamera
 	 * @param shutter Exposure duration in microseconds (1 - 6000000) 
 	 */
 	public void setShutter(int shutter) {
-		if (shutter < 1 || shutter > 6000000 ){
-			System.out.println("Error - shutter time (microseconds) must be in range 0 to 6.0 seconds");
-			System.exit(-1);	
-		}
-		this.shutter = shutter;
+		settings = settings.toBuilder().setShutter(shutter).build();
 	}
 	
 	/**
@@ -0,0 +1,258 @@
+/**
+ * The RaspberryPiCameraExecutor class takes images asynchronously. Capture requests
+ * (RaspberryPiCamera.captureRequest()) are queued and a CompletableFuture is returned
+ * at once, completing with the image file when raspistill has written it.
+ *
+ * The camera can only be used by one raspistill program at a time, so the requests
+ * are run one after the other on a single capture thread; a queue of requests keeps
+ * the camera continuously busy. The output of each raspistill program is read while
+ * it runs so it never blocks on a full pipe.
+ *
+ * Post-processing of an image (for example analysis or upload) runs on a separate pool
+ * of threads, so the camera starts the next image while earlier images are processed.
+ *
+ *     RaspberryPiCameraExecutor executor = new RaspberryPiCameraExecutor();
+ *     camera.setWidthHeight(1296, 972);
+ *     CompletableFuture<File> image = executor.submit(camera.captureRequest("a.jpg"));
+ *     CompletableFuture<Long> size = executor.submit(camera.captureRequest("b.jpg"), File::length);
+ *     ...
+ *     executor.shutdown();
+ *
+ */
+package eric.camera.raspberrypi;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+public class RaspberryPiCameraExecutor {
+
+	private final ExecutorService capture;		//runs raspistill, one image at a time
+	private final ExecutorService post;			//runs the post-processing of images
+	private final AtomicInteger queued = new AtomicInteger();
+	private final boolean verbose;
+	private volatile Process running;			//raspistill taking the current image
+
+	/**
+	 * Create an executor with one post-processing thread.
+	 */
+	public RaspberryPiCameraExecutor() {
+		this(1, false);
+	}
+
+	/**
+	 * Create an executor.
+	 * @param postThreads Number of post-processing threads (1 or more)
+	 * @param verbose Verbose flag for printing status information
+	 */
+	public RaspberryPiCameraExecutor(int postThreads, boolean verbose) {
+		if (postThreads < 1) {
+			System.out.println("Error - number of post-processing threads must be 1 or more");
+			System.exit(-1);
+		}
+		this.verbose = verbose;
+		capture = Executors.newSingleThreadExecutor(daemonThreads("RaspberryPiCameraExecutor-capture"));
+		post = Executors.newFixedThreadPool(postThreads, daemonThreads("RaspberryPiCameraExecutor-post"));
+	}
+
+	private static ThreadFactory daemonThreads(final String name) {
+		final AtomicInteger count = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Queue a capture request.
+	 * @param request Capture request
+	 * @return CompletableFuture that completes with the image file, or completes exceptionally
+	 * if raspistill fails. Cancelling the future before the capture starts skips it.
+	 */
+	public CompletableFuture<File> submit(RaspberryPiCaptureRequest request) {
+		CompletableFuture<File> image = new CompletableFuture<File>();
+		queued.incrementAndGet();
+		try {
+			capture.execute(new Capture(request, image));
+		} catch (RejectedExecutionException e) {
+			queued.decrementAndGet();
+			image.completeExceptionally(e);
+		}
+		return image;
+	}
+
+	/**
+	 * A queued capture request.
+	 */
+	private class Capture implements Runnable {
+		private final RaspberryPiCaptureRequest request;
+		private final CompletableFuture<File> image;
+		
+		Capture(RaspberryPiCaptureRequest request, CompletableFuture<File> image) {
+			this.request = request;
+			this.image = image;
+		}
+		
+		@Override
+		public void run() {
+			queued.decrementAndGet();
+			if (!image.isDone()) take(request, image);
+		}
+	}
+
+	/**
+	 * Queue a capture request followed by post-processing of the image. The post-processing
+	 * runs on a post-processing thread while the camera takes the next images.
+	 * @param request Capture request
+	 * @param postProcess Function applied to the image file
+	 * @return CompletableFuture that completes with the result of the post-processing, or
+	 * completes exceptionally if the capture or the post-processing fails, or if the 
+	 * executor is shut down before the post-processing runs
+	 */
+	public <T> CompletableFuture<T> submit(RaspberryPiCaptureRequest request, final Function<File,T> postProcess) {
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		submit(request).whenComplete(new BiConsumer<File,Throwable>() {
+			@Override
+			public void accept(File image, Throwable error) {
+				if (error != null) {
+					result.completeExceptionally(error);
+					return;
+				}
+				try {
+					post.execute(new PostProcess<T>(image, postProcess, result));
+				} catch (RejectedExecutionException e) {
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		return result;
+	}
+	
+	/**
+	 * Post-processing of a captured image.
+	 */
+	private static class PostProcess<T> implements Runnable {
+		private final File image;
+		private final Function<File,T> postProcess;
+		private final CompletableFuture<T> result;
+		
+		PostProcess(File image, Function<File,T> postProcess, CompletableFuture<T> result) {
+			this.image = image;
+			this.postProcess = postProcess;
+			this.result = result;
+		}
+		
+		@Override
+		public void run() {
+			if (result.isDone()) return;
+			try {
+				result.complete(postProcess.apply(image));
+			} catch (RuntimeException e) {
+				result.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * Run raspistill for a request on the capture thread.
+	 * @param request Capture request
+	 * @param image Future of the image
+	 */
+	private void take(RaspberryPiCaptureRequest request, CompletableFuture<File> image) {
+		if (verbose) System.out.println(request);
+		Process p = null;
+		try {
+			ProcessBuilder builder = new ProcessBuilder(request.getCommand());
+			builder.redirectErrorStream(true);
+			p = builder.start();
+			running = p;
+
+			//read the output until raspistill ends, keeping the last line for the error report
+			BufferedReader output = new BufferedReader(new InputStreamReader(p.getInputStream()));
+			String line, lastLine = null;
+			while ((line = output.readLine()) != null) {
+				if (verbose) System.out.println("raspistill: " + line);
+				if (line.trim().length() > 0) lastLine = line;
+			}
+			int exitValue = p.waitFor();
+			if (exitValue == 0) image.complete(request.getOutput());
+			else image.completeExceptionally(new IOException("raspistill exit value " + exitValue
+					+ ((lastLine == null) ? "" : ": " + lastLine)));
+		} catch (IOException e) {
+			image.completeExceptionally(e);
+		} catch (InterruptedException e) {
+			p.destroy();
+			image.completeExceptionally(e);
+			Thread.currentThread().interrupt();
+		} finally {
+			running = null;
+		}
+	}
+
+	/**
+	 * Return the number of capture requests waiting for the camera.
+	 * @return requests
+	 */
+	public int getQueued() {
+		return queued.get();
+	}
+
+	/**
+	 * Stop accepting requests. The queued requests and their post-processing still run.
+	 */
+	public synchronized void shutdown() {
+		if (capture.isShutdown()) return;
+		//the post-processing of the last image is queued before this task runs
+		capture.execute(new Runnable() {
+			@Override
+			public void run() {
+				post.shutdown();
+			}
+		});
+		capture.shutdown();
+	}
+
+	/**
+	 * Stop accepting requests, terminate the image in progress and cancel the futures of
+	 * the queued requests and of the queued post-processing.
+	 */
+	public synchronized void shutdownNow() {
+		for (Runnable task: capture.shutdownNow()) {
+			if (task instanceof Capture) {
+				queued.decrementAndGet();
+				((Capture) task).image.cancel(false);
+			}
+		}
+		for (Runnable task: post.shutdownNow()) {
+			if (task instanceof PostProcess) ((PostProcess<?>) task).result.cancel(false);
+		}
+		Process p = running;
+		if (p != null) p.destroy();
+	}
+
+	/**
+	 * Wait for the requests to finish after shutdown().
+	 * @param milliseconds Maximum time to wait
+	 * @return true if all requests and post-processing finished
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean awaitTermination(long milliseconds) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(milliseconds);
+		if (!capture.awaitTermination(milliseconds, TimeUnit.MILLISECONDS)) return false;
+		return post.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+	}
+}
@@ -0,0 +1,262 @@
+/**
+ * The RaspberryPiCameraSession class keeps one "raspistill" program running in its
+ * keypress mode and triggers an image each time capture() is called. Sessions are
+ * started with RaspberryPiCamera.startSession().
+ *
+ * Starting raspistill for every image costs seconds of sensor warm-up and of automatic
+ * exposure and white balance convergence. A session pays this once: each capture() only
+ * sends an ENTER to the standard input of raspistill, which takes the next image with
+ * the camera already running.
+ *
+ * capture() returns at once with a CompletableFuture that completes with the image file
+ * when raspistill has finished writing it. raspistill writes each image to a temporary
+ * file and renames it when complete; a watch service on the image directory reports the
+ * rename. Images complete in the order they were triggered.
+ *
+ *     RaspberryPiCamera camera = new RaspberryPiCamera();
+ *     camera.setWidthHeight(1296, 972);
+ *     RaspberryPiCameraSession session = camera.startSession("inspect");
+ *     File image = session.capture().get();
+ *     ...
+ *     session.close();
+ *
+ * For more information on the raspistill program see the documentation here:
+ * https://www.raspberrypi.org/documentation/raspbian/applications/camera.md
+ *
+ */
+package eric.camera.raspberrypi;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+public class RaspberryPiCameraSession {
+
+	private Process pCamera;
+	private OutputStream keypress;		//standard input of raspistill
+	private WatchService watcher;		//reports the images written
+	private final File directory;		//directory of the images
+	private final String imagePrefix;	//file name prefix of the images
+	private final boolean verbose;
+	private volatile boolean closed = false;
+
+	//Images triggered and not yet written, in trigger order
+	private final ConcurrentLinkedQueue<CompletableFuture<File>> pending =
+			new ConcurrentLinkedQueue<CompletableFuture<File>>();
+
+	/**
+	 * Start raspistill in keypress mode.
+	 * @param program raspistill program
+	 * @param options raspistill image arguments
+	 * @param directory Directory of the images
+	 * @param imagePrefix File name prefix of the images
+	 * @param verbose Verbose flag for printing status information
+	 */
+	RaspberryPiCameraSession(String program, List<String> options, File directory, String imagePrefix, boolean verbose) {
+		this.directory = directory;
+		this.imagePrefix = imagePrefix;
+		this.verbose = verbose;
+
+		List<String> command = new ArrayList<String>();
+		command.add(program);
+		command.addAll(options);
+		command.addAll(Arrays.asList("--timeout", "0", "--keypress", "--output", 
+				new File(directory, imagePrefix + "%06d.jpg").getPath()));
+		if (verbose) System.out.println(String.join(" ", command));
+
+		try {
+			//Watch the directory before raspistill can write the first image
+			watcher = FileSystems.getDefault().newWatchService();
+			directory.toPath().register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.redirectErrorStream(true);
+			pCamera = builder.start();
+			keypress = pCamera.getOutputStream();
+		} catch (IOException e) {
+			System.out.println("Error - Something wrong with starting the RaspberryPiCameraSession");
+			e.printStackTrace();
+			closed = true;
+			closeWatcher();
+			return;
+		}
+
+		Thread watchThread = new Thread("RaspberryPiCameraSession-watch") {
+			@Override
+			public void run() {
+				watchImages();
+			}
+		};
+		watchThread.setDaemon(true);
+		watchThread.start();
+
+		Thread outputThread = new Thread("RaspberryPiCameraSession-output") {
+			@Override
+			public void run() {
+				readOutput();
+			}
+		};
+		outputThread.setDaemon(true);
+		outputThread.start();
+	}
+
+	/**
+	 * Trigger an image.
+	 * @return CompletableFuture that completes with the image file when it has been
+	 * written, or completes exceptionally if raspistill ends first
+	 */
+	public synchronized CompletableFuture<File> capture() {
+		CompletableFuture<File> image = new CompletableFuture<File>();
+		if (closed || !pCamera.isAlive()) {
+			image.completeExceptionally(new IOException("raspistill session is not running"));
+			return image;
+		}
+		pending.add(image);
+		try {
+			keypress.write('\n');
+			keypress.flush();
+		} catch (IOException e) {
+			pending.remove(image);
+			image.completeExceptionally(e);
+		}
+		return image;
+	}
+
+	/**
+	 * Is the raspistill program running?
+	 * @return true if images can be captured
+	 */
+	public boolean isAlive() {
+		return !closed && pCamera.isAlive();
+	}
+
+	/**
+	 * Return the number of images triggered and not yet written.
+	 * @return number of images
+	 */
+	public int getPending() {
+		return pending.size();
+	}
+
+	/**
+	 * End the raspistill program. Waits up to 5 seconds for images still being written,
+	 * then terminates the program. Images not written complete exceptionally.
+	 */
+	public synchronized void close() {
+		if (closed) return;
+		closed = true;
+		try {
+			//'x' followed by ENTER ends raspistill keypress mode
+			keypress.write("x\n".getBytes());
+			keypress.flush();
+			keypress.close();
+		} catch (IOException e) {
+			//raspistill has already ended
+		}
+		try {
+			if (!pCamera.waitFor(5, TimeUnit.SECONDS)) pCamera.destroy();
+		} catch (InterruptedException e) {
+			pCamera.destroy();
+			Thread.currentThread().interrupt();
+		}
+		closeWatcher();
+		failPending();
+	}
+
+	/**
+	 * Complete the pending images in trigger order as raspistill renames them into place.
+	 */
+	private void watchImages() {
+		WatchService watcher = this.watcher;
+		if (watcher == null) return;
+		try {
+			while (true) {
+				WatchKey key = watcher.take();
+				for (WatchEvent<?> event: key.pollEvents()) {
+					if (event.kind() != StandardWatchEventKinds.ENTRY_CREATE) continue;
+					String name = ((Path) event.context()).getFileName().toString();
+					if (!isImage(name)) continue;
+					CompletableFuture<File> image = pending.poll();
+					if (image != null) image.complete(new File(directory, name));
+					else if (verbose) System.out.println("Image not triggered by this session: " + name);
+				}
+				if (!key.reset()) break;
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			//session closed
+		}
+		failPending();
+	}
+
+	/**
+	 * Is the file name a completed image of this session? The temporary file of an image
+	 * has the image name followed by '~'.
+	 * @param name File name
+	 * @return true for an image
+	 */
+	private boolean isImage(String name) {
+		if (!name.startsWith(imagePrefix) || !name.endsWith(".jpg")) return false;
+		String number = name.substring(imagePrefix.length(), name.length() - 4);
+		if (number.length() == 0) return false;
+		for (int i=0; i<number.length(); i++) {
+			if (!Character.isDigit(number.charAt(i))) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Read the output of raspistill, so the program never blocks on a full pipe.
+	 * When raspistill ends the pending images fail.
+	 */
+	private void readOutput() {
+		try {
+			BufferedReader output = new BufferedReader(new InputStreamReader(pCamera.getInputStream()));
+			String line;
+			while ((line = output.readLine()) != null) {
+				if (verbose) System.out.println("raspistill: " + line);
+			}
+		} catch (IOException e) {
+			//stream closed when raspistill ended
+		}
+		try {
+			pCamera.waitFor();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (!closed) System.out.println("Error - raspistill session ended, exit value: " + pCamera.exitValue());
+		closeWatcher();
+		failPending();
+	}
+
+	private synchronized void closeWatcher() {
+		if (watcher == null) return;
+		try {
+			watcher.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		watcher = null;
+	}
+
+	private void failPending() {
+		CompletableFuture<File> image;
+		while ((image = pending.poll()) != null) {
+			image.completeExceptionally(new IOException("raspistill session ended before the image was written"));
+		}
+	}
+}
@@ -0,0 +1,356 @@
+/**
+ * The RaspberryPiCameraStream class streams JPEG frames from the Raspberry Pi camera
+ * at video rate without writing files. Streams are started with
+ * RaspberryPiCamera.startStream().
+ *
+ * The "raspivid" program is run with the MJPEG codec and its output sent to standard
+ * output ("-o -"). A reader thread reads the output into a reusable direct ByteBuffer
+ * and splits it into frames at the JPEG start of image (SOI) and end of image (EOI)
+ * markers. The marker segments of each frame are skipped by their length, so an EOI
+ * inside an embedded thumbnail does not end the frame.
+ *
+ * Each frame is passed to the FrameListener as a read-only view of the buffer, without
+ * copying. The view is only valid until the listener returns: the buffer is reused for
+ * the following frames, so a listener that keeps a frame must copy it. When the buffer
+ * is full the partial frame at its end is moved to its start, so frames are always
+ * contiguous. Reading and splitting frames does not allocate memory.
+ *
+ *     RaspberryPiCamera camera = new RaspberryPiCamera();
+ *     camera.setWidthHeight(640, 480);
+ *     RaspberryPiCameraStream stream = camera.startStream(30, (jpeg, sequence, nanoTime) -> {
+ *         //jpeg holds the frame between its position and limit
+ *     });
+ *     ...
+ *     stream.close();
+ *
+ * For more information on the raspivid program see the documentation here:
+ * https://www.raspberrypi.org/documentation/raspbian/applications/camera.md
+ *
+ */
+package eric.camera.raspberrypi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class RaspberryPiCameraStream {
+
+	/**
+	 * Receives the frames of a stream on the reader thread of the stream.
+	 */
+	public interface FrameListener {
+		/**
+		 * A frame has been read.
+		 * @param jpeg Read-only view of the JPEG frame between its position and limit,
+		 * valid until this method returns
+		 * @param sequence Frame number, starting at 0
+		 * @param nanoTime System.nanoTime() when the end of the frame was read
+		 */
+		void frame(ByteBuffer jpeg, long sequence, long nanoTime);
+	}
+
+	//JPEG markers
+	private static final int MARKER = 0XFF;
+	private static final int SOI = 0XD8;
+	private static final int EOI = 0XD9;
+	private static final int SOS = 0XDA;
+	private static final int RST0 = 0XD0;
+	private static final int RST7 = 0XD7;
+	private static final int TEM = 0X01;
+
+	//States of the frame splitter
+	private static final int SEEK_SOI = 0;	//between frames, looking for SOI
+	private static final int SEGMENT  = 1;	//expecting a marker
+	private static final int SKIP     = 2;	//skipping the contents of a marker segment
+	private static final int SCAN     = 3;	//in entropy coded data, looking for a marker
+
+	private final ByteBuffer ring;		//reusable frame buffer
+	private final ByteBuffer view;		//read-only view passed to the listener
+	private final int capacity;
+	private final FrameListener listener;
+	private final boolean verbose;
+
+	private Process pCamera;
+	private Thread readerThread;
+	private volatile boolean closed = false;
+
+	//Frame splitter, indexes into the ring
+	private int state = SEEK_SOI;
+	private int write = 0;			//end of the bytes read
+	private int scan = 0;			//next byte to examine
+	private int frameStart = -1;	//start of the frame being read, -1 between frames
+	private int skipTo = 0;			//end of the marker segment being skipped
+	private int afterSkip = SEGMENT;	//state after the skip
+
+	//Statistics
+	private volatile long frames = 0;
+	private volatile long dropped = 0;
+	private volatile long bytes = 0;
+
+	/**
+	 * Start raspivid streaming MJPEG to standard output.
+	 * @param program raspivid program
+	 * @param options raspivid image arguments
+	 * @param framerate Frames per second
+	 * @param bufferSize Size of the frame buffer in bytes, at least two frames
+	 * @param listener Receives the frames
+	 * @param verbose Verbose flag for printing status information
+	 */
+	RaspberryPiCameraStream(String program, List<String> options, int framerate, int bufferSize,
+			FrameListener listener, boolean verbose) {
+		this(command(program, options, framerate), bufferSize, listener, verbose);
+	}
+	
+	private static List<String> command(String program, List<String> options, int framerate) {
+		List<String> command = new ArrayList<String>();
+		command.add(program);
+		command.addAll(options);
+		command.addAll(Arrays.asList("--codec", "MJPEG", "--framerate", String.valueOf(framerate), 
+				"--timeout", "0", "--output", "-"));
+		return command;
+	}
+
+	/**
+	 * Start a program writing a stream of JPEG frames to standard output.
+	 * @param command Program and its arguments
+	 * @param bufferSize Size of the frame buffer in bytes, at least two frames
+	 * @param listener Receives the frames
+	 * @param verbose Verbose flag for printing status information
+	 */
+	RaspberryPiCameraStream(List<String> command, int bufferSize, FrameListener listener, boolean verbose) {
+		this.capacity = bufferSize;
+		this.listener = listener;
+		this.verbose = verbose;
+		ring = ByteBuffer.allocateDirect(bufferSize);
+		view = ring.asReadOnlyBuffer();
+
+		if (verbose) System.out.println(String.join(" ", command));
+		try {
+			ProcessBuilder builder = new ProcessBuilder(command);
+			builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+			pCamera = builder.start();
+		} catch (IOException e) {
+			System.out.println("Error - Something wrong with starting the RaspberryPiCameraStream");
+			e.printStackTrace();
+			closed = true;
+			return;
+		}
+
+		final InputStream output = pCamera.getInputStream();
+		readerThread = new Thread("RaspberryPiCameraStream-reader") {
+			@Override
+			public void run() {
+				readFrames(Channels.newChannel(output));
+			}
+		};
+		readerThread.setDaemon(true);
+		readerThread.start();
+	}
+
+	/**
+	 * Read the program output into the ring and pass each complete frame to the listener.
+	 * @param channel Program output
+	 */
+	private void readFrames(ReadableByteChannel channel) {
+		ByteBuffer window = ring.duplicate();
+		try {
+			while (!closed) {
+				if (write == capacity) makeRoom();
+				window.limit(capacity);
+				window.position(write);
+				int n = channel.read(window);
+				if (n < 0) break;
+				write += n;
+				bytes += n;
+				split();
+			}
+		} catch (IOException e) {
+			if (!closed) {
+				System.out.println("Error - Something wrong with reading the RaspberryPiCameraStream");
+				e.printStackTrace();
+			}
+		}
+		if (!closed && verbose) System.out.println("raspivid stream ended");
+	}
+
+	/**
+	 * Move the unfinished bytes at the end of the full ring to its start. A frame that
+	 * fills the whole ring is dropped.
+	 */
+	private void makeRoom() {
+		int keep = (frameStart >= 0) ? frameStart : scan;
+		if (keep == 0) {
+			dropped++;
+			if (verbose) System.out.println("Error - JPEG frame larger than the stream buffer, frame dropped");
+			restart(0);
+			write = 0;
+			return;
+		}
+		ByteBuffer move = ring.duplicate();
+		move.limit(write);
+		move.position(keep);
+		move.compact();
+		write -= keep;
+		scan -= keep;
+		skipTo -= keep;
+		if (frameStart >= 0) frameStart -= keep;
+	}
+
+	/**
+	 * Look for the next frame start.
+	 * @param from Index to look from
+	 */
+	private void restart(int from) {
+		state = SEEK_SOI;
+		frameStart = -1;
+		scan = from;
+	}
+
+	/**
+	 * Advance the frame splitter through the bytes read.
+	 */
+	private void split() {
+		while (true) {
+			switch (state) {
+			case SEEK_SOI:
+				while (scan + 1 < write && !(byteAt(scan) == MARKER && byteAt(scan+1) == SOI)) scan++;
+				if (scan + 1 >= write) return;
+				frameStart = scan;
+				scan += 2;
+				state = SEGMENT;
+				break;
+
+			case SEGMENT:
+				if (scan + 1 >= write) return;
+				if (byteAt(scan) != MARKER) {
+					//not a JPEG marker, the frame is corrupt
+					dropped++;
+					restart(scan);
+					break;
+				}
+				int marker = byteAt(scan+1);
+				if (marker == MARKER) {
+					scan++; //fill byte
+				} else if (marker == EOI) {
+					scan += 2;
+					deliver(frameStart, scan);
+					restart(scan);
+				} else if (marker == SOI) {
+					//frame without an end, start over at the new frame
+					dropped++;
+					restart(scan);
+				} else if ((marker >= RST0 && marker <= RST7) || marker == TEM) {
+					scan += 2;
+				} else {
+					if (scan + 3 >= write) return;
+					int length = byteAt(scan+2) << 8 | byteAt(scan+3);
+					if (length < 2) {
+						dropped++;
+						restart(scan + 2);
+						break;
+					}
+					skipTo = scan + 2 + length;
+					afterSkip = (marker == SOS) ? SCAN : SEGMENT;
+					state = SKIP;
+				}
+				break;
+
+			case SKIP:
+				if (skipTo > write) return;
+				scan = skipTo;
+				state = afterSkip;
+				break;
+
+			case SCAN:
+				//0XFF in entropy coded data is followed by 0X00 or a restart marker
+				while (scan + 1 < write) {
+					if (byteAt(scan) != MARKER) {
+						scan++;
+						continue;
+					}
+					int next = byteAt(scan+1);
+					if (next == 0X00 || (next >= RST0 && next <= RST7)) scan += 2;
+					else if (next == MARKER) scan++;
+					else break;
+				}
+				if (scan + 1 >= write) return;
+				state = SEGMENT;
+				break;
+			}
+		}
+	}
+
+	private int byteAt(int index) {
+		return ring.get(index) & 0XFF;
+	}
+
+	/**
+	 * Pass a frame to the listener.
+	 * @param start Index of the SOI marker
+	 * @param end Index after the EOI marker
+	 */
+	private void deliver(int start, int end) {
+		long now = System.nanoTime();
+		view.clear();
+		view.limit(end);
+		view.position(start);
+		try {
+			listener.frame(view, frames, now);
+		} catch (RuntimeException e) {
+			System.out.println("Error - RaspberryPiCameraStream frame listener failed");
+			e.printStackTrace();
+		}
+		frames++;
+	}
+
+	/**
+	 * Is the stream running?
+	 * @return true if frames are being read
+	 */
+	public boolean isAlive() {
+		return !closed && readerThread.isAlive();
+	}
+
+	/**
+	 * Return the number of frames passed to the listener.
+	 * @return frames
+	 */
+	public long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Return the number of frames dropped because they were corrupt or did not fit in the buffer.
+	 * @return frames
+	 */
+	public long getDroppedFrames() {
+		return dropped;
+	}
+
+	/**
+	 * Return the number of bytes read from the camera program.
+	 * @return bytes
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * End the camera program and the reader thread.
+	 */
+	public synchronized void close() {
+		if (closed) return;
+		closed = true;
+		pCamera.destroy();
+		try {
+			readerThread.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
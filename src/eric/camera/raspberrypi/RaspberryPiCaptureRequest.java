@@ -0,0 +1,49 @@
+/**
+ * The RaspberryPiCaptureRequest class is an immutable request to take one image with
+ * the raspistill program: the command line built from a snapshot of the image settings 
+ * and the output image file. Requests are created by RaspberryPiCamera.captureRequest()
+ * and run by RaspberryPiCameraExecutor.
+ * 
+ */
+package eric.camera.raspberrypi;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public final class RaspberryPiCaptureRequest {
+	
+	private final List<String> command;	//raspistill command line, one argument per element
+	private final File output;			//image file written by the command
+	
+	/**
+	 * @param command raspistill program and its arguments
+	 * @param output Image file written by the command
+	 */
+	RaspberryPiCaptureRequest(List<String> command, File output) {
+		this.command = Collections.unmodifiableList(new ArrayList<String>(command));
+		this.output = output;
+	}
+	
+	/**
+	 * Return the raspistill command line.
+	 * @return Unmodifiable list of the program and its arguments
+	 */
+	public List<String> getCommand() {
+		return command;
+	}
+	
+	/**
+	 * Return the image file written by the request.
+	 * @return File
+	 */
+	public File getOutput() {
+		return output;
+	}
+	
+	@Override
+	public String toString() {
+		return String.join(" ", command);
+	}
+}
@@ -0,0 +1,155 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  AdafruitHatAsyncBatchTest.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks register batches committed in asynchronous write mode. A batch that stages 
+ * channels 0 and 2 is queued as one write spanning channel 1; the registers of 
+ * channel 1 must keep the values another thread writes to them meanwhile. That thread
+ * writes increasing values, so a batch sending an old value of channel 1 is seen as
+ * the channel going backwards on the chip.
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.AdafruitHat
+ */
+public class AdafruitHatAsyncBatchTest {
+	
+	//Batches committed and channel 1 writes made by the two threads, below 4095 so the
+	//values written to channel 1 keep increasing
+	private static final int WRITES = 4000;
+	//Times the two threads are run
+	private static final int ROUNDS = 50;
+	
+	private PCA9685Simulator simulator;
+	private AdafruitServoHat hat;
+	
+	@Before
+	public void setUp() {
+		simulator = new PCA9685Simulator();
+		hat = new AdafruitServoHat(0X40, simulator);
+		hat.setAsyncWrites(true);
+	}
+	
+	@After
+	public void tearDown() {
+		hat.setAsyncWrites(false);
+	}
+	
+	@Test
+	public void batchWithGapIsOneTransaction() {
+		hat.writeBlock(hat.LED1_ON_L, channel(7), 0, 4);
+		hat.flushWrites();
+		long transactions = hat.getTransactions();
+		
+		commit(1);
+		hat.flushWrites();
+		
+		assertEquals("transactions per commit", 1, hat.getTransactions() - transactions);
+		assertChannel(0, 1);
+		assertChannel(1, 7);
+		assertChannel(2, 1);
+	}
+	
+	@Test
+	public void channelOutsideBatchKeepsItsValue() throws InterruptedException {
+		for (int round=0; round<ROUNDS; round++) {
+			hat.writeBlock(hat.LED1_ON_L, channel(0), 0, 4);
+			hat.flushWrites();
+			
+			final AtomicBoolean done = new AtomicBoolean();
+			final AtomicInteger reversals = new AtomicInteger();
+			Thread batches = new Thread() {
+				@Override
+				public void run() {
+					for (int i=1; i<=WRITES; i++) commit(i);
+				}
+			};
+			Thread writes = new Thread() {
+				@Override
+				public void run() {
+					for (int i=1; i<=WRITES; i++) hat.writeBlock(hat.LED1_ON_L, channel(i), 0, 4);
+				}
+			};
+			Thread watch = new Thread() {
+				@Override
+				public void run() {
+					int last = 0;
+					while (!done.get()) {
+						int off = simulator.getOff(1);
+						if (off < last) reversals.incrementAndGet();
+						last = off;
+					}
+				}
+			};
+			watch.start();
+			batches.start();
+			writes.start();
+			batches.join();
+			writes.join();
+			hat.flushWrites();
+			done.set(true);
+			watch.join();
+			
+			assertEquals("channel 1 went back to an older value", 0, reversals.get());
+			assertChannel(0, WRITES);
+			assertChannel(1, WRITES);
+			assertChannel(2, WRITES);
+		}
+	}
+	
+	/**
+	 * Commit a batch setting channels 0 and 2.
+	 */
+	private void commit(int value) {
+		hat.beginBatch();
+		hat.writeBlock(hat.LED0_ON_L, channel(value), 0, 4);
+		hat.writeBlock(hat.LED2_ON_L, channel(value), 0, 4);
+		hat.commitBatch();
+	}
+	
+	/**
+	 * Return the LED PWM registers of a channel turning off at a tick derived from the value.
+	 */
+	private static byte[] channel(int value) {
+		int off = value % 4095 + 1;
+		return new byte[] {0, 0, (byte) off, (byte) (off >> 8)};
+	}
+	
+	private void assertChannel(int channel, int value) {
+		assertEquals("channel " + channel + " off", value % 4095 + 1, simulator.getOff(channel));
+	}
+}
@@ -0,0 +1,98 @@
+package com.pi4j.component.adafruithat;
+/*
+ * #%L
+ * **********************************************************************
+ * ORGANIZATION  :  Pi4J
+ * PROJECT       :  Pi4J :: Java Library (Core)
+ * FILENAME      :  AdafruitStepperMotorAllocationTest.java
+ *
+ * This file is part of the Pi4J project. More information about
+ * this project can be found here:  http://www.pi4j.com/
+ * **********************************************************************
+ * %%
+ * Copyright (C) 2012 - 2016 Pi4J
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-3.0.html>.
+ * #L%
+ */
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that AdafruitStepperMotor.oneStep() does not allocate memory in any 
+ * StepperMode. The steps are sent to a PCA9685Simulator and the bytes allocated by 
+ * the test thread are read from the ThreadMXBean around the steps, after enough 
+ * steps to load the classes and compile the stepping code.
+ *
+ * @author Eric Eliason
+ * @see com.pi4j.component.adafruithat.AdafruitStepperMotor
+ */
+public class AdafruitStepperMotorAllocationTest {
+	
+	//Steps taken before measuring, to load classes and compile the stepping code
+	private static final int WARMUP_STEPS = 200000;
+	//Steps measured
+	private static final int STEPS = 10000;
+	
+	private com.sun.management.ThreadMXBean threads;
+	private AdafruitStepperMotor motor;
+	
+	@Before
+	public void setUp() {
+		assertTrue("ThreadMXBean can not measure allocation", 
+				ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+		threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		threads.setThreadAllocatedMemoryEnabled(true);
+		AdafruitMotorHat motorHat = new AdafruitMotorHat(0X60, new PCA9685Simulator());
+		motor = motorHat.getStepperMotor("SM1");
+	}
+	
+	@Test
+	public void singlePhaseStepDoesNotAllocate() {
+		assertStepDoesNotAllocate(StepperMode.SINGLE_PHASE);
+	}
+	
+	@Test
+	public void doublePhaseStepDoesNotAllocate() {
+		assertStepDoesNotAllocate(StepperMode.DOUBLE_PHASE);
+	}
+	
+	@Test
+	public void halfStepDoesNotAllocate() {
+		assertStepDoesNotAllocate(StepperMode.HALF_STEP);
+	}
+	
+	@Test
+	public void multiStepDoesNotAllocate() {
+		assertStepDoesNotAllocate(StepperMode.MULTI_STEP);
+	}
+	
+	private void assertStepDoesNotAllocate(StepperMode mode) {
+		motor.setMode(mode);
+		for (int i=0; i<WARMUP_STEPS; i++) motor.oneStep();
+		
+		long thread = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(thread);
+		for (int i=0; i<STEPS; i++) motor.oneStep();
+		long after = threads.getThreadAllocatedBytes(thread);
+		
+		assertEquals(mode + " bytes allocated per step", 0.0, (double) (after - before)/STEPS, 0.0);
+	}
+}